@@ -23,7 +23,6 @@
  */
 package com.cloudbees.jenkins.plugins.bitbucket;
 
-import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketApi;
 import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketBuildStatus;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
@@ -37,7 +36,6 @@ import hudson.plugins.mercurial.MercurialSCMSource;
 import hudson.scm.SCM;
 import hudson.scm.SCMRevisionState;
 import java.io.File;
-import java.io.IOException;
 import javax.annotation.CheckForNull;
 import jenkins.model.JenkinsLocationConfiguration;
 import jenkins.plugins.git.AbstractGitSCMSource;
@@ -55,8 +53,7 @@ import org.jenkinsci.plugins.displayurlapi.DisplayURLProvider;
 public class BitbucketBuildStatusNotifications {
 
     private static void createStatus(@NonNull Run<?, ?> build, @NonNull TaskListener listener,
-                                     @NonNull BitbucketApi bitbucket, @NonNull String hash)
-            throws IOException, InterruptedException {
+                                     @NonNull String repoOwner, @NonNull String repository, @NonNull String hash) {
         JenkinsLocationConfiguration cfg = JenkinsLocationConfiguration.get();
         if (cfg == null || cfg.getUrl() == null) {
             listener.getLogger().println(
@@ -90,14 +87,14 @@ public class BitbucketBuildStatusNotifications {
         } else {
             status = new BitbucketBuildStatus(hash, "The tests have started...", "INPROGRESS", url, key, name);
         }
-        new BitbucketChangesetCommentNotifier(bitbucket).buildStatus(status);
+        // posted in the background so that the build does not wait on Bitbucket
+        BitbucketBuildStatusOutbox.get().submit(build.getParent().getFullName(), repoOwner, repository, status);
         if (result != null) {
-            listener.getLogger().println("[Bitbucket] Build result notified");
+            listener.getLogger().println("[Bitbucket] Build result queued for notification");
         }
     }
 
-    private static void sendNotifications(Run<?, ?> build, TaskListener listener)
-            throws IOException, InterruptedException {
+    private static void sendNotifications(Run<?, ?> build, TaskListener listener) {
         final SCMSource s = SCMSource.SourceByItem.findSource(build.getParent());
         if (!(s instanceof BitbucketSCMSource)) {
             return;
@@ -115,11 +112,12 @@ public class BitbucketBuildStatusNotifications {
         }
         if (r instanceof PullRequestSCMRevision) {
             listener.getLogger().println("[Bitbucket] Notifying pull request build result");
-            createStatus(build, listener, source.buildBitbucketClient((PullRequestSCMHead) r.getHead()), hash);
+            PullRequestSCMHead head = (PullRequestSCMHead) r.getHead();
+            createStatus(build, listener, head.getRepoOwner(), head.getRepository(), hash);
 
         } else {
             listener.getLogger().println("[Bitbucket] Notifying commit build result");
-            createStatus(build, listener, source.buildBitbucketClient(), hash);
+            createStatus(build, listener, source.getRepoOwner(), source.getRepository(), hash);
         }
     }
 
@@ -146,11 +144,7 @@ public class BitbucketBuildStatusNotifications {
         @Override
         public void onCheckout(Run<?, ?> build, SCM scm, FilePath workspace, TaskListener listener, File changelogFile,
                                SCMRevisionState pollingBaseline) throws Exception {
-            try {
-                sendNotifications(build, listener);
-            } catch (IOException | InterruptedException e) {
-                e.printStackTrace(listener.error("Could not send notifications"));
-            }
+            sendNotifications(build, listener);
         }
     }
 
@@ -162,11 +156,7 @@ public class BitbucketBuildStatusNotifications {
 
         @Override
         public void onCompleted(Run<?, ?> build, TaskListener listener) {
-            try {
-                sendNotifications(build, listener);
-            } catch (IOException | InterruptedException e) {
-                e.printStackTrace(listener.error("Could not send notifications"));
-            }
+            sendNotifications(build, listener);
         }
     }
 }
@@ -0,0 +1,593 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket;
+
+import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketApi;
+import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketApiFactory;
+import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketBuildStatus;
+import com.cloudbees.jenkins.plugins.bitbucket.server.client.BitbucketServerAPIClient;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import hudson.model.Job;
+import hudson.security.ACL;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.scm.api.SCMSource;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * The build statuses waiting to be posted to Bitbucket, so that builds do not wait on Bitbucket to report their
+ * status. Statuses are posted by a small pool of workers, retried with an exponential backoff when Bitbucket cannot
+ * be reached and kept on disk until posted so that they survive a restart.
+ *
+ * @since 2.2.13
+ */
+@Restricted(NoExternalUse.class)
+public final class BitbucketBuildStatusOutbox {
+
+    private static final Logger LOGGER = Logger.getLogger(BitbucketBuildStatusOutbox.class.getName());
+
+    /**
+     * The number of threads posting statuses.
+     */
+    private static final int THREADS = Integer.getInteger(BitbucketBuildStatusOutbox.class.getName() + ".threads", 2);
+
+    /**
+     * The number of attempts to post a status before giving up on it.
+     */
+    private static final int MAX_ATTEMPTS =
+            Integer.getInteger(BitbucketBuildStatusOutbox.class.getName() + ".maxAttempts", 10);
+
+    /**
+     * The delay before the first retry, doubled on each following retry.
+     */
+    private static final long RETRY_DELAY_MILLIS =
+            Long.getLong(BitbucketBuildStatusOutbox.class.getName() + ".retryDelayMillis", 5000L);
+
+    /**
+     * The longest delay between two attempts.
+     */
+    private static final long MAX_RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * The number of posted statuses to remember in order to skip posting them again.
+     */
+    private static final int MAX_POSTED =
+            Integer.getInteger(BitbucketBuildStatusOutbox.class.getName() + ".maxPosted", 10000);
+
+    /**
+     * How long a new status waits for other statuses of the same repository to be posted along with.
+     */
+    private static final long BATCH_WINDOW_MILLIS =
+            Long.getLong(BitbucketBuildStatusOutbox.class.getName() + ".batchWindowMillis", 500L);
+
+    /**
+     * The maximum number of statuses posted together.
+     */
+    private static final int MAX_BATCH =
+            Integer.getInteger(BitbucketBuildStatusOutbox.class.getName() + ".maxBatch", 50);
+
+    /**
+     * How long changes to the waiting statuses are collected before they are saved together.
+     */
+    private static final long SAVE_DELAY_MILLIS =
+            Long.getLong(BitbucketBuildStatusOutbox.class.getName() + ".saveDelayMillis", 1000L);
+
+    @CheckForNull
+    private static BitbucketBuildStatusOutbox instance;
+
+    @CheckForNull
+    private final XmlFile file;
+
+    @NonNull
+    private final Poster poster;
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    private final long retryDelayMillis;
+
+    private final long batchWindowMillis;
+
+    /**
+     * The statuses waiting to be posted, by {@link Pending#target()}, in submission order.
+     */
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+
+    /**
+     * The last status posted for each {@link Pending#target()}, to skip posting the same status again.
+     */
+    private final Map<String, String> posted;
+
+    /**
+     * Held while writing the {@link #file}, so that the saves are written in order.
+     */
+    private final Object saving = new Object();
+
+    /**
+     * Whether a save of the waiting statuses is scheduled and has not started yet.
+     */
+    private boolean saveScheduled;
+
+    /**
+     * Constructor.
+     *
+     * @param file              where to keep the waiting statuses or {@code null} to keep them in memory only.
+     * @param poster            posts the statuses.
+     * @param threads           the number of threads posting statuses.
+     * @param retryDelayMillis  the delay before the first retry.
+     * @param maxPosted         the number of posted statuses to remember.
+     * @param batchWindowMillis how long a new status waits for other statuses to be posted along with.
+     */
+    BitbucketBuildStatusOutbox(@CheckForNull File file, @NonNull Poster poster, int threads, long retryDelayMillis,
+                               final int maxPosted, long batchWindowMillis) {
+        this.file = file == null ? null : new XmlFile(Jenkins.XSTREAM2, file);
+        this.poster = poster;
+        this.retryDelayMillis = retryDelayMillis;
+        this.batchWindowMillis = batchWindowMillis;
+        this.posted = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > maxPosted;
+            }
+        };
+        this.executor = new ScheduledThreadPoolExecutor(threads,
+                new NamingThreadFactory(new DaemonThreadFactory(), BitbucketBuildStatusOutbox.class.getName()));
+    }
+
+    /**
+     * Returns the outbox of this Jenkins instance.
+     *
+     * @return the outbox of this Jenkins instance.
+     */
+    @NonNull
+    public static synchronized BitbucketBuildStatusOutbox get() {
+        if (instance == null) {
+            instance = new BitbucketBuildStatusOutbox(
+                    new File(Jenkins.getActiveInstance().getRootDir(), BitbucketBuildStatusOutbox.class.getName()
+                            + ".xml"),
+                    new JobPoster(),
+                    THREADS,
+                    RETRY_DELAY_MILLIS,
+                    MAX_POSTED,
+                    BATCH_WINDOW_MILLIS
+            );
+        }
+        return instance;
+    }
+
+    /**
+     * Schedules the statuses that were waiting when Jenkins stopped, once their jobs are loaded.
+     */
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void resume() {
+        get().load();
+    }
+
+    /**
+     * Saves the statuses still waiting when Jenkins stops.
+     */
+    @Terminator
+    public static void persist() {
+        BitbucketBuildStatusOutbox outbox;
+        synchronized (BitbucketBuildStatusOutbox.class) {
+            outbox = instance;
+        }
+        if (outbox != null) {
+            outbox.flush();
+        }
+    }
+
+    /**
+     * Queues a status to be posted. A status that is the same as the last one posted for its commit and key is
+     * skipped, and a status that is still waiting to be posted for the same commit and key is replaced, so that only
+     * the latest state is posted. The statuses of a repository queued within a short window are posted together.
+     *
+     * @param job        the full name of the job the status is about.
+     * @param repoOwner  the owner of the repository holding the commit.
+     * @param repository the repository holding the commit.
+     * @param status     the status.
+     */
+    public void submit(@NonNull String job, @NonNull String repoOwner, @NonNull String repository,
+                       @NonNull BitbucketBuildStatus status) {
+        Pending p = new Pending(job, repoOwner, repository, status);
+        String target = p.target();
+        synchronized (this) {
+            Pending waiting = pending.get(target);
+            if (waiting != null) {
+                if (!fingerprint(waiting.status).equals(fingerprint(status))) {
+                    // the waiting or posting status is superseded, its worker posts this one next
+                    LOGGER.log(Level.FINE, "Superseding the {0} status of {1} for {2} with {3}",
+                            new Object[]{waiting.status.getState(), job, status.getHash(), status.getState()});
+                    waiting.status = status;
+                    waiting.attempts = 0;
+                    saveLater();
+                }
+                return;
+            }
+            if (fingerprint(status).equals(posted.get(target))) {
+                LOGGER.log(Level.FINE, "Skipping the {0} status of {1} for {2}, it was already posted",
+                        new Object[]{status.getState(), job, status.getHash()});
+                return;
+            }
+            pending.put(target, p);
+            saveLater();
+            schedule(p, batchWindowMillis);
+        }
+    }
+
+    /**
+     * Returns the number of statuses waiting to be posted.
+     *
+     * @return the number of statuses waiting to be posted.
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized void load() {
+        if (file == null || !file.exists()) {
+            return;
+        }
+        List<Pending> loaded;
+        try {
+            loaded = (List<Pending>) file.read();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not read the Bitbucket build statuses waiting to be posted", e);
+            return;
+        }
+        int resumed = 0;
+        for (Pending p : loaded) {
+            // a status submitted before loading is newer than the saved one
+            if (!pending.containsKey(p.target())) {
+                pending.put(p.target(), p);
+                schedule(p, 0L);
+                resumed++;
+            }
+        }
+        if (resumed > 0) {
+            LOGGER.log(Level.INFO, "Resuming the posting of {0} Bitbucket build statuses", resumed);
+        }
+    }
+
+    /**
+     * Schedules a waiting status, replacing any earlier schedule of it.
+     */
+    private synchronized void schedule(final Pending p, long delayMillis) {
+        final int generation = ++p.generation;
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                post(p, generation);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void post(Pending first, int generation) {
+        List<Pending> batch = new ArrayList<>();
+        List<Post> posts = new ArrayList<>();
+        synchronized (this) {
+            if (first.generation != generation || first.posting != null || pending.get(first.target()) != first) {
+                // rescheduled, posted along with another status or superseded
+                return;
+            }
+            batch.add(first);
+            for (Pending p : pending.values()) {
+                if (batch.size() >= MAX_BATCH) {
+                    break;
+                }
+                if (p != first && p.posting == null && p.attempts == 0 && p.repoOwner.equals(first.repoOwner)
+                        && p.repository.equals(first.repository)) {
+                    batch.add(p);
+                }
+            }
+            for (Pending p : batch) {
+                p.generation++;
+                p.posting = p.status;
+                posts.add(new Post(p.job, p.posting));
+            }
+        }
+        try {
+            poster.postAll(first.repoOwner, first.repository, posts);
+            for (Pending p : batch) {
+                done(p);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Pending p : batch) {
+                retry(p, e);
+            }
+        } catch (InterruptedException e) {
+            for (Pending p : batch) {
+                retry(p, e);
+            }
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void done(Pending p) {
+        posted.put(p.target(), fingerprint(p.posting));
+        boolean superseded = p.status != p.posting;
+        p.posting = null;
+        if (superseded) {
+            schedule(p, 0L);
+            return;
+        }
+        pending.remove(p.target());
+        saveLater();
+    }
+
+    private void retry(Pending p, Exception cause) {
+        int attempts;
+        BitbucketBuildStatus status;
+        synchronized (this) {
+            status = p.posting;
+            p.posting = null;
+            if (p.status != status) {
+                // superseded while posting, the new status gets its own attempts
+                schedule(p, 0L);
+                return;
+            }
+            attempts = ++p.attempts;
+            if (attempts >= MAX_ATTEMPTS) {
+                pending.remove(p.target());
+            }
+            saveLater();
+        }
+        if (attempts >= MAX_ATTEMPTS) {
+            LOGGER.log(Level.WARNING, "Giving up on posting the " + status.getState() + " status of " + p.job
+                    + " for " + status.getHash() + " after " + attempts + " attempts", cause);
+            return;
+        }
+        long delay = Math.min(retryDelayMillis << Math.min(attempts - 1, 20), MAX_RETRY_DELAY_MILLIS);
+        LOGGER.log(Level.FINE, "Could not post the " + status.getState() + " status of " + p.job + " for "
+                + status.getHash() + ", retrying in " + delay + " ms", cause);
+        schedule(p, delay);
+    }
+
+    /**
+     * Returns what Bitbucket shows of a status, two statuses with the same fingerprint are the same for Bitbucket.
+     */
+    private static String fingerprint(BitbucketBuildStatus status) {
+        return status.getState() + '\n' + status.getDescription() + '\n' + status.getUrl() + '\n'
+                + status.getName();
+    }
+
+    /**
+     * Schedules a save of the waiting statuses, so that a burst of changes is written once and off the threads
+     * submitting statuses.
+     */
+    private synchronized void saveLater() {
+        if (file == null || saveScheduled) {
+            return;
+        }
+        saveScheduled = true;
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Saves the waiting statuses now.
+     */
+    void flush() {
+        if (file == null) {
+            return;
+        }
+        synchronized (saving) {
+            List<Pending> waiting;
+            synchronized (this) {
+                saveScheduled = false;
+                waiting = new ArrayList<>(pending.values());
+            }
+            try {
+                file.write(waiting);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not save the Bitbucket build statuses waiting to be posted", e);
+            }
+        }
+    }
+
+    /**
+     * Posts statuses to Bitbucket.
+     */
+    abstract static class Poster {
+        /**
+         * Posts a status.
+         *
+         * @param job        the full name of the job the status is about.
+         * @param repoOwner  the owner of the repository holding the commit.
+         * @param repository the repository holding the commit.
+         * @param status     the status.
+         * @throws IOException          if the status could not be posted and should be retried.
+         * @throws InterruptedException if interrupted while posting.
+         */
+        public abstract void post(@NonNull String job, @NonNull String repoOwner, @NonNull String repository,
+                                  @NonNull BitbucketBuildStatus status) throws IOException, InterruptedException;
+
+        /**
+         * Posts the statuses of several commits of a repository, one at a time unless overridden.
+         *
+         * @param repoOwner  the owner of the repository holding the commits.
+         * @param repository the repository holding the commits.
+         * @param posts      the statuses, in submission order.
+         * @throws IOException          if the statuses could not all be posted and should be retried.
+         * @throws InterruptedException if interrupted while posting.
+         */
+        public void postAll(@NonNull String repoOwner, @NonNull String repository, @NonNull List<Post> posts)
+                throws IOException, InterruptedException {
+            for (Post post : posts) {
+                post(post.getJob(), repoOwner, repository, post.getStatus());
+            }
+        }
+    }
+
+    /**
+     * Posts statuses with the server and credentials of the {@link BitbucketSCMSource} the job currently comes from,
+     * dropping the statuses of jobs that no longer come from one. The clients are borrowed from the
+     * {@link BitbucketNotificationClientPool}, one per endpoint, credentials and repository of a batch.
+     */
+    static final class JobPoster extends Poster {
+        @Override
+        public void post(@NonNull String job, @NonNull String repoOwner, @NonNull String repository,
+                         @NonNull BitbucketBuildStatus status) throws IOException, InterruptedException {
+            postAll(repoOwner, repository, Collections.singletonList(new Post(job, status)));
+        }
+
+        @Override
+        public void postAll(@NonNull final String repoOwner, @NonNull final String repository,
+                            @NonNull List<Post> posts) throws IOException, InterruptedException {
+            Map<String, BitbucketSCMSource> sources = new LinkedHashMap<>();
+            Map<String, List<BitbucketBuildStatus>> statuses = new LinkedHashMap<>();
+            SecurityContext old = ACL.impersonate(ACL.SYSTEM);
+            try {
+                for (Post post : posts) {
+                    Job<?, ?> j = Jenkins.getActiveInstance().getItemByFullName(post.getJob(), Job.class);
+                    SCMSource s = j == null ? null : SCMSource.SourceByItem.findSource(j);
+                    if (!(s instanceof BitbucketSCMSource)) {
+                        LOGGER.log(Level.FINE,
+                                "Dropping the build status of {0} as it is no longer built from Bitbucket",
+                                post.getJob());
+                        continue;
+                    }
+                    BitbucketSCMSource source = (BitbucketSCMSource) s;
+                    String key = source.getServerUrl() + '\n' + source.getCredentialsId() + '\n' + repoOwner + '/'
+                            + repository;
+                    if (!sources.containsKey(key)) {
+                        sources.put(key, source);
+                        statuses.put(key, new ArrayList<BitbucketBuildStatus>());
+                    }
+                    statuses.get(key).add(post.getStatus());
+                }
+            } finally {
+                SecurityContextHolder.setContext(old);
+            }
+            BitbucketNotificationClientPool pool = BitbucketNotificationClientPool.get();
+            for (Map.Entry<String, BitbucketSCMSource> entry : sources.entrySet()) {
+                final BitbucketSCMSource source = entry.getValue();
+                BitbucketNotificationClientPool.Lease lease = pool.borrow(entry.getKey(),
+                        new BitbucketNotificationClientPool.Factory() {
+                            @NonNull
+                            @Override
+                            public BitbucketApi create() {
+                                return BitbucketApiFactory.newInstance(source.getServerUrl(), source.credentials(),
+                                        repoOwner, repository);
+                            }
+                        });
+                BitbucketApi client = lease.getClient();
+                if (client instanceof BitbucketServerAPIClient) {
+                    // one connection for the whole batch
+                    ((BitbucketServerAPIClient) client).postBuildStatuses(statuses.get(entry.getKey()));
+                } else {
+                    BitbucketChangesetCommentNotifier notifier = new BitbucketChangesetCommentNotifier(client);
+                    for (BitbucketBuildStatus status : statuses.get(entry.getKey())) {
+                        notifier.buildStatus(status);
+                    }
+                }
+                pool.release(lease);
+            }
+        }
+    }
+
+    /**
+     * A status to post.
+     */
+    static final class Post {
+        private final String job;
+        private final BitbucketBuildStatus status;
+
+        Post(@NonNull String job, @NonNull BitbucketBuildStatus status) {
+            this.job = job;
+            this.status = status;
+        }
+
+        /**
+         * @return the full name of the job the status is about.
+         */
+        @NonNull
+        String getJob() {
+            return job;
+        }
+
+        @NonNull
+        BitbucketBuildStatus getStatus() {
+            return status;
+        }
+    }
+
+    /**
+     * The status waiting to be posted for a commit and key.
+     */
+    static final class Pending {
+        private final String job;
+        private final String repoOwner;
+        private final String repository;
+        private BitbucketBuildStatus status;
+        private int attempts;
+        /**
+         * The status being posted, if any.
+         */
+        @CheckForNull
+        private transient BitbucketBuildStatus posting;
+        /**
+         * Identifies the latest schedule, earlier schedules do nothing.
+         */
+        private transient int generation;
+
+        Pending(String job, String repoOwner, String repository, BitbucketBuildStatus status) {
+            this.job = job;
+            this.repoOwner = repoOwner;
+            this.repository = repository;
+            this.status = status;
+        }
+
+        /**
+         * Returns what the status is posted on, a later status for the same target replaces the previous one.
+         */
+        String target() {
+            return repoOwner + '/' + repository + '@' + status.getHash() + ':' + status.getKey();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket;
+
+import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketApi;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The idle {@link BitbucketApi} clients used to post build statuses, so that posting a status does not look up the
+ * credentials and set up a new client each time.
+ *
+ * A client is lent to one caller at a time, as the clients are not meant to be shared between threads. Clients are
+ * only kept for a while so that changes to the credentials are picked up.
+ *
+ * @since 2.2.13
+ */
+final class BitbucketNotificationClientPool {
+
+    /**
+     * The maximum number of idle clients kept.
+     */
+    private static final int MAX_IDLE =
+            Integer.getInteger(BitbucketNotificationClientPool.class.getName() + ".maxIdle", 32);
+
+    /**
+     * How long a client is used for.
+     */
+    private static final long TTL_MILLIS = Long.getLong(BitbucketNotificationClientPool.class.getName() + ".ttlMillis",
+            TimeUnit.MINUTES.toMillis(5));
+
+    private static final BitbucketNotificationClientPool INSTANCE =
+            new BitbucketNotificationClientPool(MAX_IDLE, TTL_MILLIS);
+
+    private final int maxIdle;
+
+    private final long ttlMillis;
+
+    /**
+     * Key to the idle clients for that key, most recently returned first. Iterates from the least recently used key.
+     */
+    private final Map<String, Deque<Lease>> idle = new LinkedHashMap<>(16, 0.75f, true);
+
+    private int idleCount;
+
+    BitbucketNotificationClientPool(int maxIdle, long ttlMillis) {
+        this.maxIdle = maxIdle;
+        this.ttlMillis = ttlMillis;
+    }
+
+    @NonNull
+    static BitbucketNotificationClientPool get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Borrows a client, creating one if there is no idle client for the key.
+     *
+     * @param key     identifies the endpoint, credentials and repository of the client.
+     * @param factory creates the client if needed.
+     * @return the lease of the client, to {@link #release} once done with it.
+     */
+    @NonNull
+    Lease borrow(@NonNull String key, @NonNull Factory factory) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Deque<Lease> leases = idle.get(key);
+            if (leases != null) {
+                Lease lease;
+                while ((lease = leases.pollFirst()) != null) {
+                    idleCount--;
+                    if (now - lease.created < ttlMillis) {
+                        break;
+                    }
+                }
+                if (leases.isEmpty()) {
+                    idle.remove(key);
+                }
+                if (lease != null) {
+                    return lease;
+                }
+            }
+        }
+        return new Lease(key, factory.create(), now);
+    }
+
+    /**
+     * Returns a client that worked to the pool. Clients that failed should not be returned.
+     *
+     * @param lease the lease of the client.
+     */
+    synchronized void release(@NonNull Lease lease) {
+        if (System.currentTimeMillis() - lease.created >= ttlMillis) {
+            return;
+        }
+        Deque<Lease> leases = idle.get(lease.key);
+        if (leases == null) {
+            leases = new ArrayDeque<>();
+            idle.put(lease.key, leases);
+        }
+        leases.addFirst(lease);
+        idleCount++;
+        Iterator<Deque<Lease>> eldest = idle.values().iterator();
+        while (idleCount > maxIdle && eldest.hasNext()) {
+            Deque<Lease> least = eldest.next();
+            while (idleCount > maxIdle && least.pollLast() != null) {
+                idleCount--;
+            }
+            if (least.isEmpty()) {
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of idle clients.
+     *
+     * @return the number of idle clients.
+     */
+    synchronized int getIdleCount() {
+        return idleCount;
+    }
+
+    /**
+     * Creates clients.
+     */
+    interface Factory {
+        /**
+         * Creates a client.
+         *
+         * @return the client.
+         */
+        @NonNull
+        BitbucketApi create();
+    }
+
+    /**
+     * A client lent by the pool.
+     */
+    static final class Lease {
+        private final String key;
+        private final BitbucketApi client;
+        private final long created;
+
+        Lease(String key, BitbucketApi client, long created) {
+            this.key = key;
+            this.client = client;
+            this.created = created;
+        }
+
+        @NonNull
+        BitbucketApi getClient() {
+            return client;
+        }
+    }
+}
@@ -464,6 +464,7 @@ public class BitbucketSCMNavigator extends SCMNavigator {
                     .format("Connecting to %s using %s%n", serverUrl, CredentialsNameProvider.name(credentials));
         }
         try (final BitbucketSCMNavigatorRequest request = new BitbucketSCMNavigatorContext().withTraits(traits)
+                .withRepositoryNameFilter(NameFilterHint.forSources(traits))
                 .newRequest(this, observer)) {
             SourceFactory sourceFactory = new SourceFactory(request);
             WitnessImpl witness = new WitnessImpl(listener);
@@ -471,14 +472,19 @@ public class BitbucketSCMNavigator extends SCMNavigator {
             BitbucketApi bitbucket = BitbucketApiFactory.newInstance(serverUrl, credentials, repoOwner, null);
             BitbucketTeam team = bitbucket.getTeam();
             List<? extends BitbucketRepository> repositories;
+            String nameFilter = request.getRepositoryNameFilter();
             if (team != null) {
                 // Navigate repositories of the team
                 listener.getLogger().format("Looking up repositories of team %s%n", repoOwner);
-                repositories = bitbucket.getRepositories();
+                repositories = nameFilter == null
+                        ? bitbucket.getRepositories()
+                        : bitbucket.getRepositories(null, nameFilter);
             } else {
                 // Navigate the repositories of the repoOwner as a user
                 listener.getLogger().format("Looking up repositories of user %s%n", repoOwner);
-                repositories = bitbucket.getRepositories(UserRoleInRepository.OWNER);
+                repositories = nameFilter == null
+                        ? bitbucket.getRepositories(UserRoleInRepository.OWNER)
+                        : bitbucket.getRepositories(UserRoleInRepository.OWNER, nameFilter);
             }
             for (BitbucketRepository repo : repositories) {
                 if (request.process(repo.getRepositoryName(), sourceFactory, null, witness)) {
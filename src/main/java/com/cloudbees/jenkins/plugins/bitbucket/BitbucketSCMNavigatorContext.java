@@ -23,6 +23,7 @@
  */
 package com.cloudbees.jenkins.plugins.bitbucket;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import jenkins.scm.api.SCMNavigator;
 import jenkins.scm.api.SCMSourceObserver;
@@ -35,6 +36,35 @@ import jenkins.scm.api.trait.SCMNavigatorContext;
  */
 public class BitbucketSCMNavigatorContext
         extends SCMNavigatorContext<BitbucketSCMNavigatorContext, BitbucketSCMNavigatorRequest> {
+    /**
+     * A literal that the names of all interesting repositories contain, to be used as a server side filter.
+     */
+    @CheckForNull
+    private String repositoryNameFilter;
+
+    /**
+     * Returns the literal that the names of all interesting repositories contain.
+     *
+     * @return the literal or {@code null} if repository names are not restricted.
+     */
+    @CheckForNull
+    public final String repositoryNameFilter() {
+        return repositoryNameFilter;
+    }
+
+    /**
+     * Defines a literal that the names of all interesting repositories contain, so that repository listings can be
+     * filtered by Bitbucket. The source filters still apply to the filtered listing.
+     *
+     * @param filter the literal or {@code null} to list all repositories.
+     * @return {@code this} for method chaining.
+     */
+    @NonNull
+    public final BitbucketSCMNavigatorContext withRepositoryNameFilter(@CheckForNull String filter) {
+        this.repositoryNameFilter = filter;
+        return this;
+    }
+
     /**
      * {@inheritDoc}
      */
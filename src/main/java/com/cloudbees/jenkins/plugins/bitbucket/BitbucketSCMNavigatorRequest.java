@@ -23,6 +23,7 @@
  */
 package com.cloudbees.jenkins.plugins.bitbucket;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import jenkins.scm.api.SCMNavigator;
 import jenkins.scm.api.SCMSourceObserver;
@@ -34,6 +35,12 @@ import jenkins.scm.api.trait.SCMNavigatorRequest;
  * @since 2.2.0
  */
 public class BitbucketSCMNavigatorRequest extends SCMNavigatorRequest {
+    /**
+     * A literal that the names of all interesting repositories contain or {@code null}.
+     */
+    @CheckForNull
+    private final String repositoryNameFilter;
+
     /**
      * Constructor.
      *
@@ -45,5 +52,16 @@ public class BitbucketSCMNavigatorRequest extends SCMNavigatorRequest {
                                            @NonNull BitbucketSCMNavigatorContext context,
                                            @NonNull SCMSourceObserver observer) {
         super(source, context, observer);
+        repositoryNameFilter = context.repositoryNameFilter();
+    }
+
+    /**
+     * Returns a literal that the names of all interesting repositories contain, for use as a server side filter.
+     *
+     * @return the literal or {@code null} if all repositories need to be listed.
+     */
+    @CheckForNull
+    public final String getRepositoryNameFilter() {
+        return repositoryNameFilter;
     }
 }
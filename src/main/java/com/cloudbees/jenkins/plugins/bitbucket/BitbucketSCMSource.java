@@ -532,6 +532,7 @@ public class BitbucketSCMSource extends SCMSource {
             throws IOException, InterruptedException {
         try (BitbucketSCMSourceRequest request = new BitbucketSCMSourceContext(criteria, observer)
                 .withTraits(traits)
+                .withBranchNameFilter(NameFilterHint.forHeads(traits))
                 .newRequest(this, listener)) {
             StandardUsernamePasswordCredentials scanCredentials = credentials();
             if (scanCredentials == null) {
@@ -544,10 +545,14 @@ public class BitbucketSCMSource extends SCMSource {
             listener.getLogger().format("Repository type: %s%n", WordUtils.capitalizeFully(getRepositoryType().name()));
             // populate the request with its data sources
             if (request.isFetchPRs()) {
+                final Set<String> requestedPullRequestNumbers = request.getRequestedPullRequestNumbers();
                 request.setPullRequests(new LazyIterable<BitbucketPullRequest>() {
                     @Override
                     protected Iterable<BitbucketPullRequest> create() {
                         try {
+                            if (requestedPullRequestNumbers != null) {
+                                return getPullRequestsById(requestedPullRequestNumbers);
+                            }
                             return (Iterable<BitbucketPullRequest>) buildBitbucketClient().getPullRequests();
                         } catch (IOException | InterruptedException e) {
                             throw new BitbucketSCMSource.WrappedException(e);
@@ -556,10 +561,18 @@ public class BitbucketSCMSource extends SCMSource {
                 });
             }
             if (request.isFetchBranches()) {
+                final Set<String> requestedBranchNames = request.getRequestedOriginBranchNames();
+                final String branchNameFilter = request.getBranchNameFilter();
                 request.setBranches(new LazyIterable<BitbucketBranch>() {
                     @Override
                     protected Iterable<BitbucketBranch> create() {
                         try {
+                            if (requestedBranchNames != null) {
+                                return getBranchesByName(requestedBranchNames, false);
+                            }
+                            if (branchNameFilter != null) {
+                                return (Iterable<BitbucketBranch>) buildBitbucketClient().getBranches(branchNameFilter);
+                            }
                             return (Iterable<BitbucketBranch>) buildBitbucketClient().getBranches();
                         } catch (IOException | InterruptedException e) {
                             throw new BitbucketSCMSource.WrappedException(e);
@@ -568,10 +581,14 @@ public class BitbucketSCMSource extends SCMSource {
                 });
             }
             if (request.isFetchTags()) {
+                final Set<String> requestedTagNames = request.getRequestedTagNames();
                 request.setTags(new LazyIterable<BitbucketBranch>() {
                     @Override
                     protected Iterable<BitbucketBranch> create() {
                         try {
+                            if (requestedTagNames != null) {
+                                return getBranchesByName(requestedTagNames, true);
+                            }
                             return (Iterable<BitbucketBranch>) buildBitbucketClient().getTags();
                         } catch (IOException | InterruptedException e) {
                             throw new BitbucketSCMSource.WrappedException(e);
@@ -598,6 +615,62 @@ public class BitbucketSCMSource extends SCMSource {
         }
     }
 
+    /**
+     * Looks up only the named pull requests, used when the request has been scoped by an event so that we do not
+     * need to list every open pull request in the repository.
+     *
+     * @param ids the pull request numbers.
+     * @return the open pull requests amongst the requested ones.
+     * @throws IOException if there was a network communications error.
+     * @throws InterruptedException if interrupted while waiting on remote communications.
+     */
+    private List<BitbucketPullRequest> getPullRequestsById(Set<String> ids) throws IOException, InterruptedException {
+        List<BitbucketPullRequest> result = new ArrayList<>(ids.size());
+        if (ids.isEmpty()) {
+            return result;
+        }
+        BitbucketApi bitbucket = buildBitbucketClient();
+        for (String id : ids) {
+            Integer number;
+            try {
+                number = Integer.valueOf(id);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            BitbucketPullRequest pull = bitbucket.getOpenPullRequestById(number);
+            if (pull != null) {
+                result.add(pull);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Looks up only the named branches or tags, used when the request has been scoped by an event so that we do not
+     * need to list every ref in the repository.
+     *
+     * @param names the branch or tag names.
+     * @param tags  {@code true} to look up tags, {@code false} to look up branches.
+     * @return the branches or tags that exist amongst the requested ones.
+     * @throws IOException if there was a network communications error.
+     * @throws InterruptedException if interrupted while waiting on remote communications.
+     */
+    private List<BitbucketBranch> getBranchesByName(Set<String> names, boolean tags)
+            throws IOException, InterruptedException {
+        List<BitbucketBranch> result = new ArrayList<>(names.size());
+        if (names.isEmpty()) {
+            return result;
+        }
+        BitbucketApi bitbucket = buildBitbucketClient();
+        for (String name : names) {
+            BitbucketBranch branch = tags ? bitbucket.getTag(name) : bitbucket.getBranch(name);
+            if (branch != null) {
+                result.add(branch);
+            }
+        }
+        return result;
+    }
+
     private void retrievePullRequests(final BitbucketSCMSourceRequest request)
             throws IOException, InterruptedException {
         final String fullName = repoOwner + "/" + repository;
@@ -615,6 +688,21 @@ public class BitbucketSCMSource extends SCMSource {
         final Set<String> livePRs = new HashSet<>();
         int count = 0;
         Map<Boolean, Set<ChangeRequestCheckoutStrategy>> strategies = request.getPRStrategies();
+        if (originBitbucket instanceof BitbucketCloudApiClient) {
+            // the listing only has short hashes, resolve the unknown ones up front rather than one at a time, but
+            // only for the pull requests that will be observed
+            List<BitbucketPullRequest> observed = new ArrayList<>();
+            for (BitbucketPullRequest pull : request.getPullRequests()) {
+                boolean fork = !fullName.equalsIgnoreCase(pull.getSource().getRepository().getFullName());
+                for (PullRequestSCMHead head : pullRequestHeads(originBitbucket, pull, strategies.get(fork))) {
+                    if (!request.isExcluded(head)) {
+                        observed.add(pull);
+                        break;
+                    }
+                }
+            }
+            ((BitbucketCloudApiClient) originBitbucket).resolveSourceFullHashes(observed);
+        }
         for (final BitbucketPullRequest pull : request.getPullRequests()) {
             request.listener().getLogger().printf(
                     "Checking PR-%s from %s and branch %s%n",
@@ -643,35 +731,7 @@ public class BitbucketSCMSource extends SCMSource {
             );
             try {
                 // We store resolved hashes here so to avoid resolving the commits multiple times
-                for (final ChangeRequestCheckoutStrategy strategy : strategies.get(fork)) {
-                    final String branchName;
-                    if (strategies.get(fork).size() == 1) {
-                        branchName = "PR-" + pull.getId();
-                    } else {
-                        branchName = "PR-" + pull.getId() + "-" + strategy.name().toLowerCase(Locale.ENGLISH);
-                    }
-                    PullRequestSCMHead head;
-                    if (originBitbucket instanceof BitbucketCloudApiClient) {
-                        head = new PullRequestSCMHead(branchName,
-                                pullRepoOwner,
-                                pullRepository,
-                                repositoryType,
-                                pull.getSource().getBranch().getName(),
-                                pull,
-                                originOf(pullRepoOwner, pullRepository),
-                                strategy
-                        );
-                    } else {
-                        head = new PullRequestSCMHead(branchName,
-                                repoOwner,
-                                repository,
-                                repositoryType,
-                                branchName,
-                                pull,
-                                originOf(pullRepoOwner, pullRepository),
-                                strategy
-                        );
-                    }
+                for (PullRequestSCMHead head : pullRequestHeads(originBitbucket, pull, strategies.get(fork))) {
                     if (request.process(
                             head,
                             new SCMSourceRequest.IntermediateLambda<String>() {
@@ -755,8 +815,52 @@ public class BitbucketSCMSource extends SCMSource {
             }
         }
         request.listener().getLogger().format("%n  %d pull requests were processed%n", count);
-        getPullRequestTitleCache().keySet().retainAll(livePRs);
-        getPullRequestContributorCache().keySet().retainAll(livePRs);
+        if (request.getRequestedPullRequestNumbers() == null) {
+            // only a full listing tells which pull requests are gone
+            getPullRequestTitleCache().keySet().retainAll(livePRs);
+            getPullRequestContributorCache().keySet().retainAll(livePRs);
+        }
+    }
+
+    /**
+     * Returns the heads of a pull request, one per checkout strategy.
+     */
+    private List<PullRequestSCMHead> pullRequestHeads(@NonNull BitbucketApi originBitbucket,
+                                                      @NonNull BitbucketPullRequest pull,
+                                                      @NonNull Set<ChangeRequestCheckoutStrategy> strategies) {
+        String pullRepoOwner = pull.getSource().getRepository().getOwnerName();
+        String pullRepository = pull.getSource().getRepository().getRepositoryName();
+        List<PullRequestSCMHead> heads = new ArrayList<>(strategies.size());
+        for (ChangeRequestCheckoutStrategy strategy : strategies) {
+            final String branchName;
+            if (strategies.size() == 1) {
+                branchName = "PR-" + pull.getId();
+            } else {
+                branchName = "PR-" + pull.getId() + "-" + strategy.name().toLowerCase(Locale.ENGLISH);
+            }
+            if (originBitbucket instanceof BitbucketCloudApiClient) {
+                heads.add(new PullRequestSCMHead(branchName,
+                        pullRepoOwner,
+                        pullRepository,
+                        repositoryType,
+                        pull.getSource().getBranch().getName(),
+                        pull,
+                        originOf(pullRepoOwner, pullRepository),
+                        strategy
+                ));
+            } else {
+                heads.add(new PullRequestSCMHead(branchName,
+                        repoOwner,
+                        repository,
+                        repositoryType,
+                        branchName,
+                        pull,
+                        originOf(pullRepoOwner, pullRepository),
+                        strategy
+                ));
+            }
+        }
+        return heads;
     }
 
     private void retrieveBranches(final BitbucketSCMSourceRequest request)
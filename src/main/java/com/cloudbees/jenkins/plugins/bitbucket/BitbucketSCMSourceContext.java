@@ -85,6 +85,11 @@ public class BitbucketSCMSourceContext extends SCMSourceContext<BitbucketSCMSour
      * {@code true} if notifications should be disabled in this context.
      */
     private boolean notificationsDisabled;
+    /**
+     * A literal that the names of all interesting branches contain, to be used as a server side filter.
+     */
+    @CheckForNull
+    private String branchNameFilter;
 
     /**
      * Constructor.
@@ -200,6 +205,16 @@ public class BitbucketSCMSourceContext extends SCMSourceContext<BitbucketSCMSour
         return notificationsDisabled;
     }
 
+    /**
+     * Returns the literal that the names of all interesting branches contain.
+     *
+     * @return the literal or {@code null} if branch names are not restricted.
+     */
+    @CheckForNull
+    public final String branchNameFilter() {
+        return branchNameFilter;
+    }
+
     /**
      * Adds a requirement for branch details to any {@link BitbucketSCMSourceRequest} for this context.
      *
@@ -325,6 +340,19 @@ public class BitbucketSCMSourceContext extends SCMSourceContext<BitbucketSCMSour
         return this;
     }
 
+    /**
+     * Defines a literal that the names of all interesting branches contain, so that branch listings can be filtered
+     * by Bitbucket. The head filters still apply to the filtered listing.
+     *
+     * @param filter the literal or {@code null} to list all branches.
+     * @return {@code this} for method chaining.
+     */
+    @NonNull
+    public final BitbucketSCMSourceContext withBranchNameFilter(@CheckForNull String filter) {
+        this.branchNameFilter = filter;
+        return this;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -69,6 +69,11 @@ public class BitbucketSCMSourceRequest extends SCMSourceRequest {
      * {@code true} if all pull requests from public repositories should be ignored.
      */
     private final boolean skipPublicPRs;
+    /**
+     * A literal that the names of all interesting branches contain or {@code null}.
+     */
+    @CheckForNull
+    private final String branchNameFilter;
     /**
      * The {@link ChangeRequestCheckoutStrategy} to create for each origin pull request.
      */
@@ -136,6 +141,13 @@ public class BitbucketSCMSourceRequest extends SCMSourceRequest {
         fetchOriginPRs = context.wantOriginPRs();
         fetchForkPRs = context.wantForkPRs();
         skipPublicPRs = context.skipPublicPRs();
+        String branchNameFilter = context.branchNameFilter();
+        if (branchNameFilter != null && (fetchOriginPRs || fetchForkPRs)
+                && NameFilterHint.mayMatchPullRequests(branchNameFilter)) {
+            // pull requests accepted by the filter need their target branch, which may not match the filter
+            branchNameFilter = null;
+        }
+        this.branchNameFilter = branchNameFilter;
         originPRStrategies = fetchOriginPRs && !context.originPRStrategies().isEmpty()
                 ? Collections.unmodifiableSet(EnumSet.copyOf(context.originPRStrategies()))
                 : Collections.<ChangeRequestCheckoutStrategy>emptySet();
@@ -155,9 +167,8 @@ public class BitbucketSCMSourceRequest extends SCMSourceRequest {
                     if (SCMHeadOrigin.DEFAULT.equals(h.getOrigin())) {
                         branchNames.add(((PullRequestSCMHead) h).getOriginName());
                     }
-                    if (((PullRequestSCMHead) h).getCheckoutStrategy() == ChangeRequestCheckoutStrategy.MERGE) {
-                        branchNames.add(((PullRequestSCMHead) h).getTarget().getName());
-                    }
+                    // the target branch is needed to resolve the target revision of every pull request
+                    branchNames.add(((PullRequestSCMHead) h).getTarget().getName());
                 } else if (h instanceof TagSCMHead) { // TODO replace with concrete class when tag support added
                     tagNames.add(h.getName());
                 }
@@ -228,6 +239,16 @@ public class BitbucketSCMSourceRequest extends SCMSourceRequest {
         return skipPublicPRs;
     }
 
+    /**
+     * Returns a literal that the names of all interesting branches contain, for use as a server side filter.
+     *
+     * @return the literal or {@code null} if all branches need to be listed.
+     */
+    @CheckForNull
+    public final String getBranchNameFilter() {
+        return branchNameFilter;
+    }
+
     /**
      * Returns the {@link ChangeRequestCheckoutStrategy} to create for each origin pull request.
      *
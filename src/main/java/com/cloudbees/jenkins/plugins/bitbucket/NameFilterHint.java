@@ -0,0 +1,210 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.Collection;
+import jenkins.scm.api.trait.SCMTrait;
+import jenkins.scm.impl.trait.RegexSCMHeadFilterTrait;
+import jenkins.scm.impl.trait.RegexSCMSourceFilterTrait;
+import jenkins.scm.impl.trait.WildcardSCMHeadFilterTrait;
+import jenkins.scm.impl.trait.WildcardSCMSourceFilterTrait;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Derives a literal substring that every name accepted by the wildcard and regex name filter traits must contain,
+ * so that the Bitbucket APIs can do a first cut of the listings server side. The traits are still applied to what
+ * is returned, the hint only has to be a necessary condition of a match.
+ *
+ * @since 2.2.13
+ */
+final class NameFilterHint {
+
+    private NameFilterHint() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * Returns the hint for the branch names accepted by the head filter traits.
+     *
+     * @param traits the traits.
+     * @return the hint or {@code null} if the traits do not restrict names to a common substring.
+     */
+    @CheckForNull
+    static String forHeads(@NonNull Collection<? extends SCMTrait<?>> traits) {
+        String result = null;
+        for (SCMTrait<?> trait : traits) {
+            String hint = null;
+            if (trait instanceof WildcardSCMHeadFilterTrait) {
+                hint = fromWildcards(((WildcardSCMHeadFilterTrait) trait).getIncludes());
+            } else if (trait instanceof RegexSCMHeadFilterTrait) {
+                hint = fromRegex(((RegexSCMHeadFilterTrait) trait).getRegex());
+            }
+            result = longest(result, hint);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the hint for the repository names accepted by the source filter traits.
+     *
+     * @param traits the traits.
+     * @return the hint or {@code null} if the traits do not restrict names to a common substring.
+     */
+    @CheckForNull
+    static String forSources(@NonNull Collection<? extends SCMTrait<?>> traits) {
+        String result = null;
+        for (SCMTrait<?> trait : traits) {
+            String hint = null;
+            if (trait instanceof WildcardSCMSourceFilterTrait) {
+                hint = fromWildcards(((WildcardSCMSourceFilterTrait) trait).getIncludes());
+            } else if (trait instanceof RegexSCMSourceFilterTrait) {
+                hint = fromRegex(((RegexSCMSourceFilterTrait) trait).getRegex());
+            }
+            result = longest(result, hint);
+        }
+        return result;
+    }
+
+    /**
+     * Returns {@code true} if the hint could be a substring of a pull request head name ({@code PR-23},
+     * {@code PR-23-merge} or {@code PR-23-head}), in which case a branch listing restricted by the hint could miss
+     * the target branches of the pull requests that the filter accepts.
+     *
+     * @param hint the hint.
+     * @return {@code true} if the hint could be a substring of a pull request head name.
+     */
+    static boolean mayMatchPullRequests(@NonNull String hint) {
+        String normalized = hint.replaceAll("[0-9]+", "1");
+        return "PR-1-merge".contains(normalized) || "PR-1-head".contains(normalized);
+    }
+
+    /**
+     * Returns the hint for space separated wildcard includes.
+     *
+     * @param includes the includes.
+     * @return the longest literal run of the include if there is only one, otherwise {@code null}.
+     */
+    @CheckForNull
+    static String fromWildcards(@CheckForNull String includes) {
+        String[] patterns = StringUtils.split(StringUtils.defaultString(includes));
+        if (patterns.length != 1) {
+            return null;
+        }
+        String result = null;
+        for (String literal : StringUtils.split(patterns[0], '*')) {
+            result = longest(result, literal);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the hint for a regular expression. This is deliberately conservative: alternations and groups are
+     * not analysed and yield no hint.
+     *
+     * @param regex the regular expression.
+     * @return the longest literal run that every match must contain or {@code null}.
+     */
+    @CheckForNull
+    static String fromRegex(@CheckForNull String regex) {
+        if (StringUtils.isBlank(regex) || regex.indexOf('|') != -1 || regex.indexOf('(') != -1) {
+            return null;
+        }
+        String result = null;
+        StringBuilder run = new StringBuilder();
+        int i = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 < regex.length() && !Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                    run.append(regex.charAt(i + 1));
+                } else {
+                    // a character class such as \d or a back reference
+                    result = longest(result, run.toString());
+                    run.setLength(0);
+                }
+                i += 2;
+            } else if (c == '[') {
+                result = longest(result, run.toString());
+                run.setLength(0);
+                i = skipCharacterClass(regex, i);
+            } else if (c == '*' || c == '?' || c == '{') {
+                // the preceding character is optional
+                if (run.length() > 0) {
+                    run.setLength(run.length() - 1);
+                }
+                result = longest(result, run.toString());
+                run.setLength(0);
+                if (c == '{') {
+                    int end = regex.indexOf('}', i);
+                    i = end == -1 ? regex.length() : end + 1;
+                } else {
+                    i++;
+                }
+            } else if (c == '+' || c == '.' || c == '^' || c == '$' || c == ')') {
+                // a repeated character is still required but the literal run cannot continue past it
+                result = longest(result, run.toString());
+                run.setLength(0);
+                i++;
+            } else {
+                run.append(c);
+                i++;
+            }
+        }
+        return longest(result, run.toString());
+    }
+
+    private static int skipCharacterClass(String regex, int start) {
+        int i = start + 1;
+        if (i < regex.length() && regex.charAt(i) == '^') {
+            i++;
+        }
+        if (i < regex.length() && regex.charAt(i) == ']') {
+            i++;
+        }
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == ']') {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        return i;
+    }
+
+    @CheckForNull
+    private static String longest(@CheckForNull String a, @CheckForNull String b) {
+        if (StringUtils.isEmpty(b)) {
+            return a;
+        }
+        if (a == null || b.length() > a.length()) {
+            return b;
+        }
+        return a;
+    }
+}
@@ -30,6 +30,7 @@ import edu.umd.cs.findbugs.annotations.NonNull;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
+import java.util.Map;
 import jenkins.scm.api.SCMFile;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
@@ -90,6 +91,17 @@ public interface BitbucketApi {
     @NonNull
     BitbucketPullRequest getPullRequestById(@NonNull Integer id) throws IOException, InterruptedException;
 
+    /**
+     * Returns a specific pull request if and only if it is still open.
+     *
+     * @param id the pull request ID
+     * @return the pull request or {@code null} if the PR does not exist or is no longer open
+     * @throws IOException if there was a network communications error.
+     * @throws InterruptedException if interrupted while waiting on remote communications.
+     */
+    @CheckForNull
+    BitbucketPullRequest getOpenPullRequestById(@NonNull Integer id) throws IOException, InterruptedException;
+
     /**
      * Returns the repository details.
      *
@@ -143,6 +155,29 @@ public interface BitbucketApi {
     @NonNull
     List<? extends BitbucketBranch> getBranches() throws IOException, InterruptedException;
 
+    /**
+     * Returns the branches in the repository whose name contains the given text. The match is done by Bitbucket
+     * and may be case insensitive.
+     *
+     * @param nameFilter the text that the branch names contain.
+     * @return the list of matching branches in the repository.
+     * @throws IOException if there was a network communications error.
+     * @throws InterruptedException if interrupted while waiting on remote communications.
+     */
+    @NonNull
+    List<? extends BitbucketBranch> getBranches(@NonNull String nameFilter) throws IOException, InterruptedException;
+
+    /**
+     * Returns a specific branch in the repository.
+     *
+     * @param branchName the name of the branch.
+     * @return the branch or {@code null} if the branch does not exist.
+     * @throws IOException if there was a network communications error.
+     * @throws InterruptedException if interrupted while waiting on remote communications.
+     */
+    @CheckForNull
+    BitbucketBranch getBranch(@NonNull String branchName) throws IOException, InterruptedException;
+
      /**
      * Returns the tags in the repository.
      *
@@ -153,6 +188,17 @@ public interface BitbucketApi {
     @NonNull
     List<? extends BitbucketBranch> getTags() throws IOException, InterruptedException;
 
+    /**
+     * Returns a specific tag in the repository.
+     *
+     * @param tagName the name of the tag.
+     * @return the tag or {@code null} if the tag does not exist.
+     * @throws IOException if there was a network communications error.
+     * @throws InterruptedException if interrupted while waiting on remote communications.
+     */
+    @CheckForNull
+    BitbucketBranch getTag(@NonNull String tagName) throws IOException, InterruptedException;
+
     /**
      * Resolve the commit object given its hash.
      *
@@ -236,6 +282,25 @@ public interface BitbucketApi {
     List<? extends BitbucketRepository> getRepositories(@CheckForNull UserRoleInRepository role)
             throws IOException, InterruptedException;
 
+    /**
+     * Returns the repositories where the user has the given role and whose name contains the given text. The match
+     * is done by Bitbucket, may be case insensitive and is only a first cut: callers still have to apply their own
+     * name filtering. It is made on {@link BitbucketRepository#getRepositoryName()} where Bitbucket can search on it,
+     * otherwise all the repositories are returned.
+     *
+     * @param role Filter repositories by the owner having this role in.
+     *             See {@link UserRoleInRepository} for more information.
+     *             Use role = null if the repoOwner is a team ID.
+     * @param nameFilter the text that the repository names contain.
+     * @return the repositories list (it can be empty)
+     * @throws IOException if there was a network communications error.
+     * @throws InterruptedException if interrupted while waiting on remote communications.
+     */
+    @NonNull
+    List<? extends BitbucketRepository> getRepositories(@CheckForNull UserRoleInRepository role,
+                                                        @NonNull String nameFilter)
+            throws IOException, InterruptedException;
+
     /**
      * Returns all the repositories for the current owner (even if it's a regular user or a team).
      *
@@ -281,4 +346,49 @@ public interface BitbucketApi {
 	 */
     @Restricted(NoExternalUse.class)
 	public InputStream getFileContent(BitbucketSCMFile file) throws IOException, InterruptedException;
+
+    /**
+     * Returns the files and directories under a directory at any depth, so that a tree can be walked in a few
+     * requests. A directory is returned either with all its content or, such as past the depth listed at once, with
+     * none of it.
+     *
+     * @param directory the directory.
+     * @return the files and directories under the directory, each created as a child of its parent directory.
+     * @throws IOException if there was a network communications error.
+     * @throws InterruptedException if interrupted while waiting on remote communications.
+     * @since 2.2.13
+     */
+    @Restricted(NoExternalUse.class)
+    @NonNull
+    Iterable<SCMFile> getDirectoryTree(@NonNull BitbucketSCMFile directory) throws IOException, InterruptedException;
+
+    /**
+     * Returns a zip archive of a directory at its commit. The entries are named by their path relative to the
+     * repository root under a single top level directory, and may include files outside of the directory.
+     *
+     * @param directory the directory.
+     * @return the archive, to be closed by the caller.
+     * @throws java.io.FileNotFoundException if archives are not available.
+     * @throws IOException if there was a network communications error.
+     * @throws InterruptedException if interrupted while waiting on remote communications.
+     * @since 2.2.13
+     */
+    @Restricted(NoExternalUse.class)
+    @NonNull
+    InputStream getDirectoryArchive(@NonNull BitbucketSCMFile directory) throws IOException, InterruptedException;
+
+    /**
+     * Returns the last commit to modify a file at its commit and, where the server lists them at once, those of the
+     * other files in its directory. The last commit of the repository root is the commit itself.
+     *
+     * @param file the file.
+     * @return the last commit to modify each file by path, which has no entry for the file if no commit modified it.
+     * @throws IOException if there was a network communications error.
+     * @throws InterruptedException if interrupted while waiting on remote communications.
+     * @since 2.2.13
+     */
+    @Restricted(NoExternalUse.class)
+    @NonNull
+    Map<String, ? extends BitbucketCommit> getLastCommits(@NonNull BitbucketSCMFile file)
+            throws IOException, InterruptedException;
 }
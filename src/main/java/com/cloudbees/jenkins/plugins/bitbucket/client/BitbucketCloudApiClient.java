@@ -30,6 +30,7 @@ import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketBuildStatus;
 import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketCommit;
 import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketException;
 import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketPullRequest;
+import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketPullRequestSource;
 import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketRepository;
 import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketRepositoryProtocol;
 import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketRepositoryType;
@@ -50,12 +51,15 @@ import com.cloudbees.jenkins.plugins.bitbucket.client.repository.BitbucketReposi
 import com.cloudbees.jenkins.plugins.bitbucket.client.repository.PaginatedBitbucketRepository;
 import com.cloudbees.jenkins.plugins.bitbucket.client.repository.UserRoleInRepository;
 import com.cloudbees.jenkins.plugins.bitbucket.filesystem.BitbucketSCMFile;
+import com.cloudbees.jenkins.plugins.bitbucket.filesystem.BitbucketSCMFileTree;
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
 import com.damnhandy.uri.template.UriTemplate;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.ProxyConfiguration;
 import hudson.Util;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import hudson.util.Secret;
 import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
@@ -71,12 +75,15 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import jenkins.model.Jenkins;
 import jenkins.scm.api.SCMFile;
 
+import static java.util.concurrent.TimeUnit.DAYS;
 import static java.util.concurrent.TimeUnit.HOURS;
 import static java.util.concurrent.TimeUnit.MINUTES;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
@@ -110,12 +117,14 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.util.EntityUtils;
 import org.codehaus.jackson.type.TypeReference;
 
 public class BitbucketCloudApiClient implements BitbucketApi {
     private static final Logger LOGGER = Logger.getLogger(BitbucketCloudApiClient.class.getName());
     private static final HttpHost API_HOST = HttpHost.create("https://api.bitbucket.org");
+    private static final HttpHost WEB_HOST = HttpHost.create("https://bitbucket.org");
     private static final String V2_API_BASE_URL = "https://api.bitbucket.org/2.0/repositories";
     private static final String V2_TEAMS_API_BASE_URL = "https://api.bitbucket.org/2.0/teams";
     private static final String REPO_URL_TEMPLATE = V2_API_BASE_URL + "{/owner,repo}";
@@ -134,12 +143,29 @@ public class BitbucketCloudApiClient implements BitbucketApi {
     }
     private static Cache<String, BitbucketTeam> cachedTeam = new Cache(6, HOURS);
     private static Cache<String, List<BitbucketCloudRepository>> cachedRepositories = new Cache(3, HOURS);
+    /**
+     * The full hash of a commit never changes, so short to full hash resolutions are kept for as long as the cache
+     * has room for them, keyed by {@code owner/repository#shortHash} of the pull request source.
+     */
+    private static Cache<String, String> cachedFullHashes = new Cache<>(7, DAYS, 10000);
+    /**
+     * The maximum number of concurrent pull request commit lookups when resolving source hashes in bulk.
+     */
+    private static final int FULL_HASH_RESOLVER_THREADS =
+            Integer.getInteger(BitbucketCloudApiClient.class.getName() + ".fullHashResolverThreads", 4);
+    private static ExecutorService fullHashResolver;
+    /**
+     * The number of directory levels listed at once when listing a directory tree.
+     */
+    private static final int MAX_TREE_DEPTH =
+            Integer.getInteger(BitbucketCloudApiClient.class.getName() + ".maxTreeDepth", 10);
     private transient BitbucketRepository cachedRepository;
     private transient String cachedDefaultBranch;
 
     public static void clearCaches() {
         cachedTeam.evictAll();
         cachedRepositories.evictAll();
+        cachedFullHashes.evictAll();
     }
 
     public BitbucketCloudApiClient(boolean enableCache, int teamCacheDuration, int repositoriesCacheDuraction,
@@ -167,6 +193,7 @@ public class BitbucketCloudApiClient implements BitbucketApi {
             credentialsProvider.setCredentials(AuthScope.ANY, credentials);
             AuthCache authCache = new BasicAuthCache();
             authCache.put(API_HOST, new BasicScheme());
+            authCache.put(WEB_HOST, new BasicScheme());
             context = HttpClientContext.create();
             context.setCredentialsProvider(credentialsProvider);
             context.setAuthCache(authCache);
@@ -305,6 +332,21 @@ public class BitbucketCloudApiClient implements BitbucketApi {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @CheckForNull
+    public BitbucketPullRequest getOpenPullRequestById(@NonNull Integer id) throws IOException, InterruptedException {
+        BitbucketPullRequestValue pull;
+        try {
+            pull = (BitbucketPullRequestValue) getPullRequestById(id);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        return pull.getState() == null || "OPEN".equals(pull.getState()) ? pull : null;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -410,6 +452,75 @@ public class BitbucketCloudApiClient implements BitbucketApi {
         return getBranchesByRef("/refs/branches");
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @NonNull
+    @Override
+    public List<BitbucketCloudBranch> getBranches(@NonNull String nameFilter) throws IOException, InterruptedException {
+        String url = UriTemplate.fromTemplate(REPO_URL_TEMPLATE + "/refs/branches{?q}")
+                .set("owner", owner)
+                .set("repo", repositoryName)
+                .set("q", contains("name", nameFilter))
+                .expand();
+        String response = getRequest(url);
+        try {
+            return getAllBranches(response);
+        } catch (IOException e) {
+            throw new IOException("I/O error when parsing response from URL: " + url, e);
+        }
+    }
+
+    /**
+     * Builds a Bitbucket Cloud filter query matching a field that contains the given text.
+     *
+     * @param field the field.
+     * @param text  the text.
+     * @return the query.
+     */
+    private static String contains(String field, String text) {
+        return field + " ~ \"" + text.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @CheckForNull
+    @Override
+    public BitbucketCloudBranch getBranch(@NonNull String branchName) throws IOException, InterruptedException {
+        return getBranchByRef("/refs/branches", branchName);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @CheckForNull
+    @Override
+    public BitbucketCloudBranch getTag(@NonNull String tagName) throws IOException, InterruptedException {
+        return getBranchByRef("/refs/tags", tagName);
+    }
+
+    @CheckForNull
+    private BitbucketCloudBranch getBranchByRef(String nodePath, String name) throws IOException, InterruptedException {
+        String url = UriTemplate.fromTemplate(REPO_URL_TEMPLATE + nodePath + "{/name}")
+                .set("owner", owner)
+                .set("repo", repositoryName)
+                .set("name", name)
+                .expand();
+        String response;
+        try {
+            response = getRequest(url);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            BitbucketCloudBranch branch = JsonParser.toJava(response, BitbucketCloudBranch.class);
+            return branch.isActive() ? branch : null;
+        } catch (IOException e) {
+            throw new IOException("I/O error when parsing response from URL: " + url, e);
+        }
+    }
+
     public List<BitbucketCloudBranch> getBranchesByRef(String nodePath) throws IOException, InterruptedException {
         String url = UriTemplate.fromTemplate(REPO_URL_TEMPLATE + nodePath)
                 .set("owner", owner)
@@ -453,6 +564,78 @@ public class BitbucketCloudApiClient implements BitbucketApi {
     @NonNull
     @Override
     public String resolveSourceFullHash(@NonNull BitbucketPullRequest pull) throws IOException, InterruptedException {
+        String key = fullHashCacheKey(pull);
+        if (key != null) {
+            String hash = cachedFullHashes.getIfPresent(key);
+            if (hash != null) {
+                return hash;
+            }
+        }
+        String hash = fetchSourceFullHash(pull);
+        if (key != null) {
+            cachedFullHashes.put(key, hash);
+        }
+        return hash;
+    }
+
+    /**
+     * Resolves the full source hash of all the supplied pull requests that are not already known, performing the
+     * lookups concurrently with a bounded number of threads. Failures are ignored here as
+     * {@link #resolveSourceFullHash(BitbucketPullRequest)} will retry and report them when the hash is required.
+     *
+     * @param pulls the pull requests.
+     * @throws InterruptedException if interrupted while waiting on remote communications.
+     */
+    public void resolveSourceFullHashes(@NonNull Iterable<? extends BitbucketPullRequest> pulls)
+            throws InterruptedException {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (final BitbucketPullRequest pull : pulls) {
+            String key = fullHashCacheKey(pull);
+            if (key == null || cachedFullHashes.getIfPresent(key) != null) {
+                continue;
+            }
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    try {
+                        resolveSourceFullHash(pull);
+                    } catch (IOException e) {
+                        LOGGER.log(Level.FINE, "Could not resolve source hash of pull request " + pull.getId(), e);
+                    }
+                    return null;
+                }
+            });
+        }
+        if (tasks.size() > 1) {
+            getFullHashResolver().invokeAll(tasks);
+        }
+    }
+
+    /**
+     * Returns the key under which the full source hash of a pull request is cached.
+     *
+     * @param pull the pull request.
+     * @return the key or {@code null} if the pull request does not expose enough information to build it.
+     */
+    @CheckForNull
+    private static String fullHashCacheKey(@NonNull BitbucketPullRequest pull) {
+        BitbucketPullRequestSource source = pull.getSource();
+        if (source == null || source.getRepository() == null || source.getCommit() == null
+                || StringUtils.isBlank(source.getCommit().getHash())) {
+            return null;
+        }
+        return source.getRepository().getFullName() + "#" + source.getCommit().getHash();
+    }
+
+    private static synchronized ExecutorService getFullHashResolver() {
+        if (fullHashResolver == null) {
+            fullHashResolver = Executors.newFixedThreadPool(FULL_HASH_RESOLVER_THREADS,
+                    new NamingThreadFactory(new DaemonThreadFactory(), BitbucketCloudApiClient.class.getName()));
+        }
+        return fullHashResolver;
+    }
+
+    private String fetchSourceFullHash(@NonNull BitbucketPullRequest pull) throws IOException, InterruptedException {
         String url = UriTemplate.fromTemplate(REPO_URL_TEMPLATE + "/pullrequests/{pullId}/commits{?fields,pagelen}")
                 .set("owner", owner)
                 .set("repo", repositoryName)
@@ -615,15 +798,31 @@ public class BitbucketCloudApiClient implements BitbucketApi {
     @Override
     public List<BitbucketCloudRepository> getRepositories(@CheckForNull UserRoleInRepository role)
             throws InterruptedException, IOException {
+        return getRepositories(role, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @NonNull
+    @Override
+    public List<BitbucketCloudRepository> getRepositories(@CheckForNull UserRoleInRepository role,
+                                                          @CheckForNull String nameFilter)
+            throws InterruptedException, IOException {
         StringBuilder cacheKey = new StringBuilder();
         cacheKey.append(owner).append("::").append(credentials.getUserName());
-        final UriTemplate template = UriTemplate.fromTemplate(V2_API_BASE_URL + "{/owner}{?role,page,pagelen}")
+        final UriTemplate template = UriTemplate.fromTemplate(V2_API_BASE_URL + "{/owner}{?role,q,page,pagelen}")
                 .set("owner", owner)
                 .set("pagelen", 50);
         if (role != null && getLogin() != null) {
             template.set("role", role.getId());
             cacheKey.append("::").append(role.getId());
         }
+        if (nameFilter != null) {
+            // the repository name is the slug in the full name, the name field being the display name
+            template.set("q", contains("full_name", nameFilter));
+            cacheKey.append("::").append(nameFilter);
+        }
         Callable<List<BitbucketCloudRepository>> request = new Callable<List<BitbucketCloudRepository>>() {
             @Override
             public List<BitbucketCloudRepository> call() throws Exception {
@@ -700,13 +899,20 @@ public class BitbucketCloudApiClient implements BitbucketApi {
     }
 
     private CloseableHttpResponse executeMethod(HttpRequestBase httpMethod) throws InterruptedException, IOException {
+        return executeMethod(API_HOST, httpMethod);
+    }
+
+    private CloseableHttpResponse executeMethod(HttpHost host, HttpRequestBase httpMethod)
+            throws InterruptedException, IOException {
         RequestConfig.Builder requestConfig = RequestConfig.custom();
         requestConfig.setConnectTimeout(10 * 1000);
         requestConfig.setConnectionRequestTimeout(60 * 1000);
         requestConfig.setSocketTimeout(60 * 1000);
         httpMethod.setConfig(requestConfig.build());
 
-        CloseableHttpResponse response = client.execute(API_HOST, httpMethod, context);
+        // requests may run concurrently, so each one gets its own context layered over the shared credentials
+        HttpClientContext requestContext = context == null ? null : HttpClientContext.adapt(new BasicHttpContext(context));
+        CloseableHttpResponse response = client.execute(host, httpMethod, requestContext);
         while (response.getStatusLine().getStatusCode() == API_RATE_LIMIT_CODE) {
             release(httpMethod);
             if (Thread.interrupted()) {
@@ -718,7 +924,7 @@ public class BitbucketCloudApiClient implements BitbucketApi {
              */
             LOGGER.fine("Bitbucket Cloud API rate limit reached, sleeping for 5 sec then retry...");
             Thread.sleep(5000);
-            response = client.execute(API_HOST, httpMethod, context);
+            response = client.execute(host, httpMethod, requestContext);
         }
         return response;
     }
@@ -727,9 +933,16 @@ public class BitbucketCloudApiClient implements BitbucketApi {
      * Caller's responsible to close the InputStream.
      */
     private InputStream getRequestAsInputStream(String path) throws IOException, InterruptedException {
+        return getRequestAsInputStream(API_HOST, path);
+    }
+
+    /**
+     * Caller's responsible to close the InputStream.
+     */
+    private InputStream getRequestAsInputStream(HttpHost host, String path) throws IOException, InterruptedException {
         HttpGet httpget = new HttpGet(path);
         try {
-            CloseableHttpResponse response =  executeMethod(httpget);
+            CloseableHttpResponse response =  executeMethod(host, httpget);
             if (response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_FOUND) {
                 EntityUtils.consume(response.getEntity());
                 response.close();
@@ -900,7 +1113,7 @@ public class BitbucketCloudApiClient implements BitbucketApi {
         while (!page.isLastPage()){
             response = getRequest(page.getNext());
             page = JsonParser.mapper.readValue(response,
-                    new TypeReference<BitbucketCloudPage<Map>>(){});
+                    new TypeReference<BitbucketCloudPage<BitbucketRepositorySource>>(){});
             for(BitbucketRepositorySource source:page.getValues()){
                 result.add(source.toBitbucketScmFile(parent));
             }
@@ -908,6 +1121,82 @@ public class BitbucketCloudApiClient implements BitbucketApi {
         return result;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @NonNull
+    @Override
+    public Iterable<SCMFile> getDirectoryTree(@NonNull BitbucketSCMFile directory)
+            throws IOException, InterruptedException {
+        String url = UriTemplate.fromTemplate(REPO_URL_TEMPLATE + "/src{/branchOrHash,path}{?max_depth,pagelen}")
+                .set("owner", owner)
+                .set("repo", repositoryName)
+                .set("branchOrHash", directory.getHash())
+                .set("path", directory.getPath())
+                .set("max_depth", MAX_TREE_DEPTH)
+                .set("pagelen", 100)
+                .expand();
+        BitbucketSCMFileTree tree = new BitbucketSCMFileTree(directory);
+        do {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            BitbucketCloudPage<BitbucketRepositorySource> page = JsonParser.mapper.readValue(getRequest(url),
+                    new TypeReference<BitbucketCloudPage<BitbucketRepositorySource>>(){});
+            for (BitbucketRepositorySource source : page.getValues()) {
+                // the paths are relative to the repository root
+                String path = tree.relativize(source.getPath());
+                if (path != null) {
+                    tree.add(path, source.getFileType(), source.getHash());
+                }
+            }
+            url = page.getNext();
+        } while (url != null);
+        return tree.getFiles();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Bitbucket Cloud only provides archives of the whole repository.
+     */
+    @NonNull
+    @Override
+    public InputStream getDirectoryArchive(@NonNull BitbucketSCMFile directory)
+            throws IOException, InterruptedException {
+        String url = UriTemplate.fromTemplate(WEB_HOST.toURI() + "{/owner,repo}/get/{hash}.zip")
+                .set("owner", owner)
+                .set("repo", repositoryName)
+                .set("hash", directory.getHash())
+                .expand();
+        return getRequestAsInputStream(WEB_HOST, url);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Bitbucket Cloud lists the history of one path at a time.
+     */
+    @NonNull
+    @Override
+    public Map<String, BitbucketCloudCommit> getLastCommits(@NonNull BitbucketSCMFile file)
+            throws IOException, InterruptedException {
+        UriTemplate template = UriTemplate.fromTemplate(REPO_URL_TEMPLATE + "/commits{/branchOrHash}{?path,pagelen}")
+                .set("owner", owner)
+                .set("repo", repositoryName)
+                .set("branchOrHash", file.getHash() != null ? file.getHash() : file.getRef())
+                .set("pagelen", 1);
+        if (!file.getPath().isEmpty()) {
+            template.set("path", file.getPath());
+        }
+        BitbucketCloudPage<BitbucketCloudCommit> page = JsonParser.mapper.readValue(getRequest(template.expand()),
+                new TypeReference<BitbucketCloudPage<BitbucketCloudCommit>>(){});
+        if (page.getValues().isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return Collections.singletonMap(file.getPath(), page.getValues().get(0));
+    }
+
     public InputStream getFileContent(BitbucketSCMFile file) throws IOException, InterruptedException {
         String url = UriTemplate.fromTemplate(REPO_URL_TEMPLATE + "/src{/branchOrHash,path}")
                 .set("owner", owner)
@@ -70,6 +70,18 @@ public class Cache<K, V> {
         return doPut(key, result);
     }
 
+    public synchronized V getIfPresent(final K key) {
+        if (isExpired(key)) {
+            doRemove(key);
+        }
+        final Entry<V> entry = entries.get(key);
+        return entry == null ? null : entry.value;
+    }
+
+    public synchronized void put(final K key, final V value) {
+        doPut(key, value);
+    }
+
     public void evictAll() {
         entries.clear();
     }
@@ -71,7 +71,8 @@ public class BitbucketRepositorySource {
         return type.equals("commit_directory");
     }
 
-    public BitbucketSCMFile toBitbucketScmFile(BitbucketSCMFile parent){
+    @JsonIgnore
+    public SCMFile.Type getFileType() {
         SCMFile.Type fileType;
         if(isDirectory()){
             fileType = SCMFile.Type.DIRECTORY;
@@ -85,6 +86,11 @@ public class BitbucketRepositorySource {
                 }
             }
         }
-        return new BitbucketSCMFile(parent, path, fileType, hash);
+        return fileType;
+    }
+
+    public BitbucketSCMFile toBitbucketScmFile(BitbucketSCMFile parent){
+        // the path is relative to the repository root
+        return new BitbucketSCMFile(parent, path.substring(path.lastIndexOf('/') + 1), getFileType(), hash);
     }
 }
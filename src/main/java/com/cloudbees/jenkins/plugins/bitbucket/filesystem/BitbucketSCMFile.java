@@ -25,14 +25,31 @@
 package com.cloudbees.jenkins.plugins.bitbucket.filesystem;
 
 import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketApi;
+import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketCommit;
+import com.cloudbees.jenkins.plugins.bitbucket.client.BitbucketCloudApiClient;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
 import jenkins.scm.api.SCMFile;
 
 
 public class BitbucketSCMFile  extends SCMFile {
 
+	private static final Logger LOGGER = Logger.getLogger(BitbucketSCMFile.class.getName());
+
+	/**
+	 * A full commit hash, which unlike branch names and abbreviated hashes always resolves to the same content.
+	 */
+	private static final Pattern COMMIT_HASH = Pattern.compile("[0-9a-fA-F]{40}");
+
+	@CheckForNull
+	private final BitbucketSCMFileSystem fileSystem;
 	private final BitbucketApi api;
 	private  String ref;
 	private final String hash;
@@ -57,6 +74,7 @@ public class BitbucketSCMFile  extends SCMFile {
 							String ref, String hash) {
 		super();
 		type(Type.DIRECTORY);
+		this.fileSystem = bitBucketSCMFileSystem;
 		this.api = api;
 		this.ref = ref;
 		this.hash = hash;
@@ -69,6 +87,7 @@ public class BitbucketSCMFile  extends SCMFile {
 
 	public BitbucketSCMFile(@NonNull BitbucketSCMFile parent, String name, Type type, String hash) {
     	super(parent, name);
+    	this.fileSystem = parent.fileSystem;
     	this.api = parent.api;
     	this.ref = parent.ref;
     	this.hash = hash;
@@ -83,11 +102,60 @@ public class BitbucketSCMFile  extends SCMFile {
 	@NonNull
 	public Iterable<SCMFile> children() throws IOException,
 			InterruptedException {
-        if (this.isDirectory()) {
-            return api.getDirectoryContent(this);
-        } else {
+        if (!this.isDirectory()) {
             throw new IOException("Cannot get children from a regular file");
         }
+        String revision = revision();
+        if (revision == null || isRoot()) {
+            // the tree of the root is the whole repository, only subdirectories are listed at once
+            return api.getDirectoryContent(this);
+        }
+        BitbucketSCMFileTreeCache tree = BitbucketSCMFileTreeCache.get();
+        List<BitbucketSCMFileTreeCache.Entry> entries = tree.children(revision, getPath());
+        if (entries == null) {
+            entries = tree.put(revision, listTree(revision)).get(getPath());
+            if (entries == null) {
+                // nothing was listed, such as for an empty directory
+                return api.getDirectoryContent(this);
+            }
+        }
+        List<SCMFile> children = new ArrayList<>(entries.size());
+        for (BitbucketSCMFileTreeCache.Entry entry : entries) {
+            children.add(new BitbucketSCMFile(this, entry.getName(), entry.getType(), hash));
+        }
+        return children;
+	}
+
+	/**
+	 * Lists the whole subtree at once, as walking a directory is usually followed by walking its subdirectories.
+	 */
+	private Iterable<SCMFile> listTree(String revision) throws IOException, InterruptedException {
+        BitbucketSCMFileArchiveCache archives = BitbucketSCMFileArchiveCache.get();
+        if (archives != null) {
+            BitbucketSCMFileArchive archive = archives.find(revision, getPath());
+            if (archive == null) {
+                // Bitbucket Cloud archives the whole repository whatever the directory
+                String archived = api instanceof BitbucketCloudApiClient ? "" : getPath();
+                try {
+                    archive = archives.fetch(revision, archived, new BitbucketSCMFileCache.Loader() {
+                        @NonNull
+                        @Override
+                        public InputStream load() throws IOException, InterruptedException {
+                            return api.getDirectoryArchive(BitbucketSCMFile.this);
+                        }
+                    });
+                } catch (IOException e) {
+                    // no archives on this server, or the archive could not be downloaded or read
+                    LOGGER.log(Level.FINE, "Could not fetch the archive of " + getPath() + ", listing it instead", e);
+                }
+            }
+            if (archive != null) {
+                BitbucketSCMFileTree tree = new BitbucketSCMFileTree(this);
+                archive.list(tree, hash);
+                return tree.getFiles();
+            }
+        }
+        return api.getDirectoryTree(this);
 	}
 
 	@Override
@@ -95,15 +163,59 @@ public class BitbucketSCMFile  extends SCMFile {
 	public InputStream content() throws IOException, InterruptedException {
         if (this.isDirectory()) {
             throw new IOException("Cannot get raw content from a directory");
-        } else {
-        	return api.getFileContent(this);
         }
+        String revision = revision();
+        if (revision == null) {
+            return api.getFileContent(this);
+        }
+        BitbucketSCMFileArchiveCache archives = BitbucketSCMFileArchiveCache.get();
+        BitbucketSCMFileArchive archive = archives == null ? null : archives.find(revision, getPath());
+        if (archive != null) {
+            try {
+                return archive.open(getPath());
+            } catch (IOException e) {
+                // not in the archive or the archive was discarded since
+            }
+        }
+        return BitbucketSCMFileCache.get().open(revision, getPath(), new BitbucketSCMFileCache.Loader() {
+            @NonNull
+            @Override
+            public InputStream load() throws IOException, InterruptedException {
+                return api.getFileContent(BitbucketSCMFile.this);
+            }
+        });
+	}
+
+	/**
+	 * Returns the key of the commit of this file in its repository, if it can be cached.
+	 *
+	 * @return the key or {@code null} if the commit is not known, in which case the content may change.
+	 */
+	@CheckForNull
+	private String revision() {
+		String serverUrl = fileSystem == null ? null : fileSystem.getServerUrl();
+		if (serverUrl == null || hash == null || !COMMIT_HASH.matcher(hash).matches()) {
+			return null;
+		}
+		return serverUrl + '\n' + api.getOwner() + '/' + api.getRepositoryName() + '\n' + hash;
 	}
 
+	/**
+	 * Returns the time of the last commit to modify this file, or of the commit itself for the root directory.
+	 */
 	@Override
 	public long lastModified() throws IOException, InterruptedException {
-		// TODO: Return valid value when Tag support is implemented
-		return 0;
+		String revision = revision();
+		if (revision == null) {
+			BitbucketCommit commit = api.getLastCommits(this).get(getPath());
+			return commit == null ? 0L : commit.getDateMillis();
+		}
+		BitbucketSCMFileLastModifiedCache cache = BitbucketSCMFileLastModifiedCache.get();
+		Long lastModified = cache.lastModified(revision, getPath());
+		if (lastModified == null) {
+			lastModified = cache.put(revision, getPath(), api.getLastCommits(this));
+		}
+		return lastModified;
 	}
 
 	@Override
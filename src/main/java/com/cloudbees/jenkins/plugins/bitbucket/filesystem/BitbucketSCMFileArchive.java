@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.filesystem;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import jenkins.scm.api.SCMFile;
+
+/**
+ * A zip archive of a directory at a commit, kept on disk and indexed by the path of its entries so that the files
+ * of the directory can be listed and read without further requests.
+ *
+ * The entries of the archive are expected under a single top level directory, as produced by Bitbucket.
+ *
+ * @since 2.2.13
+ */
+final class BitbucketSCMFileArchive {
+
+    private final File file;
+
+    /**
+     * The path of each file and directory in the archive relative to the repository root, to whether it is a
+     * directory, in path order.
+     */
+    private final Map<String, Boolean> paths = new TreeMap<>();
+
+    /**
+     * The path relative to the repository root of each entry of a file by its entry name, as entry names keep the
+     * top level directory.
+     */
+    private final Map<String, String> entries = new TreeMap<>();
+
+    /**
+     * Indexes an archive.
+     *
+     * @param file      the archive.
+     * @param directory the path of the archived directory relative to the repository root.
+     * @throws IOException if the archive could not be read.
+     */
+    BitbucketSCMFileArchive(@NonNull File file, @NonNull String directory) throws IOException {
+        this.file = file;
+        String base = directory.isEmpty() ? "" : directory + "/";
+        try (ZipFile zip = new ZipFile(file)) {
+            Enumeration<? extends ZipEntry> e = zip.entries();
+            while (e.hasMoreElements()) {
+                ZipEntry entry = e.nextElement();
+                String name = entry.getName();
+                int slash = name.indexOf('/');
+                String path = slash < 0 ? "" : name.substring(slash + 1);
+                if (path.endsWith("/")) {
+                    path = path.substring(0, path.length() - 1);
+                }
+                if (path.isEmpty() || !path.startsWith(base)) {
+                    // the top level directory, or outside the directory for archives of the whole repository
+                    continue;
+                }
+                paths.put(path, entry.isDirectory());
+                if (!entry.isDirectory()) {
+                    entries.put(path, name);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the files and directories of the archive under a directory to a tree.
+     *
+     * @param tree the tree of the directory.
+     * @param hash the commit of the archive.
+     */
+    void list(@NonNull BitbucketSCMFileTree tree, @CheckForNull String hash) {
+        for (Map.Entry<String, Boolean> path : paths.entrySet()) {
+            String relative = tree.relativize(path.getKey());
+            if (relative != null) {
+                tree.add(relative, path.getValue() ? SCMFile.Type.DIRECTORY : SCMFile.Type.REGULAR_FILE, hash);
+            }
+        }
+    }
+
+    /**
+     * Opens the content of a file of the archive.
+     *
+     * @param path the path of the file relative to the repository root.
+     * @return the content, to be closed by the caller.
+     * @throws FileNotFoundException if the file is not in the archive.
+     * @throws IOException           if the archive could not be read.
+     */
+    @NonNull
+    InputStream open(@NonNull String path) throws IOException {
+        String name = entries.get(path);
+        if (name == null) {
+            throw new FileNotFoundException(path);
+        }
+        final ZipFile zip = new ZipFile(file);
+        try {
+            ZipEntry entry = zip.getEntry(name);
+            if (entry == null) {
+                throw new FileNotFoundException(path);
+            }
+            return new FilterInputStream(zip.getInputStream(entry)) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        zip.close();
+                    }
+                }
+            };
+        } catch (IOException e) {
+            zip.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the archive.
+     *
+     * @return the archive.
+     */
+    @NonNull
+    File getFile() {
+        return file;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.filesystem;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipException;
+import jenkins.model.Jenkins;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * The archives of the most recently walked directories, so that walking a directory tree such as a shared library
+ * downloads one archive rather than listing and reading each file separately.
+ *
+ * Archives are only fetched when {@code BitbucketSCMFileSystem.archive} is set, as walking a large directory would
+ * download all of it. The index of the archives is kept in memory, so the archives on disk are discarded on restart.
+ *
+ * @since 2.2.13
+ */
+final class BitbucketSCMFileArchiveCache {
+
+    private static final Logger LOGGER = Logger.getLogger(BitbucketSCMFileArchiveCache.class.getName());
+
+    /**
+     * Whether to fetch archives of the walked directories.
+     */
+    private static final boolean ENABLED = Boolean.getBoolean(BitbucketSCMFileSystem.class.getName() + ".archive");
+
+    /**
+     * The maximum number of archives kept.
+     */
+    private static final int MAX_ARCHIVES =
+            Integer.getInteger(BitbucketSCMFileArchiveCache.class.getName() + ".maxArchives", 20);
+
+    /**
+     * The maximum size of an archive, larger directories are listed and read file by file.
+     */
+    private static final long MAX_ARCHIVE_BYTES =
+            Long.getLong(BitbucketSCMFileArchiveCache.class.getName() + ".maxArchiveBytes", 50L * 1024 * 1024);
+
+    /**
+     * The maximum number of directories remembered as not worth downloading the archive of.
+     */
+    private static final int MAX_UNUSABLE = 1000;
+
+    @CheckForNull
+    private static BitbucketSCMFileArchiveCache instance;
+
+    private final File dir;
+
+    private final long maxArchiveBytes;
+
+    /**
+     * The archive of each directory by commit key and path, iterating from the least recently used.
+     */
+    private final Map<String, BitbucketSCMFileArchive> archives;
+
+    /**
+     * The commit key and path of the directories whose archive is larger than the maximum size or unreadable,
+     * iterating from the least recently used.
+     */
+    private final Map<String, Boolean> unusable;
+
+    private boolean cleaned;
+
+    /**
+     * Constructor.
+     *
+     * @param dir             the directory of the archives.
+     * @param maxArchives     the maximum number of archives kept.
+     * @param maxArchiveBytes the maximum size of an archive.
+     */
+    BitbucketSCMFileArchiveCache(@NonNull File dir, final int maxArchives, long maxArchiveBytes) {
+        this.dir = dir;
+        this.maxArchiveBytes = maxArchiveBytes;
+        this.archives = new LinkedHashMap<String, BitbucketSCMFileArchive>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, BitbucketSCMFileArchive> eldest) {
+                if (size() > maxArchives) {
+                    delete(eldest.getValue().getFile());
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.unusable = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > MAX_UNUSABLE;
+            }
+        };
+    }
+
+    /**
+     * Returns the archives of this Jenkins instance or {@code null} if archives are not fetched.
+     *
+     * @return the archives of this Jenkins instance or {@code null} if archives are not fetched.
+     */
+    @CheckForNull
+    static synchronized BitbucketSCMFileArchiveCache get() {
+        if (!ENABLED) {
+            return null;
+        }
+        if (instance == null) {
+            instance = new BitbucketSCMFileArchiveCache(
+                    new File(new File(Jenkins.getActiveInstance().getRootDir(), "caches"), "bitbucket-scm-archives"),
+                    MAX_ARCHIVES,
+                    MAX_ARCHIVE_BYTES
+            );
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the archive holding a file or directory at a commit.
+     *
+     * @param revision the key of the commit in its repository.
+     * @param path     the path of the file or directory.
+     * @return the archive of the file or of one of its parent directories or {@code null} if none is kept.
+     */
+    @CheckForNull
+    synchronized BitbucketSCMFileArchive find(@NonNull String revision, @NonNull String path) {
+        String directory = path;
+        while (true) {
+            BitbucketSCMFileArchive archive = archives.get(revision + '\n' + directory);
+            if (archive != null) {
+                return archive;
+            }
+            if (directory.isEmpty()) {
+                return null;
+            }
+            int slash = directory.lastIndexOf('/');
+            directory = slash < 0 ? "" : directory.substring(0, slash);
+        }
+    }
+
+    /**
+     * Downloads the archive of a directory at a commit.
+     *
+     * @param revision  the key of the commit in its repository.
+     * @param directory the path of the directory.
+     * @param loader    loads the archive.
+     * @return the archive or {@code null} if it is larger than the maximum size, now or on a previous download.
+     * @throws IOException          if the archive could not be downloaded or read.
+     * @throws InterruptedException if interrupted while downloading the archive.
+     */
+    @CheckForNull
+    BitbucketSCMFileArchive fetch(@NonNull String revision, @NonNull String directory,
+                                  @NonNull BitbucketSCMFileCache.Loader loader)
+            throws IOException, InterruptedException {
+        String key = revision + '\n' + directory;
+        synchronized (this) {
+            if (unusable.containsKey(key)) {
+                return null;
+            }
+            if (!cleaned) {
+                // left over before a restart
+                cleaned = true;
+                FileUtils.deleteQuietly(dir);
+            }
+        }
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Could not create " + dir);
+        }
+        File file = File.createTempFile("archive", ".zip", dir);
+        boolean keep = false;
+        try {
+            try (InputStream in = loader.load(); OutputStream out = new FileOutputStream(file)) {
+                byte[] buffer = new byte[8192];
+                long size = 0;
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    size += n;
+                    if (size > maxArchiveBytes) {
+                        LOGGER.log(Level.FINE, "Archive of {0} at {1} is larger than {2} bytes",
+                                new Object[]{directory, revision, maxArchiveBytes});
+                        synchronized (this) {
+                            unusable.put(key, Boolean.TRUE);
+                        }
+                        return null;
+                    }
+                    out.write(buffer, 0, n);
+                }
+            }
+            BitbucketSCMFileArchive archive;
+            try {
+                archive = new BitbucketSCMFileArchive(file, directory);
+            } catch (ZipException e) {
+                // such as a login page instead of the archive, it would be the same on the next download
+                synchronized (this) {
+                    unusable.put(key, Boolean.TRUE);
+                }
+                throw e;
+            }
+            synchronized (this) {
+                BitbucketSCMFileArchive previous = archives.put(key, archive);
+                if (previous != null) {
+                    delete(previous.getFile());
+                }
+            }
+            keep = true;
+            return archive;
+        } finally {
+            if (!keep) {
+                delete(file);
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        // readers on some platforms keep the file from being deleted, it is then discarded on restart
+        if (!file.delete() && file.exists()) {
+            LOGGER.log(Level.FINE, "Could not delete {0}", file);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.filesystem;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * A bounded disk cache of the content of files at a commit, so that files read through {@link BitbucketSCMFile}
+ * at the same commit, such as the {@code Jenkinsfile} of replays, restarts and parallel loads, are downloaded once.
+ *
+ * The content of a path at a commit never changes, so entries are never invalidated, only evicted least recently
+ * used first once the cache grows over its size.
+ *
+ * @since 2.2.13
+ */
+final class BitbucketSCMFileCache {
+
+    private static final Logger LOGGER = Logger.getLogger(BitbucketSCMFileCache.class.getName());
+
+    /**
+     * The maximum total size of the cached files.
+     */
+    private static final long MAX_BYTES =
+            Long.getLong(BitbucketSCMFileCache.class.getName() + ".maxBytes", 100L * 1024 * 1024);
+
+    /**
+     * The maximum size of a cached file, larger files are read without being kept.
+     */
+    private static final long MAX_FILE_BYTES =
+            Long.getLong(BitbucketSCMFileCache.class.getName() + ".maxFileBytes", 1024L * 1024);
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    @CheckForNull
+    private static BitbucketSCMFileCache instance;
+
+    private final File dir;
+
+    private final long maxBytes;
+
+    private final long maxFileBytes;
+
+    /**
+     * The name of each cached file to its size, iterating from the least recently used.
+     */
+    private final Map<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long totalBytes;
+
+    private boolean loaded;
+
+    /**
+     * Constructor.
+     *
+     * @param dir          the directory of the cached files.
+     * @param maxBytes     the maximum total size of the cached files.
+     * @param maxFileBytes the maximum size of a cached file.
+     */
+    BitbucketSCMFileCache(@NonNull File dir, long maxBytes, long maxFileBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.maxFileBytes = maxFileBytes;
+    }
+
+    /**
+     * Returns the cache of this Jenkins instance.
+     *
+     * @return the cache of this Jenkins instance.
+     */
+    @NonNull
+    static synchronized BitbucketSCMFileCache get() {
+        if (instance == null) {
+            instance = new BitbucketSCMFileCache(
+                    new File(new File(Jenkins.getActiveInstance().getRootDir(), "caches"), "bitbucket-scm-files"),
+                    MAX_BYTES,
+                    MAX_FILE_BYTES
+            );
+        }
+        return instance;
+    }
+
+    /**
+     * Opens the content of a file at a commit, loading it if it is not cached.
+     *
+     * @param revision the key of the commit in its repository.
+     * @param path     the path of the file.
+     * @param loader   loads the content on a miss.
+     * @return the content, to be closed by the caller.
+     * @throws IOException          if the content could not be loaded.
+     * @throws InterruptedException if interrupted while loading the content.
+     */
+    @NonNull
+    InputStream open(@NonNull String revision, @NonNull String path, @NonNull Loader loader)
+            throws IOException, InterruptedException {
+        String name = DigestUtils.sha256Hex(revision + '\n' + path);
+        File file = new File(dir, name);
+        synchronized (this) {
+            load();
+            // get rather than containsKey, which does not count as an access
+            if (entries.get(name) != null) {
+                try {
+                    InputStream content = new FileInputStream(file);
+                    if (!file.setLastModified(System.currentTimeMillis())) {
+                        LOGGER.log(Level.FINE, "Could not touch {0}", file);
+                    }
+                    return content;
+                } catch (FileNotFoundException e) {
+                    remove(name);
+                }
+            }
+        }
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Could not create " + dir);
+        }
+        File tmp = File.createTempFile(name, TMP_SUFFIX, dir);
+        boolean keepTmp = false;
+        try {
+            long size;
+            try (InputStream in = loader.load(); OutputStream out = new FileOutputStream(tmp)) {
+                size = IOUtils.copyLarge(in, out);
+            }
+            if (size > maxFileBytes) {
+                InputStream content = new TemporaryFileInputStream(tmp);
+                keepTmp = true;
+                return content;
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            // opened before being accounted for, so that it can be read even if evicted right away
+            InputStream content = new FileInputStream(file);
+            put(name, size);
+            return content;
+        } finally {
+            if (!keepTmp && tmp.exists() && !tmp.delete()) {
+                LOGGER.log(Level.FINE, "Could not delete {0}", tmp);
+            }
+        }
+    }
+
+    /**
+     * Returns the total size of the cached files.
+     *
+     * @return the total size of the cached files.
+     */
+    synchronized long getTotalBytes() {
+        load();
+        return totalBytes;
+    }
+
+    /**
+     * Picks up the files cached before a restart, least recently used first.
+     */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                long m1 = f1.lastModified();
+                long m2 = f2.lastModified();
+                return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+            }
+        });
+        for (File f : files) {
+            if (f.getName().endsWith(TMP_SUFFIX)) {
+                // left over by an interrupted load
+                if (!f.delete()) {
+                    LOGGER.log(Level.FINE, "Could not delete {0}", f);
+                }
+            } else if (f.isFile()) {
+                entries.put(f.getName(), f.length());
+                totalBytes += f.length();
+            }
+        }
+        evict();
+    }
+
+    private synchronized void put(String name, long size) {
+        load();
+        Long previous = entries.put(name, size);
+        if (previous != null) {
+            totalBytes -= previous;
+        }
+        totalBytes += size;
+        evict();
+    }
+
+    private void remove(String name) {
+        Long size = entries.remove(name);
+        if (size != null) {
+            totalBytes -= size;
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            File f = new File(dir, entry.getKey());
+            if (!f.delete() && f.exists()) {
+                LOGGER.log(Level.FINE, "Could not evict {0}", f);
+            }
+            totalBytes -= entry.getValue();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Loads the content of a file.
+     */
+    interface Loader {
+        /**
+         * Loads the content of the file.
+         *
+         * @return the content, closed by the cache.
+         * @throws IOException          if the content could not be loaded.
+         * @throws InterruptedException if interrupted while loading the content.
+         */
+        @NonNull
+        InputStream load() throws IOException, InterruptedException;
+    }
+
+    /**
+     * The content of a file too large to be cached, deleted once read.
+     */
+    private static class TemporaryFileInputStream extends FilterInputStream {
+        private final File file;
+
+        TemporaryFileInputStream(File file) throws FileNotFoundException {
+            super(new FileInputStream(file));
+            this.file = file;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!file.delete()) {
+                    LOGGER.log(Level.FINE, "Could not delete {0}", file);
+                }
+            }
+        }
+    }
+}
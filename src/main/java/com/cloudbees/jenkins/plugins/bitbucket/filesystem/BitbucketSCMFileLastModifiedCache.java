@@ -0,0 +1,112 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.filesystem;
+
+import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketCommit;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The time of the last commit to modify each file of the most recently read commits, so that the modification time
+ * of a file, which takes a request for its whole directory on Bitbucket Server, is only asked for once per commit.
+ *
+ * The history of commits never changes, so the times are never invalidated, only dropped least recently used first.
+ *
+ * @since 2.2.13
+ */
+final class BitbucketSCMFileLastModifiedCache {
+
+    /**
+     * The maximum number of commits to keep the modification times of.
+     */
+    private static final int MAX_REVISIONS =
+            Integer.getInteger(BitbucketSCMFileLastModifiedCache.class.getName() + ".maxRevisions", 100);
+
+    private static final BitbucketSCMFileLastModifiedCache INSTANCE =
+            new BitbucketSCMFileLastModifiedCache(MAX_REVISIONS);
+
+    /**
+     * The commit key to the modification time of each known file by path, iterating from the least recently used
+     * commit.
+     */
+    private final Map<String, Map<String, Long>> revisions;
+
+    BitbucketSCMFileLastModifiedCache(final int maxRevisions) {
+        this.revisions = new LinkedHashMap<String, Map<String, Long>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, Long>> eldest) {
+                return size() > maxRevisions;
+            }
+        };
+    }
+
+    @NonNull
+    static BitbucketSCMFileLastModifiedCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the modification time of a file at a commit.
+     *
+     * @param revision the key of the commit in its repository.
+     * @param path     the path of the file.
+     * @return the time of the last commit to modify the file, {@code 0} if no commit did, or {@code null} if it is
+     * not known.
+     */
+    @CheckForNull
+    synchronized Long lastModified(@NonNull String revision, @NonNull String path) {
+        Map<String, Long> files = revisions.get(revision);
+        return files == null ? null : files.get(path);
+    }
+
+    /**
+     * Records the last commits to modify files at a commit.
+     *
+     * @param revision the key of the commit in its repository.
+     * @param path     the path of the file asked for, which is recorded as never modified if it has no commit.
+     * @param commits  the last commit to modify each file, by path.
+     * @return the modification time of the file asked for.
+     */
+    long put(@NonNull String revision, @NonNull String path, @NonNull Map<String, ? extends BitbucketCommit> commits) {
+        Map<String, Long> times = new HashMap<>();
+        for (Map.Entry<String, ? extends BitbucketCommit> commit : commits.entrySet()) {
+            times.put(commit.getKey(), commit.getValue().getDateMillis());
+        }
+        if (!times.containsKey(path)) {
+            times.put(path, 0L);
+        }
+        synchronized (this) {
+            Map<String, Long> files = revisions.get(revision);
+            if (files == null) {
+                files = new HashMap<>();
+                revisions.put(revision, files);
+            }
+            files.putAll(times);
+        }
+        return times.get(path);
+    }
+}
@@ -25,12 +25,22 @@
 
 package com.cloudbees.jenkins.plugins.bitbucket.filesystem;
 
+import com.cloudbees.jenkins.plugins.bitbucket.BitbucketRepositoryType;
 import com.cloudbees.jenkins.plugins.bitbucket.BitbucketSCMSource;
 import com.cloudbees.jenkins.plugins.bitbucket.BitbucketTagSCMHead;
 import com.cloudbees.jenkins.plugins.bitbucket.BranchSCMHead;
 import com.cloudbees.jenkins.plugins.bitbucket.PullRequestSCMHead;
+import com.cloudbees.jenkins.plugins.bitbucket.PullRequestSCMRevision;
 import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketApi;
 import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketApiFactory;
+import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketBranch;
+import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketCommit;
+import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketPullRequest;
+import com.cloudbees.jenkins.plugins.bitbucket.client.BitbucketCloudApiClient;
+import com.cloudbees.jenkins.plugins.bitbucket.endpoints.AbstractBitbucketEndpoint;
+import com.cloudbees.jenkins.plugins.bitbucket.endpoints.BitbucketCloudEndpoint;
+import com.cloudbees.jenkins.plugins.bitbucket.endpoints.BitbucketEndpointConfiguration;
+import com.cloudbees.jenkins.plugins.bitbucket.server.client.BitbucketServerAPIClient;
 import com.cloudbees.plugins.credentials.CredentialsMatchers;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
@@ -41,43 +51,88 @@ import hudson.Util;
 import hudson.model.Item;
 import hudson.model.Queue;
 import hudson.model.queue.Tasks;
+import hudson.plugins.git.GitSCM;
+import hudson.plugins.git.UserRemoteConfig;
+import hudson.plugins.git.browser.BitbucketWeb;
 import hudson.scm.SCM;
 import hudson.security.ACL;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import jenkins.plugins.git.AbstractGitSCMSource;
 import jenkins.scm.api.SCMFile;
 import jenkins.scm.api.SCMFileSystem;
 import jenkins.scm.api.SCMHead;
 import jenkins.scm.api.SCMRevision;
 import jenkins.scm.api.SCMSource;
 import jenkins.scm.api.mixin.ChangeRequestCheckoutStrategy;
+import jenkins.scm.api.mixin.ChangeRequestSCMRevision;
+import org.apache.commons.lang.StringUtils;
 
 public class BitbucketSCMFileSystem extends SCMFileSystem {
 
     private final String ref;
     private final BitbucketApi api;
+    @CheckForNull
+    private final String serverUrl;
 
     protected BitbucketSCMFileSystem(BitbucketApi api, String ref, SCMRevision rev) throws IOException {
+        this(api, ref, rev, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param api       the client of the repository.
+     * @param ref       the branch or tag.
+     * @param rev       the revision or {@code null} for the head of the ref.
+     * @param serverUrl the server of the repository or {@code null} to not cache the content of the files.
+     * @throws IOException if the file system could not be created.
+     * @since 2.2.13
+     */
+    protected BitbucketSCMFileSystem(BitbucketApi api, String ref, SCMRevision rev, @CheckForNull String serverUrl)
+            throws IOException {
         super(rev);
         this.ref = ref;
         this.api = api;
+        this.serverUrl = serverUrl;
     }
 
     /**
+     * Returns the server of the repository, which identifies the cached content of the files.
      *
-     * @return Return timestamp of last commit or of tag if its annotated tag
-     * @throws IOException
+     * @return the server of the repository or {@code null} if the content of the files is not cached.
+     */
+    @CheckForNull
+    String getServerUrl() {
+        return serverUrl;
+    }
+
+    /**
+     *
+     * @return Return timestamp of the commit read
+     * @throws IOException if there was a network communications error.
+     * @throws InterruptedException if interrupted while waiting on remote communications.
      */
     @Override
-    public long lastModified() throws IOException {
-        // TODO figure out how to implement this
-        return 0L;
+    public long lastModified() throws IOException, InterruptedException {
+        return getRoot().lastModified();
     }
 
     @NonNull
     @Override
     public SCMFile getRoot() {
         SCMRevision revision = getRevision();
-        return new BitbucketSCMFile(this, api, ref, revision == null ? null : revision.toString());
+        String hash;
+        if (revision == null
+                || revision instanceof ChangeRequestSCMRevision && ((ChangeRequestSCMRevision) revision).isMerge()) {
+            // the merge commit is only known by the ref
+            hash = null;
+        } else if (revision instanceof PullRequestSCMRevision) {
+            hash = ((PullRequestSCMRevision) revision).getPull().toString();
+        } else {
+            hash = revision.toString();
+        }
+        return new BitbucketSCMFile(this, api, ref, hash);
     }
 
     @Extension
@@ -85,8 +140,8 @@ public class BitbucketSCMFileSystem extends SCMFileSystem {
 
         @Override
         public boolean supports(SCM source) {
-            //TODO: Determine supported by checking if its git/hg bitbucket scm with proper credentials and non wildcard branch
-            return false;
+            // as built by BitbucketGitSCMBuilder, the browser is what ties a GitSCM to its Bitbucket repository
+            return source instanceof GitSCM && ((GitSCM) source).getBrowser() instanceof BitbucketWeb;
         }
 
         @Override
@@ -95,10 +150,104 @@ public class BitbucketSCMFileSystem extends SCMFileSystem {
         }
 
         @Override
-        public SCMFileSystem build(@NonNull Item owner, @NonNull SCM scm, @CheckForNull SCMRevision rev) {
+        public SCMFileSystem build(@NonNull Item owner, @NonNull SCM scm, @CheckForNull SCMRevision rev)
+                throws IOException, InterruptedException {
+            if (!supports(scm)) {
+                return null;
+            }
+            SCMSource source = SCMSource.SourceByItem.findSource(owner);
+            SCMHead head = SCMHead.HeadByItem.findHead(owner);
+            if (source instanceof BitbucketSCMSource && head != null) {
+                // a branch or pull request of a multibranch project, the revision of its GitSCM may be that of the
+                // pull request branch rather than of the pull request
+                return build(source, head, rev != null && head.equals(rev.getHead()) ? rev : null);
+            }
+            GitSCM git = (GitSCM) scm;
+            if (git.getUserRemoteConfigs().size() != 1 || git.getBranches().size() != 1) {
+                return null;
+            }
+            UserRemoteConfig remote = git.getUserRemoteConfigs().get(0);
+            String ref = refOf(git.getBranches().get(0).getName(), remote.getName());
+            if (ref == null) {
+                return null;
+            }
+            String repoUrl = StringUtils.removeEnd(git.getBrowser().getUrl().toString(), "/");
+            for (AbstractBitbucketEndpoint endpoint : BitbucketEndpointConfiguration.get().getEndpoints()) {
+                String[] repository = repositoryOf(endpoint, repoUrl);
+                if (repository == null) {
+                    continue;
+                }
+                if (!isRemoteOf(remote.getUrl(), repository[1])) {
+                    // the browser is not that of the remote
+                    return null;
+                }
+                StandardUsernamePasswordCredentials credentials = lookupScanCredentials(owner,
+                        remote.getCredentialsId());
+                if (credentials == null && Util.fixEmpty(remote.getCredentialsId()) != null) {
+                    // such as SSH keys, which cannot be used with the REST API
+                    return null;
+                }
+                BitbucketApi apiClient = BitbucketApiFactory.newInstance(endpoint.getServerUrl(), credentials,
+                        repository[0], repository[1]);
+                return buildRef(apiClient, new SCMHead(ref), ref,
+                        rev instanceof AbstractGitSCMSource.SCMRevisionImpl ? rev : null, endpoint.getServerUrl());
+            }
             return null;
         }
+
+        /**
+         * Returns the ref of a branch specifier that names a single branch or tag.
+         */
+        @CheckForNull
+        static String refOf(@CheckForNull String branch, @CheckForNull String remoteName) {
+            if (branch == null || branch.contains("*") || branch.contains(":") || branch.startsWith("${")) {
+                return null;
+            }
+            if (branch.startsWith("refs/heads/")) {
+                return branch.substring("refs/heads/".length());
+            }
+            if (branch.startsWith("refs/tags/")) {
+                return "tags/" + branch.substring("refs/tags/".length());
+            }
+            if (branch.startsWith("refs/")) {
+                return null;
+            }
+            String remote = StringUtils.defaultIfBlank(remoteName, "origin");
+            return branch.startsWith(remote + "/") ? branch.substring(remote.length() + 1) : branch;
+        }
+
+        /**
+         * Returns the owner and name of the repository of an endpoint with the given URL.
+         */
+        @CheckForNull
+        static String[] repositoryOf(@NonNull AbstractBitbucketEndpoint endpoint, @NonNull String repoUrl) {
+            String prefix = endpoint.getServerUrl() + "/";
+            if (!repoUrl.startsWith(prefix)) {
+                return null;
+            }
+            String[] path = repoUrl.substring(prefix.length()).split("/");
+            String[] repository;
+            if (endpoint instanceof BitbucketCloudEndpoint && path.length == 2) {
+                repository = new String[]{path[0], path[1]};
+            } else if (path.length == 4 && "repos".equals(path[2]) && "projects".equals(path[0])) {
+                repository = new String[]{path[1], path[3]};
+            } else if (path.length == 4 && "repos".equals(path[2]) && "users".equals(path[0])) {
+                repository = new String[]{"~" + path[1], path[3]};
+            } else {
+                return null;
+            }
+            // the endpoint builds its URLs with escaping, so only trust what it builds back the same
+            return repoUrl.equals(endpoint.getRepositoryUrl(repository[0], repository[1])) ? repository : null;
+        }
         
+        /**
+         * Returns whether a remote URL, over any protocol, is that of a repository with the given name.
+         */
+        static boolean isRemoteOf(@CheckForNull String remoteUrl, @NonNull String repositoryName) {
+            String url = StringUtils.removeEnd(StringUtils.defaultString(remoteUrl), ".git");
+            return StringUtils.endsWithIgnoreCase(url, "/" + repositoryName);
+        }
+
         private static StandardUsernamePasswordCredentials lookupScanCredentials(@CheckForNull Item context,
                 @CheckForNull String scanCredentialsId) {
             if (Util.fixEmpty(scanCredentialsId) == null) {
@@ -136,16 +285,88 @@ public class BitbucketSCMFileSystem extends SCMFileSystem {
             } else if (head instanceof PullRequestSCMHead) {
                 PullRequestSCMHead pr = (PullRequestSCMHead) head;
                 if (!(pr.getCheckoutStrategy() == ChangeRequestCheckoutStrategy.MERGE) && pr.getRepository() != null) {
-                    return new BitbucketSCMFileSystem(apiClient, pr.getOriginName(), rev);
+                    if (rev == null && apiClient instanceof BitbucketCloudApiClient) {
+                        // the source branch may only exist in a fork, so there is no commit to read it at
+                        return null;
+                    }
+                    return new BitbucketSCMFileSystem(apiClient, pr.getOriginName(), rev, serverUrl);
+                }
+                if (pr.getCheckoutStrategy() == ChangeRequestCheckoutStrategy.MERGE
+                        && apiClient instanceof BitbucketServerAPIClient) {
+                    return buildMerge((BitbucketServerAPIClient) apiClient, pr, rev, serverUrl);
                 }
-                return null; // TODO support merge revisions somehow
+                // Bitbucket Cloud does not keep merge refs
+                return null;
             } else if (head instanceof BitbucketTagSCMHead) {
                  ref = "tags/" + head.getName();
             } else {
                 return null;
             }
 
-            return new BitbucketSCMFileSystem(apiClient, ref, rev);
+            return buildRef(apiClient, head, ref, rev, serverUrl);
+        }
+
+        /**
+         * Reads a branch or tag at a revision. Bitbucket Cloud only reads files at a commit, so the current commit of
+         * the ref is resolved when no revision is given.
+         *
+         * @return the file system or {@code null} if the ref does not exist.
+         */
+        @CheckForNull
+        static SCMFileSystem buildRef(@NonNull BitbucketApi apiClient, @NonNull SCMHead head, @NonNull String ref,
+                                      @CheckForNull SCMRevision rev, @CheckForNull String serverUrl)
+                throws IOException, InterruptedException {
+            if (rev == null && apiClient instanceof BitbucketCloudApiClient) {
+                BitbucketBranch branch = ref.startsWith("tags/")
+                        ? apiClient.getTag(ref.substring("tags/".length()))
+                        : apiClient.getBranch(ref);
+                if (branch == null || StringUtils.isBlank(branch.getRawNode())) {
+                    return null;
+                }
+                if (head instanceof BranchSCMHead
+                        && ((BranchSCMHead) head).getRepositoryType() == BitbucketRepositoryType.MERCURIAL) {
+                    rev = new BitbucketSCMSource.MercurialRevision(head, branch.getRawNode());
+                } else {
+                    rev = new AbstractGitSCMSource.SCMRevisionImpl(head, branch.getRawNode());
+                }
+            }
+            return new BitbucketSCMFileSystem(apiClient, ref, rev, serverUrl);
+        }
+
+        /**
+         * Reads a merge pull request from the merge ref Bitbucket Server keeps for the pull request, provided that
+         * the ref merges the revision asked for.
+         */
+        @CheckForNull
+        static SCMFileSystem buildMerge(@NonNull BitbucketServerAPIClient apiClient,
+                                                @NonNull PullRequestSCMHead head, @CheckForNull SCMRevision rev,
+                                                @CheckForNull String serverUrl)
+                throws IOException, InterruptedException {
+            Integer id = Integer.valueOf(head.getId());
+            if (rev instanceof PullRequestSCMRevision) {
+                PullRequestSCMRevision<?> revision = (PullRequestSCMRevision<?>) rev;
+                BitbucketPullRequest pull;
+                try {
+                    pull = apiClient.getPullRequestById(id);
+                } catch (FileNotFoundException e) {
+                    return null;
+                }
+                if (!sameCommit(revision.getPull(), pull.getSource().getCommit())
+                        || !sameCommit(revision.getTarget(), pull.getDestination().getCommit())) {
+                    // the merge ref has moved on since
+                    return null;
+                }
+            }
+            if (!apiClient.getPullRequestCanMergeById(id)) {
+                // conflicts leave no merge ref
+                return null;
+            }
+            return new BitbucketSCMFileSystem(apiClient, "refs/pull-requests/" + id + "/merge", rev, serverUrl);
+        }
+
+        private static boolean sameCommit(@NonNull SCMRevision revision, @CheckForNull BitbucketCommit commit) {
+            return revision instanceof AbstractGitSCMSource.SCMRevisionImpl && commit != null
+                    && ((AbstractGitSCMSource.SCMRevisionImpl) revision).getHash().equals(commit.getHash());
         }
     }
 }
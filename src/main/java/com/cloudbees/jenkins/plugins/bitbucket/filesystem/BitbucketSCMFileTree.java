@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.filesystem;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import jenkins.scm.api.SCMFile;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Builds the files under a directory from a recursive listing of their paths, creating each file as a child of its
+ * parent directory and the directories that are only implied by the paths of their files.
+ *
+ * @since 2.2.13
+ */
+@Restricted(NoExternalUse.class)
+public final class BitbucketSCMFileTree {
+
+    private final BitbucketSCMFile root;
+
+    /**
+     * The directories created so far by path relative to the root.
+     */
+    private final Map<String, BitbucketSCMFile> directories = new HashMap<>();
+
+    private final List<SCMFile> files = new ArrayList<>();
+
+    /**
+     * Constructor.
+     *
+     * @param root the listed directory.
+     */
+    public BitbucketSCMFileTree(@NonNull BitbucketSCMFile root) {
+        this.root = root;
+        this.directories.put("", root);
+    }
+
+    /**
+     * Adds a listed file.
+     *
+     * @param path the path of the file relative to the listed directory.
+     * @param type the type of the file.
+     * @param hash the commit the file was listed at.
+     */
+    public void add(@NonNull String path, @NonNull SCMFile.Type type, @CheckForNull String hash) {
+        if (path.isEmpty() || (type == SCMFile.Type.DIRECTORY && directories.containsKey(path))) {
+            return;
+        }
+        int slash = path.lastIndexOf('/');
+        BitbucketSCMFile parent = directory(slash < 0 ? "" : path.substring(0, slash), hash);
+        BitbucketSCMFile file = new BitbucketSCMFile(parent, path.substring(slash + 1), type, hash);
+        if (type == SCMFile.Type.DIRECTORY) {
+            directories.put(path, file);
+        }
+        files.add(file);
+    }
+
+    /**
+     * Returns the path of a listed file relative to the listed directory.
+     *
+     * @param path the path of the file relative to the repository root.
+     * @return the path relative to the listed directory or {@code null} if the file is not under it.
+     */
+    @CheckForNull
+    public String relativize(@NonNull String path) {
+        String base = root.getPath();
+        if (base.isEmpty()) {
+            return path;
+        }
+        return path.startsWith(base + "/") ? path.substring(base.length() + 1) : null;
+    }
+
+    /**
+     * Returns the files and directories under the listed directory.
+     *
+     * @return the files and directories under the listed directory, at any depth.
+     */
+    @NonNull
+    public List<SCMFile> getFiles() {
+        return files;
+    }
+
+    private BitbucketSCMFile directory(String path, String hash) {
+        BitbucketSCMFile directory = directories.get(path);
+        if (directory == null) {
+            add(path, SCMFile.Type.DIRECTORY, hash);
+            directory = directories.get(path);
+        }
+        return directory;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.filesystem;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import jenkins.scm.api.SCMFile;
+
+/**
+ * The directory listings of the most recently walked commits, so that walking a tree such as a shared library takes
+ * a recursive listing per subtree rather than a request per directory.
+ *
+ * A directory is only known once it has been listed with some content. The trees of commits never change, so the
+ * listings are never invalidated, only dropped least recently used commit first once too many files are known.
+ *
+ * @since 2.2.13
+ */
+final class BitbucketSCMFileTreeCache {
+
+    /**
+     * The maximum number of files and directories to keep, over all commits.
+     */
+    private static final int MAX_ENTRIES =
+            Integer.getInteger(BitbucketSCMFileTreeCache.class.getName() + ".maxEntries", 100000);
+
+    private static final BitbucketSCMFileTreeCache INSTANCE = new BitbucketSCMFileTreeCache(MAX_ENTRIES);
+
+    private final int maxEntries;
+
+    /**
+     * The commit key to the content of each known directory by path, iterating from the least recently used commit.
+     */
+    private final Map<String, Map<String, List<Entry>>> revisions =
+            new LinkedHashMap<String, Map<String, List<Entry>>>(16, 0.75f, true);
+
+    /**
+     * The number of files and directories known over all commits.
+     */
+    private int size;
+
+    BitbucketSCMFileTreeCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    @NonNull
+    static BitbucketSCMFileTreeCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the content of a directory at a commit.
+     *
+     * @param revision the key of the commit in its repository.
+     * @param path     the path of the directory.
+     * @return the content of the directory or {@code null} if it is not known.
+     */
+    @CheckForNull
+    synchronized List<Entry> children(@NonNull String revision, @NonNull String path) {
+        Map<String, List<Entry>> directories = revisions.get(revision);
+        return directories == null ? null : directories.get(path);
+    }
+
+    /**
+     * Records the files listed under a directory at a commit, unless the listing alone is larger than the cache.
+     *
+     * @param revision the key of the commit in its repository.
+     * @param files    the files and directories listed, at any depth.
+     * @return the content of each listed directory by path.
+     */
+    @NonNull
+    Map<String, List<Entry>> put(@NonNull String revision, @NonNull Iterable<SCMFile> files) {
+        Map<String, List<Entry>> listed = new HashMap<>();
+        int count = 0;
+        for (SCMFile file : files) {
+            count++;
+            String path = file.getPath();
+            int slash = path.lastIndexOf('/');
+            String parent = slash < 0 ? "" : path.substring(0, slash);
+            List<Entry> entries = listed.get(parent);
+            if (entries == null) {
+                entries = new ArrayList<>();
+                listed.put(parent, entries);
+            }
+            entries.add(new Entry(file.getName(), file.getType()));
+        }
+        for (Map.Entry<String, List<Entry>> directory : listed.entrySet()) {
+            directory.setValue(Collections.unmodifiableList(directory.getValue()));
+        }
+        if (count > maxEntries) {
+            return listed;
+        }
+        synchronized (this) {
+            Map<String, List<Entry>> directories = revisions.get(revision);
+            if (directories == null) {
+                directories = new HashMap<>();
+                revisions.put(revision, directories);
+            }
+            for (Map.Entry<String, List<Entry>> directory : listed.entrySet()) {
+                List<Entry> previous = directories.put(directory.getKey(), directory.getValue());
+                size += directory.getValue().size() - (previous == null ? 0 : previous.size());
+            }
+            Iterator<Map<String, List<Entry>>> eldest = revisions.values().iterator();
+            while (size > maxEntries && eldest.hasNext()) {
+                Map<String, List<Entry>> dropped = eldest.next();
+                if (dropped == directories) {
+                    continue;
+                }
+                for (List<Entry> entries : dropped.values()) {
+                    size -= entries.size();
+                }
+                eldest.remove();
+            }
+        }
+        return listed;
+    }
+
+    /**
+     * A file in a directory.
+     */
+    static final class Entry {
+        private final String name;
+        private final SCMFile.Type type;
+
+        Entry(@NonNull String name, @NonNull SCMFile.Type type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        @NonNull
+        String getName() {
+            return name;
+        }
+
+        @NonNull
+        SCMFile.Type getType() {
+            return type;
+        }
+    }
+}
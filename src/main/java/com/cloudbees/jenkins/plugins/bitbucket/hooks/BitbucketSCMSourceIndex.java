@@ -0,0 +1,369 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.hooks;
+
+import com.cloudbees.jenkins.plugins.bitbucket.BitbucketSCMNavigator;
+import com.cloudbees.jenkins.plugins.bitbucket.BitbucketSCMSource;
+import com.cloudbees.jenkins.plugins.bitbucket.endpoints.BitbucketEndpointConfiguration;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Item;
+import hudson.model.Saveable;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.SaveableListener;
+import hudson.security.ACL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import jenkins.model.Jenkins;
+import jenkins.scm.api.SCMNavigator;
+import jenkins.scm.api.SCMNavigatorOwner;
+import jenkins.scm.api.SCMSource;
+import jenkins.scm.api.SCMSourceOwner;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Index from Bitbucket repositories to the {@link SCMSourceOwner}s that have a {@link BitbucketSCMSource} for them,
+ * and from Bitbucket repository owners to the {@link SCMNavigatorOwner}s that have a {@link BitbucketSCMNavigator}
+ * for them, so that webhook processing and webhook removal do not have to walk every item in the instance.
+ *
+ * The index is built on the first lookup (or once all items are loaded) and then kept up to date from the item
+ * and saveable listeners. Lookups only narrow down the candidates: callers are still expected to check the sources
+ * of the returned owners.
+ *
+ * @since 2.2.13
+ */
+@Restricted(NoExternalUse.class)
+public final class BitbucketSCMSourceIndex {
+
+    private static final BitbucketSCMSourceIndex INSTANCE = new BitbucketSCMSourceIndex();
+
+    /**
+     * Repository key to the owners with a source for that repository and the normalized server URLs they use.
+     */
+    private final Map<String, Map<SCMSourceOwner, Set<String>>> owners = new HashMap<>();
+
+    /**
+     * Owner to the repository keys it is currently indexed under.
+     */
+    private final Map<SCMSourceOwner, Set<String>> keys = new HashMap<>();
+
+    /**
+     * Lowercase repository owner to the navigator owners with a navigator for it.
+     */
+    private final Map<String, Set<SCMNavigatorOwner>> navigatorOwners = new HashMap<>();
+
+    /**
+     * Navigator owner to the repository owners it is currently indexed under.
+     */
+    private final Map<SCMNavigatorOwner, Set<String>> navigatorKeys = new HashMap<>();
+
+    private boolean loaded;
+
+    BitbucketSCMSourceIndex() {
+    }
+
+    /**
+     * Returns the index used by the hook processors.
+     *
+     * @return the index used by the hook processors.
+     */
+    @NonNull
+    public static BitbucketSCMSourceIndex get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the owners that have a {@link BitbucketSCMSource} for the given repository.
+     *
+     * @param serverUrl  the server URL the sources must use or {@code null} to match any server.
+     * @param repoOwner  the repository owner, matched ignoring case.
+     * @param repository the repository name, matched ignoring case.
+     * @return the candidate owners.
+     */
+    @NonNull
+    public List<SCMSourceOwner> findOwners(@CheckForNull String serverUrl, @NonNull String repoOwner,
+                                           @NonNull String repository) {
+        String normalizedServerUrl =
+                serverUrl == null ? null : BitbucketEndpointConfiguration.normalizeServerUrl(serverUrl);
+        ensureLoaded();
+        synchronized (this) {
+            Map<SCMSourceOwner, Set<String>> matches = owners.get(key(repoOwner, repository));
+            if (matches == null) {
+                return Collections.emptyList();
+            }
+            List<SCMSourceOwner> result = new ArrayList<>(matches.size());
+            for (Map.Entry<SCMSourceOwner, Set<String>> entry : matches.entrySet()) {
+                if (normalizedServerUrl == null || entry.getValue().contains(normalizedServerUrl)) {
+                    result.add(entry.getKey());
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Checks whether a webhook about a repository may concern any source or navigator, i.e. whether a source is
+     * configured for the repository or a navigator is configured for its owner.
+     *
+     * @param repoOwner  the repository owner, matched ignoring case.
+     * @param repository the repository name, matched ignoring case.
+     * @return {@code false} if the webhook can be safely ignored.
+     */
+    public boolean isRelevant(@NonNull String repoOwner, @NonNull String repository) {
+        if (!findOwners(null, repoOwner, repository).isEmpty()) {
+            return true;
+        }
+        synchronized (this) {
+            return navigatorOwners.containsKey(repoOwner.toLowerCase(Locale.ENGLISH));
+        }
+    }
+
+    /**
+     * Replaces the index content with the sources and navigators of the given items.
+     *
+     * @param all the items.
+     */
+    void rebuild(@NonNull Iterable<? extends Item> all) {
+        Map<SCMSourceOwner, Map<String, Set<String>>> collected = new HashMap<>();
+        Map<SCMNavigatorOwner, Set<String>> collectedNavigators = new HashMap<>();
+        for (Item item : all) {
+            if (item instanceof SCMSourceOwner) {
+                Map<String, Set<String>> repositories = repositoriesOf((SCMSourceOwner) item);
+                if (!repositories.isEmpty()) {
+                    collected.put((SCMSourceOwner) item, repositories);
+                }
+            }
+            if (item instanceof SCMNavigatorOwner) {
+                Set<String> repoOwners = repoOwnersOf((SCMNavigatorOwner) item);
+                if (!repoOwners.isEmpty()) {
+                    collectedNavigators.put((SCMNavigatorOwner) item, repoOwners);
+                }
+            }
+        }
+        synchronized (this) {
+            owners.clear();
+            keys.clear();
+            navigatorOwners.clear();
+            navigatorKeys.clear();
+            for (Map.Entry<SCMSourceOwner, Map<String, Set<String>>> entry : collected.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<SCMNavigatorOwner, Set<String>> entry : collectedNavigators.entrySet()) {
+                putNavigators(entry.getKey(), entry.getValue());
+            }
+            loaded = true;
+        }
+    }
+
+    /**
+     * Re-indexes the sources and navigators of an item.
+     *
+     * @param item the item.
+     */
+    void update(@NonNull Item item) {
+        Map<String, Set<String>> repositories = item instanceof SCMSourceOwner
+                ? repositoriesOf((SCMSourceOwner) item)
+                : Collections.<String, Set<String>>emptyMap();
+        Set<String> repoOwners = item instanceof SCMNavigatorOwner
+                ? repoOwnersOf((SCMNavigatorOwner) item)
+                : Collections.<String>emptySet();
+        synchronized (this) {
+            remove(item);
+            if (item instanceof SCMSourceOwner) {
+                put((SCMSourceOwner) item, repositories);
+            }
+            if (item instanceof SCMNavigatorOwner) {
+                putNavigators((SCMNavigatorOwner) item, repoOwners);
+            }
+        }
+    }
+
+    /**
+     * Drops an item from the index.
+     *
+     * @param item the item.
+     */
+    synchronized void remove(@NonNull Item item) {
+        Set<String> previous = keys.remove(item);
+        if (previous != null) {
+            for (String key : previous) {
+                Map<SCMSourceOwner, Set<String>> matches = owners.get(key);
+                if (matches != null) {
+                    matches.remove(item);
+                    if (matches.isEmpty()) {
+                        owners.remove(key);
+                    }
+                }
+            }
+        }
+        previous = navigatorKeys.remove(item);
+        if (previous != null) {
+            for (String key : previous) {
+                Set<SCMNavigatorOwner> matches = navigatorOwners.get(key);
+                if (matches != null) {
+                    matches.remove(item);
+                    if (matches.isEmpty()) {
+                        navigatorOwners.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    private void put(SCMSourceOwner owner, Map<String, Set<String>> repositories) {
+        if (repositories.isEmpty()) {
+            return;
+        }
+        keys.put(owner, new HashSet<>(repositories.keySet()));
+        for (Map.Entry<String, Set<String>> entry : repositories.entrySet()) {
+            Map<SCMSourceOwner, Set<String>> matches = owners.get(entry.getKey());
+            if (matches == null) {
+                matches = new HashMap<>();
+                owners.put(entry.getKey(), matches);
+            }
+            matches.put(owner, entry.getValue());
+        }
+    }
+
+    private void putNavigators(SCMNavigatorOwner owner, Set<String> repoOwners) {
+        if (repoOwners.isEmpty()) {
+            return;
+        }
+        navigatorKeys.put(owner, repoOwners);
+        for (String key : repoOwners) {
+            Set<SCMNavigatorOwner> matches = navigatorOwners.get(key);
+            if (matches == null) {
+                matches = new HashSet<>();
+                navigatorOwners.put(key, matches);
+            }
+            matches.add(owner);
+        }
+    }
+
+    private void ensureLoaded() {
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+        }
+        SecurityContext old = ACL.impersonate(ACL.SYSTEM);
+        try {
+            rebuild(Jenkins.getActiveInstance().getAllItems(Item.class));
+        } finally {
+            SecurityContextHolder.setContext(old);
+        }
+    }
+
+    private static Map<String, Set<String>> repositoriesOf(SCMSourceOwner owner) {
+        Map<String, Set<String>> result = new HashMap<>();
+        for (SCMSource source : owner.getSCMSources()) {
+            if (source instanceof BitbucketSCMSource) {
+                BitbucketSCMSource bitbucketSource = (BitbucketSCMSource) source;
+                String key = key(bitbucketSource.getRepoOwner(), bitbucketSource.getRepository());
+                Set<String> serverUrls = result.get(key);
+                if (serverUrls == null) {
+                    serverUrls = new HashSet<>();
+                    result.put(key, serverUrls);
+                }
+                serverUrls.add(BitbucketEndpointConfiguration.normalizeServerUrl(bitbucketSource.getServerUrl()));
+            }
+        }
+        return result;
+    }
+
+    private static Set<String> repoOwnersOf(SCMNavigatorOwner owner) {
+        Set<String> result = new HashSet<>();
+        for (SCMNavigator navigator : owner.getSCMNavigators()) {
+            if (navigator instanceof BitbucketSCMNavigator) {
+                result.add(((BitbucketSCMNavigator) navigator).getRepoOwner().toLowerCase(Locale.ENGLISH));
+            }
+        }
+        return result;
+    }
+
+    private static String key(String repoOwner, String repository) {
+        return repoOwner.toLowerCase(Locale.ENGLISH) + '/' + repository.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Keeps the index up to date as items are loaded, created, updated and deleted.
+     */
+    @Extension
+    @Restricted(NoExternalUse.class)
+    public static class ItemListenerImpl extends ItemListener {
+
+        @Override
+        public void onLoaded() {
+            get().rebuild(Jenkins.getActiveInstance().getAllItems(Item.class));
+        }
+
+        @Override
+        public void onCreated(Item item) {
+            if (item instanceof SCMSourceOwner || item instanceof SCMNavigatorOwner) {
+                get().update(item);
+            }
+        }
+
+        @Override
+        public void onUpdated(Item item) {
+            if (item instanceof SCMSourceOwner || item instanceof SCMNavigatorOwner) {
+                get().update(item);
+            }
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            if (item instanceof SCMSourceOwner || item instanceof SCMNavigatorOwner) {
+                get().remove(item);
+            }
+        }
+    }
+
+    /**
+     * Picks up source changes that are saved without an item update event, such as the sources an organization
+     * folder assigns to its children.
+     */
+    @Extension
+    @Restricted(NoExternalUse.class)
+    public static class SaveableListenerImpl extends SaveableListener {
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof SCMSourceOwner || o instanceof SCMNavigatorOwner) {
+                get().update((Item) o);
+            }
+        }
+    }
+}
@@ -34,8 +34,10 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.google.common.base.Charsets;
 import jenkins.scm.api.SCMEvent;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.kohsuke.stapler.HttpResponse;
 import org.kohsuke.stapler.StaplerRequest;
 
@@ -62,6 +64,12 @@ public class BitbucketSCMSourcePushHookReceiver extends CrumbExclusion implement
 
     public static final String FULL_PATH = PATH + "/notify";
 
+    /**
+     * The largest payload accepted, in bytes.
+     */
+    private static final int MAX_PAYLOAD_SIZE =
+            Integer.getInteger(BitbucketSCMSourcePushHookReceiver.class.getName() + ".maxPayloadSize", 10 * 1024 * 1024);
+
     @Override
     public boolean process(HttpServletRequest req, HttpServletResponse resp, FilterChain chain)
     throws IOException, ServletException {
@@ -83,12 +91,21 @@ public class BitbucketSCMSourcePushHookReceiver extends CrumbExclusion implement
      *
      * @param req Stapler request. It contains the payload in the body content
      *          and a header param "X-Event-Key" pointing to the event type.
-     * @return the HTTP response object
+     * @return the HTTP response object, {@code 202} once the hook is queued for processing, {@code 200} if no source
+     *         or navigator is configured for the repository, {@code 413} if the payload is too large or {@code 503}
+     *         if too many hooks are already waiting.
      * @throws IOException if there is any issue reading the HTTP content payload.
      */
     public HttpResponse doNotify(StaplerRequest req) throws IOException {
         String origin = SCMEvent.originOf(req);
-        String body = IOUtils.toString(req.getInputStream());
+        if (req.getContentLength() > MAX_PAYLOAD_SIZE) {
+            return payloadTooLarge();
+        }
+        byte[] content = IOUtils.toByteArray(new BoundedInputStream(req.getInputStream(), MAX_PAYLOAD_SIZE + 1L));
+        if (content.length > MAX_PAYLOAD_SIZE) {
+            return payloadTooLarge();
+        }
+        String body = new String(content, Charsets.UTF_8);
         String eventKey = req.getHeader("X-Event-Key");
         if (eventKey == null) {
             return HttpResponses.error(HttpServletResponse.SC_BAD_REQUEST, "X-Event-Key HTTP header not found");
@@ -108,13 +125,80 @@ public class BitbucketSCMSourcePushHookReceiver extends CrumbExclusion implement
             LOGGER.log(Level.FINE, "X-Bitbucket-Type header not found. Bitbucket Cloud webhook incoming.");
             instanceType = BitbucketType.CLOUD;
         }
+        WebhookMetrics.get().received(type, instanceType, content.length);
+
+        WebhookPayloadIdentity identity = WebhookPayloadIdentity.of(body);
+        if (identity != null
+                && !BitbucketSCMSourceIndex.get().isRelevant(identity.getOwner(), identity.getRepository())) {
+            LOGGER.log(Level.FINE, "Ignoring Bitbucket hook for {0}/{1}: no source or navigator is configured for it",
+                    new Object[]{identity.getOwner(), identity.getRepository()});
+            return HttpResponses.ok();
+        }
+
+        WebhookJournal journal = WebhookJournal.get();
+        long journalId = journal == null ? -1L : journal.append(type, body, instanceType, origin);
+        if (!WebhookProcessingQueue.get().submit(new Processing(type, body, instanceType, origin, journalId))) {
+            if (journal != null) {
+                // the sender is told to retry, so there is nothing to replay
+                journal.markProcessed(journalId);
+            }
+            return HttpResponses.error(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    "Too many webhooks waiting to be processed, try again later");
+        }
+        return HttpResponses.status(HttpServletResponse.SC_ACCEPTED);
+    }
+
+    private static HttpResponse payloadTooLarge() {
+        LOGGER.log(Level.WARNING, "Rejected Bitbucket hook larger than {0} bytes", MAX_PAYLOAD_SIZE);
+        return HttpResponses.error(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+                "Payload larger than " + MAX_PAYLOAD_SIZE + " bytes");
+    }
+
+    /**
+     * The processing of a received webhook, run by the {@link WebhookProcessingQueue}.
+     */
+    static class Processing implements Runnable {
+        private final HookEventType type;
+        private final String body;
+        private final BitbucketType instanceType;
+        private final String origin;
+        private final long journalId;
+
+        Processing(HookEventType type, String body, BitbucketType instanceType, String origin, long journalId) {
+            this.type = type;
+            this.body = body;
+            this.instanceType = instanceType;
+            this.origin = origin;
+            this.journalId = journalId;
+        }
 
-        try {
-            type.getProcessor().process(type, body, instanceType, origin);
-        } catch (AbstractMethodError e) {
-            type.getProcessor().process(body, instanceType);
+        @Override
+        public void run() {
+            // the events are fired once their coalescing window closes, only then can the webhook be forgotten
+            HookEventCoalescer.get().process(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        type.getProcessor().process(type, body, instanceType, origin);
+                    } catch (AbstractMethodError e) {
+                        type.getProcessor().process(body, instanceType);
+                    }
+                }
+            }, new HookEventCoalescer.Completion() {
+                @Override
+                public void completed(boolean success) {
+                    WebhookJournal journal = WebhookJournal.get();
+                    if (journal == null) {
+                        return;
+                    }
+                    if (success) {
+                        journal.markProcessed(journalId);
+                    } else {
+                        journal.markFailed(journalId);
+                    }
+                }
+            });
         }
-        return HttpResponses.ok();
     }
 
     @Override
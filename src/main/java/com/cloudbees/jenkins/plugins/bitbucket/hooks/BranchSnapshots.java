@@ -0,0 +1,155 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.hooks;
+
+import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketPushEvent;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The last known branch heads of the repositories that sent a push without a change list, so that the next such
+ * push can be turned into the branch changes since then instead of a reindex of every source of the repository.
+ *
+ * @since 2.2.13
+ */
+final class BranchSnapshots {
+
+    /**
+     * The maximum number of repositories to remember the branches of.
+     */
+    private static final int MAX_REPOSITORIES =
+            Integer.getInteger(BranchSnapshots.class.getName() + ".maxRepositories", 1000);
+
+    private static final BranchSnapshots INSTANCE = new BranchSnapshots(MAX_REPOSITORIES);
+
+    private final Map<String, Map<String, String>> snapshots;
+
+    BranchSnapshots(final int maxRepositories) {
+        this.snapshots = new LinkedHashMap<String, Map<String, String>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, String>> eldest) {
+                return size() > maxRepositories;
+            }
+        };
+    }
+
+    @NonNull
+    static BranchSnapshots get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records the current branch heads of a repository.
+     *
+     * @param repository the repository key.
+     * @param heads      branch name to head hash.
+     * @return the changes since the previous snapshot or {@code null} if there was no previous snapshot.
+     */
+    @CheckForNull
+    synchronized List<BranchChange> replace(@NonNull String repository, @NonNull Map<String, String> heads) {
+        Map<String, String> previous = snapshots.put(repository, new HashMap<>(heads));
+        if (previous == null) {
+            return null;
+        }
+        List<BranchChange> changes = new ArrayList<>();
+        TreeSet<String> names = new TreeSet<>(previous.keySet());
+        names.addAll(heads.keySet());
+        for (String name : names) {
+            String oldHash = previous.get(name);
+            String newHash = heads.get(name);
+            if (oldHash == null || newHash == null || !oldHash.equals(newHash)) {
+                changes.add(new BranchChange(name, oldHash, newHash));
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Applies the branch changes of a push to the snapshot of the repository, if there is one.
+     *
+     * @param repository the repository key.
+     * @param changes    the changes of the push.
+     */
+    synchronized void apply(@NonNull String repository, @NonNull List<? extends BitbucketPushEvent.Change> changes) {
+        Map<String, String> heads = snapshots.get(repository);
+        if (heads == null) {
+            return;
+        }
+        for (BitbucketPushEvent.Change change : changes) {
+            if (change.isClosed() || change.getNew() == null) {
+                if (isBranch(change.getOld())) {
+                    heads.remove(change.getOld().getName());
+                }
+            } else if (isBranch(change.getNew()) && change.getNew().getTarget() != null) {
+                heads.put(change.getNew().getName(), change.getNew().getTarget().getHash());
+            }
+        }
+    }
+
+    private static boolean isBranch(@CheckForNull BitbucketPushEvent.Reference ref) {
+        return ref != null && "branch".equalsIgnoreCase(ref.getType());
+    }
+
+    /**
+     * A change of a branch between two snapshots.
+     */
+    static final class BranchChange {
+        private final String name;
+        private final String oldHash;
+        private final String newHash;
+
+        BranchChange(@NonNull String name, @CheckForNull String oldHash, @CheckForNull String newHash) {
+            this.name = name;
+            this.oldHash = oldHash;
+            this.newHash = newHash;
+        }
+
+        @NonNull
+        String getName() {
+            return name;
+        }
+
+        /**
+         * @return the previous head or {@code null} if the branch was created.
+         */
+        @CheckForNull
+        String getOldHash() {
+            return oldHash;
+        }
+
+        /**
+         * @return the current head or {@code null} if the branch was deleted.
+         */
+        @CheckForNull
+        String getNewHash() {
+            return newHash;
+        }
+    }
+}
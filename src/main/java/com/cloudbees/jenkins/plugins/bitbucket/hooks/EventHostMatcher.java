@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.hooks;
+
+import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketHref;
+import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketRepository;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Matches the server URL of a source or navigator against the hosts of the {@code self} links of the repository in
+ * a Bitbucket Server event.
+ *
+ * The event hosts are parsed once when the event is created and the host of each server URL is parsed once and
+ * then cached, so matching an event against many sources does not parse any URI.
+ */
+final class EventHostMatcher {
+
+    /**
+     * Host keys are cached per server URL, there are only as many server URLs as configured endpoints and sources.
+     */
+    private static final int MAX_CACHED_SERVER_URLS = 1000;
+
+    private static final String NO_HOST = "";
+
+    private static final ConcurrentMap<String, String> SERVER_URL_HOSTS = new ConcurrentHashMap<>();
+
+    /**
+     * The lowercase hosts of the {@code self} links or {@code null} if the repository has no {@code self} link.
+     */
+    @CheckForNull
+    private final Set<String> hosts;
+
+    private EventHostMatcher(@CheckForNull Set<String> hosts) {
+        this.hosts = hosts;
+    }
+
+    /**
+     * Parses the hosts of the {@code self} links of an event repository.
+     *
+     * @param repository the repository from the event payload.
+     * @return the matcher.
+     */
+    @NonNull
+    static EventHostMatcher of(@NonNull BitbucketRepository repository) {
+        Map<String, List<BitbucketHref>> links = repository.getLinks();
+        if (links == null || !links.containsKey("self")) {
+            return new EventHostMatcher(null);
+        }
+        Set<String> hosts = new HashSet<>();
+        for (BitbucketHref link : links.get("self")) {
+            String host = hostOf(link.getHref());
+            if (host != null) {
+                hosts.add(host);
+            }
+        }
+        return new EventHostMatcher(hosts);
+    }
+
+    /**
+     * Checks whether a Bitbucket Server URL is on one of the hosts of the event.
+     *
+     * @param serverUrl the server URL of a source or navigator.
+     * @return {@code true} if the server URL matches or the event does not say which host it comes from.
+     */
+    boolean matches(@NonNull String serverUrl) {
+        if (hosts == null) {
+            return true;
+        }
+        String host = SERVER_URL_HOSTS.get(serverUrl);
+        if (host == null) {
+            if (SERVER_URL_HOSTS.size() >= MAX_CACHED_SERVER_URLS) {
+                SERVER_URL_HOSTS.clear();
+            }
+            host = hostOf(serverUrl);
+            if (host == null) {
+                host = NO_HOST;
+            }
+            SERVER_URL_HOSTS.put(serverUrl, host);
+        }
+        // NO_HOST is never among the event hosts
+        return hosts.contains(host);
+    }
+
+    @CheckForNull
+    private static String hostOf(@CheckForNull String url) {
+        if (url == null) {
+            return null;
+        }
+        try {
+            String host = new URI(url).getHost();
+            return host == null ? null : host.toLowerCase(Locale.ENGLISH);
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.hooks;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.Timer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Merges the webhook events that concern the same repository and head and arrive within a short quiet window, so
+ * that a burst of deliveries (a bot updating a pull request over and over, repeated force pushes) results in a
+ * single event carrying the latest state.
+ *
+ * The first event for a key starts the window; later events for the same key replace the pending one and the
+ * latest is fired when the window closes.
+ *
+ * The processing of a webhook is run through {@link #process(Runnable, Completion)} to learn when all the events it
+ * submitted have actually fired, as they fire after the processing returns.
+ *
+ * @since 2.2.13
+ */
+@Restricted(NoExternalUse.class)
+public final class HookEventCoalescer {
+
+    private static final Logger LOGGER = Logger.getLogger(HookEventCoalescer.class.getName());
+
+    /**
+     * The quiet window in milliseconds, {@code 0} disables coalescing.
+     */
+    private static final long WINDOW_MILLIS = Long.getLong(HookEventCoalescer.class.getName() + ".windowMillis", 2000L);
+
+    private static final HookEventCoalescer INSTANCE = new HookEventCoalescer(WINDOW_MILLIS, null);
+
+    private final long windowMillis;
+
+    @CheckForNull
+    private final ScheduledExecutorService executor;
+
+    /**
+     * The processing submitting events on the current thread, if any.
+     */
+    private static final ThreadLocal<Processing> CURRENT = new ThreadLocal<>();
+
+    private final Map<String, Pending> pending = new HashMap<>();
+
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param windowMillis the quiet window in milliseconds.
+     * @param executor     the executor to fire events from or {@code null} to use the shared {@link Timer}.
+     */
+    HookEventCoalescer(long windowMillis, @CheckForNull ScheduledExecutorService executor) {
+        this.windowMillis = windowMillis;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the coalescer used by the hook processors.
+     *
+     * @return the coalescer used by the hook processors.
+     */
+    @NonNull
+    public static HookEventCoalescer get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Runs the processing of a webhook, calling back once the processing and every event it submitted completed,
+     * whether they succeeded or not. An event replaced by a later one counts as completed when the later one fires.
+     *
+     * @param processing the processing, submitting its events from the calling thread.
+     * @param completion called once the processing and all its events completed.
+     */
+    public void process(@NonNull Runnable processing, @NonNull Completion completion) {
+        Processing current = new Processing(completion);
+        Processing outer = CURRENT.get();
+        CURRENT.set(current);
+        boolean success = false;
+        try {
+            processing.run();
+            success = true;
+        } finally {
+            if (outer == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(outer);
+            }
+            current.completed(success);
+        }
+    }
+
+    /**
+     * Submits an event, firing it once the quiet window of its key closes unless a later event with the same key
+     * replaces it in the meantime.
+     *
+     * @param key   identifies the repository and head the event is about.
+     * @param event fires the event.
+     */
+    public void submit(@NonNull final String key, @NonNull Runnable event) {
+        if (windowMillis <= 0) {
+            event.run();
+            return;
+        }
+        Processing processing = CURRENT.get();
+        if (processing != null) {
+            processing.submitted();
+        }
+        synchronized (pending) {
+            Pending previous = pending.get(key);
+            Pending latest = new Pending(event, previous == null ? null : previous.processings, processing);
+            pending.put(key, latest);
+            if (previous != null) {
+                coalesced.incrementAndGet();
+                LOGGER.log(Level.FINE, "Coalesced webhook event for {0}", key);
+                return;
+            }
+        }
+        ScheduledExecutorService executor = this.executor == null ? Timer.get() : this.executor;
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                Pending latest;
+                synchronized (pending) {
+                    latest = pending.remove(key);
+                }
+                if (latest != null) {
+                    boolean success = false;
+                    try {
+                        latest.event.run();
+                        success = true;
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.WARNING, "Could not fire webhook event for " + key, e);
+                    } finally {
+                        for (Processing processing : latest.processings) {
+                            processing.completed(success);
+                        }
+                    }
+                }
+            }
+        }, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the number of events waiting for their quiet window to close.
+     *
+     * @return the number of events waiting for their quiet window to close.
+     */
+    public int getPendingCount() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Returns the number of events that were replaced by a later one since startup.
+     *
+     * @return the number of events that were replaced by a later one since startup.
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * Called back once the processing of a webhook and all its events completed.
+     */
+    public interface Completion {
+        /**
+         * Called once the processing of a webhook and all its events completed.
+         *
+         * @param success {@code false} if the processing or any of its events failed.
+         */
+        void completed(boolean success);
+    }
+
+    /**
+     * An event waiting for its quiet window to close, with the processings that submitted it or the events it
+     * replaced.
+     */
+    private static final class Pending {
+        private final Runnable event;
+        private final List<Processing> processings = new ArrayList<>();
+
+        Pending(Runnable event, @CheckForNull List<Processing> replaced, @CheckForNull Processing processing) {
+            this.event = event;
+            if (replaced != null) {
+                processings.addAll(replaced);
+            }
+            if (processing != null) {
+                processings.add(processing);
+            }
+        }
+    }
+
+    /**
+     * Tracks the completion of the processing of a webhook and of the events it submitted.
+     */
+    private static final class Processing {
+        private final Completion completion;
+        /**
+         * The processing itself plus the events submitted and not fired yet.
+         */
+        private final AtomicInteger outstanding = new AtomicInteger(1);
+        private final AtomicBoolean failed = new AtomicBoolean();
+
+        Processing(Completion completion) {
+            this.completion = completion;
+        }
+
+        void submitted() {
+            outstanding.incrementAndGet();
+        }
+
+        void completed(boolean success) {
+            if (!success) {
+                failed.set(true);
+            }
+            if (outstanding.decrementAndGet() == 0) {
+                completion.completed(!failed.get());
+            }
+        }
+    }
+}
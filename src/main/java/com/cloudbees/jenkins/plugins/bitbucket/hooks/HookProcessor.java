@@ -24,13 +24,18 @@
 package com.cloudbees.jenkins.plugins.bitbucket.hooks;
 
 import com.cloudbees.jenkins.plugins.bitbucket.BitbucketSCMSource;
+import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketHref;
+import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketRepository;
+import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.security.ACL;
 import jenkins.scm.api.SCMEvent;
+import jenkins.scm.api.SCMHeadEvent;
 import jenkins.scm.api.SCMSource;
 import jenkins.scm.api.SCMSourceOwner;
-import jenkins.scm.api.SCMSourceOwners;
 
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.kohsuke.accmod.Restricted;
@@ -72,6 +77,49 @@ public abstract class HookProcessor {
      */
     public abstract void process(HookEventType type, String payload, BitbucketType instanceType, String origin);
 
+    /**
+     * Fires the event once the quiet window for its key closes, unless a later event with the same key replaces it.
+     *
+     * @param key          identifies the repository and head the event is about, see {@link #repositoryKey}.
+     * @param event        the event.
+     * @param type         the type of hook the event comes from.
+     * @param instanceType the Bitbucket type that called the hook.
+     */
+    protected void fireCoalesced(@NonNull String key, @NonNull final SCMHeadEvent<?> event,
+                                 @NonNull final HookEventType type, @NonNull final BitbucketType instanceType) {
+        HookEventCoalescer.get().submit(key, new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                try {
+                    SCMHeadEvent.fireNow(event);
+                } finally {
+                    WebhookMetrics.get().enqueued(type, instanceType, System.nanoTime() - start);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns a key identifying a repository of a Bitbucket instance, to build coalescing keys from.
+     *
+     * @param instanceType the Bitbucket type that called the hook.
+     * @param repository   the repository from the hook payload.
+     * @return the key.
+     */
+    @NonNull
+    protected static String repositoryKey(@NonNull BitbucketType instanceType,
+                                          @NonNull BitbucketRepository repository) {
+        StringBuilder key = new StringBuilder(instanceType.name());
+        Map<String, List<BitbucketHref>> links = repository.getLinks();
+        if (links != null && links.containsKey("self") && !links.get("self").isEmpty()) {
+            // distinguishes the Bitbucket Server instances
+            key.append(':').append(links.get("self").get(0).getHref());
+        }
+        key.append(':').append(String.valueOf(repository.getFullName()).toLowerCase(Locale.ENGLISH));
+        return key.toString();
+    }
+
     /**
      * To be called by implementations once the owner and the repository have been extracted from the payload.
      * 
@@ -83,7 +131,7 @@ public abstract class HookProcessor {
             @Override 
             public void run() {
                 boolean reindexed = false;
-                for (SCMSourceOwner scmOwner : SCMSourceOwners.all()) {
+                for (SCMSourceOwner scmOwner : BitbucketSCMSourceIndex.get().findOwners(null, owner, repository)) {
                     List<SCMSource> sources = scmOwner.getSCMSources();
                     for (SCMSource source : sources) {
                         // Search for the correct SCM source
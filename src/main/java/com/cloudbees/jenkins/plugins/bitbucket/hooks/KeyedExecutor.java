@@ -0,0 +1,154 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.hooks;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs tasks in parallel on a delegate executor while keeping the tasks that share a key in submission order, one
+ * at a time.
+ *
+ * A task submitted with the same operation key as a task that is still waiting replaces the waiting one in place,
+ * so repeated requests for the same operation run once, with the latest request.
+ *
+ * @since 2.2.13
+ */
+final class KeyedExecutor {
+
+    private static final Logger LOGGER = Logger.getLogger(KeyedExecutor.class.getName());
+
+    private final Executor delegate;
+
+    /**
+     * Key to the tasks waiting for that key. A key is present as long as one of its tasks is waiting or running.
+     */
+    private final Map<String, Deque<Operation>> queues = new HashMap<>();
+
+    /**
+     * Operation key to the waiting task of that operation.
+     */
+    private final Map<String, Operation> waiting = new HashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param delegate the executor to run tasks on, its parallelism bounds the number of keys processed at once.
+     */
+    KeyedExecutor(@NonNull Executor delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Submits a task.
+     *
+     * @param key       the tasks with the same key run in submission order, one at a time.
+     * @param operation identifies what the task does, a waiting task with the same operation key is replaced.
+     * @param task      the task.
+     */
+    void submit(@NonNull String key, @NonNull String operation, @NonNull Runnable task) {
+        synchronized (this) {
+            Operation existing = waiting.get(operation);
+            if (existing != null) {
+                existing.task = task;
+                LOGGER.log(Level.FINE, "Collapsed queued operation {0}", operation);
+                return;
+            }
+            Operation op = new Operation(operation, task);
+            waiting.put(operation, op);
+            Deque<Operation> queue = queues.get(key);
+            if (queue != null) {
+                // a task for this key is running or scheduled, it will pick this one up
+                queue.add(op);
+                return;
+            }
+            queue = new ArrayDeque<>();
+            queue.add(op);
+            queues.put(key, queue);
+        }
+        schedule(key);
+    }
+
+    /**
+     * Returns the number of tasks waiting to run.
+     *
+     * @return the number of tasks waiting to run.
+     */
+    synchronized int getWaitingCount() {
+        return waiting.size();
+    }
+
+    private void schedule(final String key) {
+        delegate.execute(new Runnable() {
+            @Override
+            public void run() {
+                runNext(key);
+            }
+        });
+    }
+
+    private void runNext(String key) {
+        Runnable task;
+        synchronized (this) {
+            Operation op = queues.get(key).peek();
+            waiting.remove(op.operation);
+            task = op.task;
+        }
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Operation failed", e);
+        } finally {
+            boolean more;
+            synchronized (this) {
+                Deque<Operation> queue = queues.get(key);
+                queue.poll();
+                more = !queue.isEmpty();
+                if (!more) {
+                    queues.remove(key);
+                }
+            }
+            if (more) {
+                // go back to the end of the delegate queue so that busy keys do not starve the others
+                schedule(key);
+            }
+        }
+    }
+
+    private static final class Operation {
+        private final String operation;
+        private Runnable task;
+
+        Operation(String operation, Runnable task) {
+            this.operation = operation;
+            this.task = task;
+        }
+    }
+}
@@ -29,7 +29,6 @@ import com.cloudbees.jenkins.plugins.bitbucket.BitbucketSCMSourceContext;
 import com.cloudbees.jenkins.plugins.bitbucket.PullRequestSCMHead;
 import com.cloudbees.jenkins.plugins.bitbucket.PullRequestSCMRevision;
 import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketApi;
-import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketHref;
 import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketPullRequest;
 import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketPullRequestEvent;
 import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketRepositoryType;
@@ -41,11 +40,8 @@ import com.cloudbees.jenkins.plugins.bitbucket.server.client.BitbucketServerWebh
 import com.cloudbees.jenkins.plugins.bitbucket.server.events.BitbucketServerPullRequestEvent;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.scm.SCM;
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
@@ -72,12 +68,14 @@ public class PullRequestHookProcessor extends HookProcessor {
     @Override
     public void process(final HookEventType hookEvent, String payload, final BitbucketType instanceType, String origin) {
         if (payload != null) {
+            long start = System.nanoTime();
             BitbucketPullRequestEvent pull;
             if (instanceType == BitbucketType.SERVER) {
                 pull = BitbucketServerWebhookPayload.pullRequestEventFromPayload(payload);
             } else {
                 pull = BitbucketCloudWebhookPayload.pullRequestEventFromPayload(payload);
             }
+            WebhookMetrics.get().parsed(hookEvent, instanceType, System.nanoTime() - start);
             if (pull != null) {
                 SCMEvent.Type eventType;
                 switch (hookEvent) {
@@ -93,7 +91,13 @@ public class PullRequestHookProcessor extends HookProcessor {
                         break;
                 }
                 // assume updated as a catch-all type
-                SCMHeadEvent.fireNow(new SCMHeadEvent<BitbucketPullRequestEvent>(eventType, pull, origin) {
+
+                // the latest event of a pull request wins, whatever its type
+                String key = repositoryKey(instanceType, pull.getRepository())
+                        + ":pr:" + pull.getPullRequest().getId();
+                fireCoalesced(key, new SCMHeadEvent<BitbucketPullRequestEvent>(eventType, pull, origin) {
+                    private final EventHostMatcher hosts = EventHostMatcher.of(getPayload().getRepository());
+
                     @Override
                     public boolean isMatch(@NonNull SCMNavigator navigator) {
                         if (!(navigator instanceof BitbucketSCMNavigator)) {
@@ -117,23 +121,7 @@ public class PullRequestHookProcessor extends HookProcessor {
                             if (getPayload() instanceof BitbucketCloudPullRequestEvent) {
                                 return false;
                             }
-                            Map<String, List<BitbucketHref>> links = getPayload().getRepository().getLinks();
-                            if (links != null && links.containsKey("self")) {
-                                boolean matches = false;
-                                for (BitbucketHref link: links.get("self")) {
-                                    try {
-                                        URI navUri = new URI(serverUrl);
-                                        URI evtUri = new URI(link.getHref());
-                                        if (navUri.getHost().equalsIgnoreCase(evtUri.getHost())) {
-                                            matches = true;
-                                            break;
-                                        }
-                                    } catch (URISyntaxException e) {
-                                        // ignore
-                                    }
-                                }
-                                return matches;
-                            }
+                            return hosts.matches(serverUrl);
                         }
                         return true;
                     }
@@ -147,6 +135,16 @@ public class PullRequestHookProcessor extends HookProcessor {
                     @NonNull
                     @Override
                     public Map<SCMHead, SCMRevision> heads(@NonNull SCMSource source) {
+                        long start = System.nanoTime();
+                        try {
+                            return match(source);
+                        } finally {
+                            WebhookMetrics.get().matched(hookEvent, instanceType, System.nanoTime() - start);
+                        }
+                    }
+
+                    @NonNull
+                    private Map<SCMHead, SCMRevision> match(@NonNull SCMSource source) {
                         if (!(source instanceof BitbucketSCMSource)) {
                             return Collections.emptyMap();
                         }
@@ -261,7 +259,7 @@ public class PullRequestHookProcessor extends HookProcessor {
                         // TODO
                         return false;
                     }
-                });
+                }, hookEvent, instanceType);
             }
         }
     }
@@ -26,18 +26,22 @@ package com.cloudbees.jenkins.plugins.bitbucket.hooks;
 import com.cloudbees.jenkins.plugins.bitbucket.BitbucketSCMNavigator;
 import com.cloudbees.jenkins.plugins.bitbucket.BitbucketSCMSource;
 import com.cloudbees.jenkins.plugins.bitbucket.BranchSCMHead;
-import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketHref;
+import com.cloudbees.jenkins.plugins.bitbucket.TagDiscoveryTrait;
+import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketBranch;
 import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketPushEvent;
+import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketRepository;
 import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketRepositoryType;
 import com.cloudbees.jenkins.plugins.bitbucket.client.BitbucketCloudWebhookPayload;
 import com.cloudbees.jenkins.plugins.bitbucket.client.events.BitbucketCloudPushEvent;
 import com.cloudbees.jenkins.plugins.bitbucket.endpoints.BitbucketCloudEndpoint;
 import com.cloudbees.jenkins.plugins.bitbucket.server.client.BitbucketServerWebhookPayload;
 import com.cloudbees.jenkins.plugins.bitbucket.server.events.BitbucketServerPushEvent;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.scm.SCM;
-import java.net.URI;
-import java.net.URISyntaxException;
+import hudson.security.ACL;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -51,142 +55,296 @@ import jenkins.scm.api.SCMHeadEvent;
 import jenkins.scm.api.SCMNavigator;
 import jenkins.scm.api.SCMRevision;
 import jenkins.scm.api.SCMSource;
+import jenkins.scm.api.SCMSourceOwner;
+import jenkins.scm.api.trait.SCMSourceTrait;
 
 public class PushHookProcessor extends HookProcessor {
 
     private static final Logger LOGGER = Logger.getLogger(PushHookProcessor.class.getName());
 
+    /**
+     * Returns the coalescing key of a change: the ref it changes in the repository, whatever the type of change, so
+     * that the latest change of a ref wins.
+     */
+    private static String changeKey(BitbucketType instanceType, BitbucketPushEvent push,
+                                    BitbucketPushEvent.Change change) {
+        BitbucketPushEvent.Reference ref = change.getNew() != null ? change.getNew() : change.getOld();
+        return repositoryKey(instanceType, push.getRepository()) + ":ref:" + ref.getType() + "/" + ref.getName();
+    }
+
+    /**
+     * Fills in the change list of a push that came without one from the branch changes since the previous such
+     * push, listing the branches of the repository with the client of one of the sources using it. Only branches
+     * are compared, so the sources are reindexed instead when any of them discovers tags.
+     *
+     * @return {@code true} if the changes were derived, {@code false} if the sources should be reindexed instead.
+     */
+    private static boolean deriveChanges(BitbucketType instanceType, BitbucketPushEvent push, String repositoryKey) {
+        List<BitbucketSCMSource> sources = findSources(instanceType, push.getRepository());
+        if (sources.isEmpty()) {
+            return false;
+        }
+        for (BitbucketSCMSource source : sources) {
+            for (SCMSourceTrait trait : source.getTraits()) {
+                if (trait instanceof TagDiscoveryTrait) {
+                    // the push may have only moved tags
+                    return false;
+                }
+            }
+        }
+        BitbucketSCMSource source = sources.get(0);
+        Map<String, String> heads = new HashMap<>();
+        try {
+            for (BitbucketBranch branch : source.buildBitbucketClient().getBranches()) {
+                heads.put(branch.getName(), branch.getRawNode());
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Could not list the branches of " + push.getRepository().getFullName(), e);
+            return false;
+        }
+        List<BranchSnapshots.BranchChange> changes = BranchSnapshots.get().replace(repositoryKey, heads);
+        if (changes == null) {
+            // nothing to compare with on the first push without changes
+            return false;
+        }
+        if (push instanceof BitbucketServerPushEvent) {
+            List<BitbucketServerPushEvent.ChangeImpl> serverChanges = new ArrayList<>();
+            for (BranchSnapshots.BranchChange change : changes) {
+                BitbucketServerPushEvent.ChangeImpl serverChange = new BitbucketServerPushEvent.ChangeImpl();
+                serverChange.setOld(serverReference(change.getName(), change.getOldHash()));
+                serverChange.setNew(serverReference(change.getName(), change.getNewHash()));
+                serverChange.setCreated(change.getOldHash() == null);
+                serverChange.setClosed(change.getNewHash() == null);
+                serverChanges.add(serverChange);
+            }
+            ((BitbucketServerPushEvent) push).setChanges(serverChanges);
+        } else if (push instanceof BitbucketCloudPushEvent) {
+            List<BitbucketCloudPushEvent.ChangeImpl> cloudChanges = new ArrayList<>();
+            for (BranchSnapshots.BranchChange change : changes) {
+                BitbucketCloudPushEvent.ChangeImpl cloudChange = new BitbucketCloudPushEvent.ChangeImpl();
+                cloudChange.setOld(cloudReference(change.getName(), change.getOldHash()));
+                cloudChange.setNew(cloudReference(change.getName(), change.getNewHash()));
+                cloudChange.setCreated(change.getOldHash() == null);
+                cloudChange.setClosed(change.getNewHash() == null);
+                cloudChanges.add(cloudChange);
+            }
+            ((BitbucketCloudPushEvent) push).setChanges(cloudChanges);
+        } else {
+            return false;
+        }
+        LOGGER.log(Level.FINE, "Derived {0} branch changes for push event on {1}",
+                new Object[]{changes.size(), push.getRepository().getFullName()});
+        return true;
+    }
+
+    /**
+     * Returns the sources of the repository of an event.
+     */
+    @NonNull
+    private static List<BitbucketSCMSource> findSources(final BitbucketType instanceType,
+                                                        final BitbucketRepository repository) {
+        final List<BitbucketSCMSource> result = new ArrayList<>();
+        ACL.impersonate(ACL.SYSTEM, new Runnable() {
+            @Override
+            public void run() {
+                EventHostMatcher hosts = EventHostMatcher.of(repository);
+                for (SCMSourceOwner owner : BitbucketSCMSourceIndex.get()
+                        .findOwners(null, repository.getOwnerName(), repository.getRepositoryName())) {
+                    for (SCMSource source : owner.getSCMSources()) {
+                        if (!(source instanceof BitbucketSCMSource)) {
+                            continue;
+                        }
+                        BitbucketSCMSource src = (BitbucketSCMSource) source;
+                        boolean cloud = BitbucketCloudEndpoint.SERVER_URL.equals(src.getServerUrl());
+                        if ((instanceType == BitbucketType.CLOUD) == cloud
+                                && (cloud || hosts.matches(src.getServerUrl()))
+                                && src.getRepoOwner().equalsIgnoreCase(repository.getOwnerName())
+                                && src.getRepository().equalsIgnoreCase(repository.getRepositoryName())) {
+                            result.add(src);
+                        }
+                    }
+                }
+            }
+        });
+        return result;
+    }
+
+    @CheckForNull
+    private static BitbucketServerPushEvent.ReferenceImpl serverReference(String name, @CheckForNull String hash) {
+        if (hash == null) {
+            return null;
+        }
+        BitbucketServerPushEvent.TargetImpl target = new BitbucketServerPushEvent.TargetImpl();
+        target.setHash(hash);
+        BitbucketServerPushEvent.ReferenceImpl reference = new BitbucketServerPushEvent.ReferenceImpl();
+        reference.setType("branch");
+        reference.setName(name);
+        reference.setTarget(target);
+        return reference;
+    }
+
+    @CheckForNull
+    private static BitbucketCloudPushEvent.ReferenceImpl cloudReference(String name, @CheckForNull String hash) {
+        if (hash == null) {
+            return null;
+        }
+        BitbucketCloudPushEvent.TargetImpl target = new BitbucketCloudPushEvent.TargetImpl();
+        target.setHash(hash);
+        BitbucketCloudPushEvent.ReferenceImpl reference = new BitbucketCloudPushEvent.ReferenceImpl();
+        reference.setType("branch");
+        reference.setName(name);
+        reference.setTarget(target);
+        return reference;
+    }
+
     @Override
-    public void process(HookEventType hookEvent, String payload, BitbucketType instanceType, String origin) {
+    public void process(final HookEventType hookEvent, String payload, final BitbucketType instanceType,
+                        String origin) {
         if (payload != null) {
+            long start = System.nanoTime();
             BitbucketPushEvent push;
             if (instanceType == BitbucketType.SERVER) {
                 push = BitbucketServerWebhookPayload.pushEventFromPayload(payload);
             } else {
                 push = BitbucketCloudWebhookPayload.pushEventFromPayload(payload);
             }
+            WebhookMetrics.get().parsed(hookEvent, instanceType, System.nanoTime() - start);
             if (push != null) {
-                String owner = push.getRepository().getOwnerName();
+                final String owner = push.getRepository().getOwnerName();
                 final String repository = push.getRepository().getRepositoryName();
-                if (push.getChanges().isEmpty()) {
+                String repositoryKey = repositoryKey(instanceType, push.getRepository());
+                if (push.getChanges().isEmpty() && !deriveChanges(instanceType, push, repositoryKey)) {
                     LOGGER.log(Level.INFO, "Received hook from Bitbucket. Processing push event on {0}/{1}",
                             new Object[]{owner, repository});
-                    scmSourceReIndex(owner, repository);
+                    HookEventCoalescer.get().submit(repositoryKey + ":reindex",
+                            new Runnable() {
+                                @Override
+                                public void run() {
+                                    scmSourceReIndex(owner, repository);
+                                }
+                            });
+                } else if (push.getChanges().isEmpty()) {
+                    LOGGER.log(Level.FINE, "Push event on {0}/{1} did not change any branch",
+                            new Object[]{owner, repository});
                 } else {
-                    SCMHeadEvent.Type type = null;
-                    for (BitbucketPushEvent.Change change: push.getChanges()) {
-                        if ((type == null || type == SCMEvent.Type.CREATED) && change.isCreated()) {
-                            type = SCMEvent.Type.CREATED;
-                        } else if ((type == null || type == SCMEvent.Type.REMOVED) && change.isClosed()) {
-                            type = SCMEvent.Type.REMOVED;
-                        } else {
-                            type = SCMEvent.Type.UPDATED;
-                        }
+                    BranchSnapshots.get().apply(repositoryKey, push.getChanges());
+                    for (BitbucketPushEvent.Change change : push.getChanges()) {
+                        fireChange(hookEvent, instanceType, origin, push, change);
                     }
-                    SCMHeadEvent.fireNow(new SCMHeadEvent<BitbucketPushEvent>(type, push, origin) {
-                        @Override
-                        public boolean isMatch(@NonNull SCMNavigator navigator) {
-                            if (!(navigator instanceof BitbucketSCMNavigator)) {
-                                return false;
-                            }
-                            BitbucketSCMNavigator bbNav = (BitbucketSCMNavigator) navigator;
-                            if (!isServerUrlMatch(bbNav.getServerUrl())) {
-                                return false;
-                            }
-                            return bbNav.getRepoOwner().equalsIgnoreCase(getPayload().getRepository().getOwnerName());
-                        }
+                }
+            }
+        }
+    }
 
-                        private boolean isServerUrlMatch(String serverUrl) {
-                            if (serverUrl == null || BitbucketCloudEndpoint.SERVER_URL.equals(serverUrl)) {
-                                // this is a Bitbucket cloud navigator
-                                if (getPayload() instanceof BitbucketServerPushEvent) {
-                                    return false;
-                                }
-                            } else {
-                                // this is a Bitbucket server navigator
-                                if (getPayload() instanceof BitbucketCloudPushEvent) {
-                                    return false;
-                                }
-                                Map<String, List<BitbucketHref>> links = getPayload().getRepository().getLinks();
-                                if (links != null && links.containsKey("self")) {
-                                    boolean matches = false;
-                                    for (BitbucketHref link : links.get("self")) {
-                                        try {
-                                            URI navUri = new URI(serverUrl);
-                                            URI evtUri = new URI(link.getHref());
-                                            if (navUri.getHost().equalsIgnoreCase(evtUri.getHost())) {
-                                                matches = true;
-                                                break;
-                                            }
-                                        } catch (URISyntaxException e) {
-                                            // ignore
-                                        }
-                                    }
-                                    return matches;
-                                }
-                            }
-                            return true;
-                        }
+    /**
+     * Fires the event of one change of a push, coalesced with the later changes of the same ref.
+     */
+    private void fireChange(final HookEventType hookEvent, final BitbucketType instanceType, String origin,
+                            BitbucketPushEvent push, final BitbucketPushEvent.Change change) {
+        SCMEvent.Type type;
+        if (change.isCreated()) {
+            type = SCMEvent.Type.CREATED;
+        } else if (change.isClosed()) {
+            type = SCMEvent.Type.REMOVED;
+        } else {
+            type = SCMEvent.Type.UPDATED;
+        }
+        String key = changeKey(instanceType, push, change);
+        fireCoalesced(key, new SCMHeadEvent<BitbucketPushEvent>(type, push, origin) {
+            private final EventHostMatcher hosts = EventHostMatcher.of(getPayload().getRepository());
 
-                        @NonNull
-                        @Override
-                        public String getSourceName() {
-                            return getPayload().getRepository().getRepositoryName();
-                        }
+            @Override
+            public boolean isMatch(@NonNull SCMNavigator navigator) {
+                if (!(navigator instanceof BitbucketSCMNavigator)) {
+                    return false;
+                }
+                BitbucketSCMNavigator bbNav = (BitbucketSCMNavigator) navigator;
+                if (!isServerUrlMatch(bbNav.getServerUrl())) {
+                    return false;
+                }
+                return bbNav.getRepoOwner().equalsIgnoreCase(getPayload().getRepository().getOwnerName());
+            }
 
-                        @NonNull
-                        @Override
-                        public Map<SCMHead, SCMRevision> heads(@NonNull SCMSource source) {
-                            if (!(source instanceof BitbucketSCMSource)) {
-                                return Collections.emptyMap();
-                            }
-                            BitbucketSCMSource src = (BitbucketSCMSource) source;
-                            if (!isServerUrlMatch(src.getServerUrl())) {
-                                return Collections.emptyMap();
-                            }
-                            if (!src.getRepoOwner().equalsIgnoreCase(getPayload().getRepository().getOwnerName())) {
-                                return Collections.emptyMap();
-                            }
-                            if (!src.getRepository().equalsIgnoreCase(getPayload().getRepository().getRepositoryName())) {
-                                return Collections.emptyMap();
-                            }
-                            BitbucketRepositoryType type = BitbucketRepositoryType.fromString(
-                                    getPayload().getRepository().getScm());
-                            if (type == null) {
-                                LOGGER.log(Level.INFO, "Received event for unknown repository type: {0}",
-                                        getPayload().getRepository().getScm());
-                                return Collections.emptyMap();
-                            }
-                            Map<SCMHead, SCMRevision> result = new HashMap<>();
-                            for (BitbucketPushEvent.Change change: getPayload().getChanges()) {
-                                if (change.isClosed()) {
-                                    result.put(new BranchSCMHead(change.getOld().getName(), type), null);
-                                } else {
-                                    BranchSCMHead head = new BranchSCMHead(change.getNew().getName(), type);
-                                    switch (type) {
-                                        case GIT:
-                                            result.put(head, new AbstractGitSCMSource.SCMRevisionImpl(head, change.getNew().getTarget().getHash()));
-                                            break;
-                                        case MERCURIAL:
-                                            result.put(head, new BitbucketSCMSource.MercurialRevision(head, change.getNew().getTarget().getHash()));
-                                            break;
-                                        default:
-                                            LOGGER.log(Level.INFO, "Received event for unknown repository type: {0}", type);
-                                            break;
-                                    }
-                                }
-                            }
-                            return result;
-                        }
+            private boolean isServerUrlMatch(String serverUrl) {
+                if (serverUrl == null || BitbucketCloudEndpoint.SERVER_URL.equals(serverUrl)) {
+                    // this is a Bitbucket cloud navigator
+                    if (getPayload() instanceof BitbucketServerPushEvent) {
+                        return false;
+                    }
+                } else {
+                    // this is a Bitbucket server navigator
+                    if (getPayload() instanceof BitbucketCloudPushEvent) {
+                        return false;
+                    }
+                    return hosts.matches(serverUrl);
+                }
+                return true;
+            }
 
-                        @Override
-                        public boolean isMatch(@NonNull SCM scm) {
-                            // TODO
-                            return false;
-                        }
-                    });
+            @NonNull
+            @Override
+            public String getSourceName() {
+                return getPayload().getRepository().getRepositoryName();
+            }
+
+            @NonNull
+            @Override
+            public Map<SCMHead, SCMRevision> heads(@NonNull SCMSource source) {
+                long start = System.nanoTime();
+                try {
+                    return match(source);
+                } finally {
+                    WebhookMetrics.get().matched(hookEvent, instanceType, System.nanoTime() - start);
                 }
             }
-        }
+
+            @NonNull
+            private Map<SCMHead, SCMRevision> match(@NonNull SCMSource source) {
+                if (!(source instanceof BitbucketSCMSource)) {
+                    return Collections.emptyMap();
+                }
+                BitbucketSCMSource src = (BitbucketSCMSource) source;
+                if (!isServerUrlMatch(src.getServerUrl())) {
+                    return Collections.emptyMap();
+                }
+                if (!src.getRepoOwner().equalsIgnoreCase(getPayload().getRepository().getOwnerName())) {
+                    return Collections.emptyMap();
+                }
+                if (!src.getRepository().equalsIgnoreCase(getPayload().getRepository().getRepositoryName())) {
+                    return Collections.emptyMap();
+                }
+                BitbucketRepositoryType type = BitbucketRepositoryType.fromString(
+                        getPayload().getRepository().getScm());
+                if (type == null) {
+                    LOGGER.log(Level.INFO, "Received event for unknown repository type: {0}",
+                            getPayload().getRepository().getScm());
+                    return Collections.emptyMap();
+                }
+                Map<SCMHead, SCMRevision> result = new HashMap<>();
+                if (change.isClosed()) {
+                    result.put(new BranchSCMHead(change.getOld().getName(), type), null);
+                } else {
+                    BranchSCMHead head = new BranchSCMHead(change.getNew().getName(), type);
+                    switch (type) {
+                        case GIT:
+                            result.put(head, new AbstractGitSCMSource.SCMRevisionImpl(head, change.getNew().getTarget().getHash()));
+                            break;
+                        case MERCURIAL:
+                            result.put(head, new BitbucketSCMSource.MercurialRevision(head, change.getNew().getTarget().getHash()));
+                            break;
+                        default:
+                            LOGGER.log(Level.INFO, "Received event for unknown repository type: {0}", type);
+                            break;
+                    }
+                }
+                return result;
+            }
+
+            @Override
+            public boolean isMatch(@NonNull SCM scm) {
+                // TODO
+                return false;
+            }
+        }, hookEvent, instanceType);
     }
 }
@@ -36,6 +36,7 @@ import com.cloudbees.jenkins.plugins.bitbucket.server.client.repository.Bitbucke
 import hudson.Extension;
 import hudson.model.Item;
 import hudson.model.listeners.ItemListener;
+import hudson.security.ACL;
 import hudson.triggers.SafeTimerTask;
 import hudson.util.DaemonThreadFactory;
 import hudson.util.NamingThreadFactory;
@@ -44,10 +45,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import jenkins.model.Jenkins;
@@ -55,6 +60,8 @@ import jenkins.scm.api.SCMHeadObserver;
 import jenkins.scm.api.SCMSource;
 import jenkins.scm.api.SCMSourceOwner;
 import jenkins.scm.api.SCMSourceOwners;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
 
 /**
  * {@link SCMSourceOwner} item listener that traverse the list of {@link SCMSource} and register
@@ -64,7 +71,38 @@ import jenkins.scm.api.SCMSourceOwners;
 public class WebhookAutoRegisterListener extends ItemListener {
 
     private static final Logger LOGGER = Logger.getLogger(WebhookAutoRegisterListener.class.getName());
-    private static ExecutorService executorService;
+
+    /**
+     * The maximum number of repositories whose webhooks are registered or removed at the same time.
+     */
+    private static final int MAX_CONCURRENT_OPERATIONS =
+            Integer.getInteger(WebhookAutoRegisterListener.class.getName() + ".maxConcurrentOperations", 4);
+
+    private static KeyedExecutor executor;
+
+    /**
+     * Reconciles the webhooks of every repository once all items are loaded, fetching the webhooks of each
+     * repository once however many sources use it.
+     */
+    @Override
+    public void onLoaded() {
+        Map<String, BitbucketSCMSource> repositories = new TreeMap<>();
+        for (SCMSourceOwner owner : SCMSourceOwners.all()) {
+            for (BitbucketSCMSource source : getBitbucketSCMSources(owner)) {
+                String key = repositoryKey(source);
+                if (!repositories.containsKey(key)) {
+                    repositories.put(key, source);
+                }
+            }
+        }
+        if (repositories.isEmpty()) {
+            return;
+        }
+        WebhookReconciliation.start(repositories.keySet());
+        for (BitbucketSCMSource source : repositories.values()) {
+            reconcileAsync(source);
+        }
+    }
 
     @Override
     public void onCreated(Item item) {
@@ -103,68 +141,107 @@ public class WebhookAutoRegisterListener extends ItemListener {
     }
 
     private void registerHooksAsync(final SCMSourceOwner owner) {
-        getExecutorService().submit(new SafeTimerTask() {
+        // make sure the sources are indexed before they are looked up
+        BitbucketSCMSourceIndex.get().update(owner);
+        for (BitbucketSCMSource source : getBitbucketSCMSources(owner)) {
+            reconcileAsync(source);
+        }
+    }
+
+    /**
+     * Queues the reconciliation of the webhooks of the repository of a source with all the sources that use it.
+     * A reconciliation of the same repository that is still waiting is not queued again.
+     */
+    private void reconcileAsync(BitbucketSCMSource source) {
+        final String serverUrl = source.getServerUrl();
+        final String repoOwner = source.getRepoOwner();
+        final String repository = source.getRepository();
+        final String key = repositoryKey(source);
+        getExecutor().submit(key, "reconcile " + key, new SafeTimerTask() {
             @Override
             public void doRun() {
+                WebhookReconciliation.Outcome outcome = WebhookReconciliation.Outcome.FAILED;
                 try {
-                    registerHooks(owner);
+                    outcome = reconcile(serverUrl, repoOwner, repository);
                 } catch (IOException | InterruptedException e) {
-                    LOGGER.log(Level.WARNING, "Could not register hooks for " + owner.getFullName(), e);
+                    LOGGER.log(Level.WARNING, "Could not register hooks for " + repoOwner + "/" + repository, e);
+                } finally {
+                    WebhookReconciliation.record(key, outcome);
                 }
             }
         });
     }
 
     private void removeHooksAsync(final SCMSourceOwner owner) {
-        getExecutorService().submit(new SafeTimerTask() {
-            @Override
-            public void doRun() {
-                try {
-                    removeHooks(owner);
-                } catch (IOException | InterruptedException e) {
-                    LOGGER.log(Level.WARNING, "Could not deregister hooks for " + owner.getFullName(), e);
+        for (final BitbucketSCMSource source : getBitbucketSCMSources(owner)) {
+            String key = repositoryKey(source);
+            getExecutor().submit(key, "remove " + owner.getFullName() + " " + key, new SafeTimerTask() {
+                @Override
+                public void doRun() {
+                    try {
+                        removeHook(owner, source);
+                    } catch (IOException | InterruptedException e) {
+                        LOGGER.log(Level.WARNING, "Could not deregister hooks for " + owner.getFullName(), e);
+                    }
                 }
-            }
-        });
+            });
+        }
     }
 
-    // synchronized just to avoid duplicated webhooks in case SCMSourceOwner is updated repeatedly and quickly
-    private synchronized void registerHooks(SCMSourceOwner owner) throws IOException, InterruptedException {
-        String rootUrl = Jenkins.getActiveInstance().getRootUrl();
-        List<BitbucketSCMSource> sources = getBitbucketSCMSources(owner);
-        if (sources.isEmpty()) {
-            // don't spam logs if we are irrelevant
-            return;
+    /**
+     * Returns the key that orders the webhook operations on the repository of a source.
+     */
+    private static String repositoryKey(BitbucketSCMSource source) {
+        return source.getServerUrl() + "/" + source.getRepoOwner().toLowerCase(Locale.ENGLISH)
+                + "/" + source.getRepository().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Creates or updates the webhook of a repository from the configurations of all the sources using it that manage
+     * webhooks, fetching the existing webhooks once, and removes any duplicate webhook pointing to this Jenkins.
+     */
+    // operations on the same repository are run one at a time by the executor, which avoids duplicated webhooks in
+    // case sources of the same repository are updated repeatedly and quickly
+    private WebhookReconciliation.Outcome reconcile(String serverUrl, String repoOwner, String repository)
+            throws IOException, InterruptedException {
+        // sorted by item and source, as the owners are not found in a stable order
+        Map<String, BitbucketSCMSource> sorted = new TreeMap<>();
+        SecurityContext old = ACL.impersonate(ACL.SYSTEM);
+        try {
+            for (SCMSourceOwner owner : BitbucketSCMSourceIndex.get().findOwners(serverUrl, repoOwner, repository)) {
+                for (BitbucketSCMSource source : getBitbucketSCMSources(owner)) {
+                    if (source.getServerUrl().equals(serverUrl)
+                            && source.getRepoOwner().equalsIgnoreCase(repoOwner)
+                            && source.getRepository().equalsIgnoreCase(repository)) {
+                        sorted.put(owner.getFullName() + "\n" + source.getId(), source);
+                    }
+                }
+            }
+        } finally {
+            SecurityContextHolder.setContext(old);
         }
+        List<BitbucketSCMSource> sources = new ArrayList<>(sorted.values());
+        String rootUrl = Jenkins.getActiveInstance().getRootUrl();
         if (rootUrl != null && !rootUrl.startsWith("http://localhost")) {
+            BitbucketApi bitbucket = null;
+            BitbucketSCMSource managing = null;
+            List<WebhookConfiguration> configurations = new ArrayList<>();
             for (BitbucketSCMSource source : sources) {
-                BitbucketApi bitbucket = bitbucketApiFor(source);
-                if (bitbucket != null) {
-                    List<? extends BitbucketWebHook> existent = bitbucket.getWebHooks();
-                    BitbucketWebHook existing = null;
-                    String hookReceiverUrl =
-                            Jenkins.getActiveInstance().getRootUrl() + BitbucketSCMSourcePushHookReceiver.FULL_PATH;
-                    for (BitbucketWebHook hook : existent) {
-                        // Check if there is a hook pointing to us already
-                        if (hookReceiverUrl.equals(hook.getUrl())) {
-                            existing = hook;
-                            break;
-                        }
-                    }
-                    WebhookConfiguration hookConfig = new BitbucketSCMSourceContext(null, SCMHeadObserver.none())
-                        .withTraits(source.getTraits())
-                        .webhookConfiguration();
-                    if(existing == null) {
-                        LOGGER.log(Level.INFO, "Registering hook for {0}/{1}",
-                                new Object[]{source.getRepoOwner(), source.getRepository()});
-                        bitbucket.registerCommitWebHook(hookConfig.getHook(source));
-                    } else if(hookConfig.hasChanges(existing)) {
-                        LOGGER.log(Level.INFO, "Updating hook for {0}/{1}",
-                                new Object[]{source.getRepoOwner(), source.getRepository()});
-                        bitbucket.updateCommitWebHook(hookConfig.mergeConfiguration(existing));
+                BitbucketApi api = bitbucketApiFor(source);
+                if (api != null) {
+                    if (bitbucket == null) {
+                        bitbucket = api;
+                        managing = source;
                     }
+                    configurations.add(new BitbucketSCMSourceContext(null, SCMHeadObserver.none())
+                            .withTraits(source.getTraits())
+                            .webhookConfiguration());
                 }
             }
+            if (bitbucket == null) {
+                return WebhookReconciliation.Outcome.SKIPPED;
+            }
+            return reconcile(bitbucket, managing, WebhookConfiguration.merge(configurations));
         } else {
             // only complain about being unable to register the hook if someone wants the hook registered.
             SOURCES:
@@ -185,34 +262,74 @@ public class WebhookAutoRegisterListener extends ItemListener {
                         break;
                 }
                 LOGGER.log(Level.WARNING, "Can not register hook. Jenkins root URL is not valid: {0}", rootUrl);
-                return;
+                break;
             }
+            return WebhookReconciliation.Outcome.SKIPPED;
         }
     }
 
-    private void removeHooks(SCMSourceOwner owner) throws IOException, InterruptedException {
-        List<BitbucketSCMSource> sources = getBitbucketSCMSources(owner);
-        for (BitbucketSCMSource source : sources) {
-            BitbucketApi bitbucket = bitbucketApiFor(source);
-            if (bitbucket != null) {
-                List<? extends BitbucketWebHook> existent = bitbucket.getWebHooks();
-                BitbucketWebHook hook = null;
-                for (BitbucketWebHook h : existent) {
-                    // Check if there is a hook pointing to us
-                    if (h.getUrl().equals(Jenkins.getActiveInstance().getRootUrl() + BitbucketSCMSourcePushHookReceiver.FULL_PATH)) {
-                        hook = h;
-                        break;
-                    }
-                }
-                if (hook != null && !isUsedSomewhereElse(owner, source.getRepoOwner(), source.getRepository())) {
-                    LOGGER.log(Level.INFO, "Removing hook for {0}/{1}",
-                            new Object[]{source.getRepoOwner(), source.getRepository()});
-                    bitbucket.removeCommitWebHook(hook);
-                } else {
-                    LOGGER.log(Level.FINE, "NOT removing hook for {0}/{1} because does not exists or its used in other project",
-                            new Object[]{source.getRepoOwner(), source.getRepository()});
+    private WebhookReconciliation.Outcome reconcile(BitbucketApi bitbucket, BitbucketSCMSource source,
+                                                    WebhookConfiguration hookConfig)
+            throws IOException, InterruptedException {
+        List<? extends BitbucketWebHook> existent = bitbucket.getWebHooks();
+        List<BitbucketWebHook> ours = new ArrayList<>();
+        String hookReceiverUrl =
+                Jenkins.getActiveInstance().getRootUrl() + BitbucketSCMSourcePushHookReceiver.FULL_PATH;
+        for (BitbucketWebHook hook : existent) {
+            // Check if there is a hook pointing to us already
+            if (hookReceiverUrl.equals(hook.getUrl())) {
+                ours.add(hook);
+            }
+        }
+        if (ours.isEmpty()) {
+            LOGGER.log(Level.INFO, "Registering hook for {0}/{1}",
+                    new Object[]{source.getRepoOwner(), source.getRepository()});
+            bitbucket.registerCommitWebHook(hookConfig.getHook(source));
+            return WebhookReconciliation.Outcome.CREATED;
+        }
+        boolean updated = false;
+        BitbucketWebHook existing = ours.get(0);
+        if (hookConfig.hasChanges(existing)) {
+            LOGGER.log(Level.INFO, "Updating hook for {0}/{1}",
+                    new Object[]{source.getRepoOwner(), source.getRepository()});
+            bitbucket.updateCommitWebHook(hookConfig.mergeConfiguration(existing));
+            updated = true;
+        }
+        boolean deleted = false;
+        for (BitbucketWebHook duplicate : ours.subList(1, ours.size())) {
+            LOGGER.log(Level.INFO, "Removing duplicate hook for {0}/{1}",
+                    new Object[]{source.getRepoOwner(), source.getRepository()});
+            bitbucket.removeCommitWebHook(duplicate);
+            deleted = true;
+        }
+        if (updated) {
+            return deleted
+                    ? WebhookReconciliation.Outcome.UPDATED_AND_DELETED_DUPLICATES
+                    : WebhookReconciliation.Outcome.UPDATED;
+        }
+        return deleted ? WebhookReconciliation.Outcome.DELETED_DUPLICATES : WebhookReconciliation.Outcome.UNCHANGED;
+    }
+
+    private void removeHook(SCMSourceOwner owner, BitbucketSCMSource source) throws IOException, InterruptedException {
+        BitbucketApi bitbucket = bitbucketApiFor(source);
+        if (bitbucket != null) {
+            List<? extends BitbucketWebHook> existent = bitbucket.getWebHooks();
+            BitbucketWebHook hook = null;
+            for (BitbucketWebHook h : existent) {
+                // Check if there is a hook pointing to us
+                if (h.getUrl().equals(Jenkins.getActiveInstance().getRootUrl() + BitbucketSCMSourcePushHookReceiver.FULL_PATH)) {
+                    hook = h;
+                    break;
                 }
             }
+            if (hook != null && !isUsedSomewhereElse(owner, source)) {
+                LOGGER.log(Level.INFO, "Removing hook for {0}/{1}",
+                        new Object[]{source.getRepoOwner(), source.getRepository()});
+                bitbucket.removeCommitWebHook(hook);
+            } else {
+                LOGGER.log(Level.FINE, "NOT removing hook for {0}/{1} because does not exists or its used in other project",
+                        new Object[]{source.getRepoOwner(), source.getRepository()});
+            }
         }
     }
 
@@ -240,12 +357,15 @@ public class WebhookAutoRegisterListener extends ItemListener {
         }
     }
 
-    private boolean isUsedSomewhereElse(SCMSourceOwner owner, String repoOwner, String repoName) {
-        Iterable<SCMSourceOwner> all = SCMSourceOwners.all();
-        for (SCMSourceOwner other : all) {
+    private boolean isUsedSomewhereElse(SCMSourceOwner owner, BitbucketSCMSource source) {
+        String serverUrl = source.getServerUrl();
+        String repoOwner = source.getRepoOwner();
+        String repoName = source.getRepository();
+        for (SCMSourceOwner other : BitbucketSCMSourceIndex.get().findOwners(serverUrl, repoOwner, repoName)) {
             if (owner != other) {
                 for(SCMSource otherSource : other.getSCMSources()) {
                     if (otherSource instanceof BitbucketSCMSource
+                            && ((BitbucketSCMSource) otherSource).getServerUrl().equals(serverUrl)
                             && ((BitbucketSCMSource) otherSource).getRepoOwner().equals(repoOwner)
                             && ((BitbucketSCMSource) otherSource).getRepository().equals(repoName)) {
                         return true;
@@ -267,14 +387,19 @@ public class WebhookAutoRegisterListener extends ItemListener {
     }
 
     /**
-     * We need a single thread executor to run webhooks operations in background but in order.
-     * Registrations and removals need to be done in the same order than they were called by the item listener.
+     * We need to run webhooks operations in background but in order for each repository.
+     * Registrations and removals of the same repository need to be done in the same order than they were called by
+     * the item listener, while different repositories can be processed in parallel.
      */
-    private static synchronized ExecutorService getExecutorService() {
-        if (executorService == null) {
-            executorService = Executors.newSingleThreadExecutor(new NamingThreadFactory(new DaemonThreadFactory(), WebhookAutoRegisterListener.class.getName()));
+    private static synchronized KeyedExecutor getExecutor() {
+        if (executor == null) {
+            ThreadPoolExecutor threads = new ThreadPoolExecutor(MAX_CONCURRENT_OPERATIONS, MAX_CONCURRENT_OPERATIONS,
+                    60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new NamingThreadFactory(new DaemonThreadFactory(), WebhookAutoRegisterListener.class.getName()));
+            threads.allowCoreThreadTimeOut(true);
+            executor = new KeyedExecutor(threads);
         }
-        return executorService;
+        return executor;
     }
 
 }
@@ -31,9 +31,11 @@ import com.cloudbees.jenkins.plugins.bitbucket.endpoints.BitbucketCloudEndpoint;
 import com.cloudbees.jenkins.plugins.bitbucket.endpoints.BitbucketEndpointConfiguration;
 import com.cloudbees.jenkins.plugins.bitbucket.server.client.repository.BitbucketServerWebhook;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
@@ -75,6 +77,49 @@ public class WebhookConfiguration {
         this.committersToIgnore = committersToIgnore;
     }
 
+    /**
+     * Returns the configuration of a webhook shared by several sources, which only ignores the committers that every
+     * source ignores.
+     *
+     * @param configurations the configurations of the sources, in a stable order as it decides the order of the
+     *                       committers to ignore.
+     * @return the configuration of the shared webhook.
+     * @since 2.2.13
+     */
+    @NonNull
+    public static WebhookConfiguration merge(@NonNull List<WebhookConfiguration> configurations) {
+        if (configurations.size() == 1) {
+            return configurations.get(0);
+        }
+        Set<String> ignored = null;
+        for (WebhookConfiguration configuration : configurations) {
+            Set<String> committers = new LinkedHashSet<>();
+            if (configuration.committersToIgnore != null) {
+                for (String committer : configuration.committersToIgnore.split(",")) {
+                    if (!committer.trim().isEmpty()) {
+                        committers.add(committer.trim());
+                    }
+                }
+            }
+            if (ignored == null) {
+                ignored = committers;
+            } else {
+                ignored.retainAll(committers);
+            }
+        }
+        if (ignored == null || ignored.isEmpty()) {
+            return new WebhookConfiguration();
+        }
+        StringBuilder committersToIgnore = new StringBuilder();
+        for (String committer : ignored) {
+            if (committersToIgnore.length() > 0) {
+                committersToIgnore.append(',');
+            }
+            committersToIgnore.append(committer);
+        }
+        return new WebhookConfiguration(committersToIgnore.toString());
+    }
+
     public boolean hasChanges(BitbucketWebHook hook) {
         if(hook instanceof BitbucketRepositoryHook) {
             return !((BitbucketRepositoryHook) hook).getEvents().containsAll(CLOUD_EVENTS);
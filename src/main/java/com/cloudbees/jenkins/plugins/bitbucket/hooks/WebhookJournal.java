@@ -0,0 +1,452 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.hooks;
+
+import com.google.common.base.Charsets;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * An append-only journal of the webhooks accepted by {@link BitbucketSCMSourcePushHookReceiver}, so that the
+ * webhooks still waiting to be processed when Jenkins stops are processed once it starts again instead of being lost.
+ *
+ * The journal is a sequence of segment files in {@code $JENKINS_HOME/bitbucket-webhook-journal}. Each accepted
+ * webhook is appended to the current segment and a marker is appended once it has been processed, or once its
+ * processing failed as it would most likely fail again. Segments roll over once they grow past a size limit and the
+ * oldest segments are deleted as soon as all their webhooks have been settled. On startup the webhooks without a
+ * marker are copied to a fresh segment and queued again.
+ *
+ * @since 2.2.13
+ */
+@Restricted(NoExternalUse.class)
+public final class WebhookJournal {
+
+    private static final Logger LOGGER = Logger.getLogger(WebhookJournal.class.getName());
+
+    /**
+     * Whether accepted webhooks are journaled.
+     */
+    private static final boolean ENABLED =
+            !Boolean.getBoolean(WebhookJournal.class.getName() + ".disabled");
+
+    /**
+     * The size in bytes after which a new segment is started.
+     */
+    private static final long MAX_SEGMENT_BYTES =
+            Long.getLong(WebhookJournal.class.getName() + ".maxSegmentBytes", 4L * 1024 * 1024);
+
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    private static final byte EVENT = 'E';
+
+    private static final byte PROCESSED = 'P';
+
+    private static WebhookJournal instance;
+
+    private final File directory;
+
+    private final long maxSegmentBytes;
+
+    /**
+     * Segment sequence number to the number of webhooks of that segment still waiting to be processed.
+     */
+    private final TreeMap<Long, Integer> segments = new TreeMap<>();
+
+    /**
+     * Webhook id to the segment it was appended to, for the webhooks still waiting to be processed.
+     */
+    private final Map<Long, Long> pending = new HashMap<>();
+
+    /**
+     * The webhooks recovered on startup and not queued again yet.
+     */
+    private final List<Entry> recovered = new ArrayList<>();
+
+    private boolean opened;
+
+    private long nextId;
+
+    private long currentSegment;
+
+    private long currentSize;
+
+    @CheckForNull
+    private DataOutputStream out;
+
+    WebhookJournal(@NonNull File directory, long maxSegmentBytes) {
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+    }
+
+    /**
+     * Returns the journal used by the webhook receiver.
+     *
+     * @return the journal or {@code null} if journaling is disabled.
+     */
+    @CheckForNull
+    public static synchronized WebhookJournal get() {
+        if (!ENABLED) {
+            return null;
+        }
+        if (instance == null) {
+            instance = new WebhookJournal(
+                    new File(Jenkins.getActiveInstance().getRootDir(), "bitbucket-webhook-journal"),
+                    MAX_SEGMENT_BYTES
+            );
+        }
+        return instance;
+    }
+
+    /**
+     * Queues again the webhooks that were not processed before the last shutdown.
+     */
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void replay() {
+        WebhookJournal journal = get();
+        if (journal == null) {
+            return;
+        }
+        List<Entry> entries = journal.takeRecovered();
+        if (entries.isEmpty()) {
+            return;
+        }
+        LOGGER.log(Level.INFO, "Replaying {0} Bitbucket webhooks received before the last shutdown", entries.size());
+        for (Entry entry : entries) {
+            if (!WebhookProcessingQueue.get().submit(new BitbucketSCMSourcePushHookReceiver.Processing(
+                    entry.getType(), entry.getBody(), entry.getInstanceType(), entry.getOrigin(), entry.getId()))) {
+                LOGGER.log(Level.WARNING, "Could not replay webhook {0}, it will be retried on next startup",
+                        entry.getId());
+            }
+        }
+    }
+
+    /**
+     * Appends an accepted webhook.
+     *
+     * @param type         the type of hook.
+     * @param body         the hook payload.
+     * @param instanceType the Bitbucket type that sent the hook.
+     * @param origin       the origin of the hook.
+     * @return the id to mark the webhook processed with or {@code -1} if it could not be journaled.
+     */
+    public synchronized long append(@NonNull HookEventType type, @NonNull String body,
+                                    @NonNull BitbucketType instanceType, @CheckForNull String origin) {
+        try {
+            open();
+            long id = nextId++;
+            write(new Entry(id, type, body, instanceType, origin));
+            return id;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not journal webhook, it will be lost if Jenkins stops before it is "
+                    + "processed", e);
+            return -1L;
+        }
+    }
+
+    /**
+     * Records that a webhook has been processed.
+     *
+     * @param id the id returned by {@link #append(HookEventType, String, BitbucketType, String)}.
+     */
+    public synchronized void markProcessed(long id) {
+        settle(id);
+    }
+
+    /**
+     * Records that the processing of a webhook failed, so that it is neither replayed after a restart nor keeps its
+     * segment around.
+     *
+     * @param id the id returned by {@link #append(HookEventType, String, BitbucketType, String)}.
+     */
+    public synchronized void markFailed(long id) {
+        if (pending.containsKey(id)) {
+            LOGGER.log(Level.WARNING, "Processing of webhook {0} failed, it will not be replayed", id);
+        }
+        settle(id);
+    }
+
+    /**
+     * Appends the marker of a webhook that will not be replayed and deletes the segments that no longer hold any
+     * pending webhook.
+     */
+    private void settle(long id) {
+        Long segment = pending.remove(id);
+        if (segment == null) {
+            return;
+        }
+        try {
+            DataOutputStream out = stream();
+            out.writeByte(PROCESSED);
+            out.writeLong(id);
+            out.flush();
+            currentSize += 9;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not journal that webhook " + id + " was processed, "
+                    + "it may be processed again after a restart", e);
+        }
+        Integer count = segments.get(segment);
+        if (count != null) {
+            segments.put(segment, count - 1);
+        }
+        deleteProcessedSegments();
+    }
+
+    /**
+     * Returns the number of journaled webhooks that have not been processed yet.
+     *
+     * @return the number of journaled webhooks that have not been processed yet.
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Returns the webhooks recovered from the previous run, once.
+     *
+     * @return the webhooks that were not processed before the last shutdown, oldest first.
+     */
+    @NonNull
+    synchronized List<Entry> takeRecovered() {
+        try {
+            open();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not read the webhook journal", e);
+        }
+        List<Entry> result = new ArrayList<>(recovered);
+        recovered.clear();
+        return result;
+    }
+
+    /**
+     * Reads the existing segments, copies the webhooks still waiting to be processed to a fresh segment and deletes
+     * the old segments.
+     */
+    private void open() throws IOException {
+        if (opened) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        List<Long> existing = listSegments();
+        Map<Long, Entry> unprocessed = new LinkedHashMap<>();
+        for (Long segment : existing) {
+            read(segmentFile(segment), unprocessed);
+        }
+        for (Long id : unprocessed.keySet()) {
+            nextId = Math.max(nextId, id + 1);
+        }
+        currentSegment = existing.isEmpty() ? 0L : existing.get(existing.size() - 1) + 1;
+        segments.put(currentSegment, 0);
+        opened = true;
+        for (Entry entry : unprocessed.values()) {
+            write(entry);
+            recovered.add(entry);
+        }
+        for (Long segment : existing) {
+            if (!segmentFile(segment).delete()) {
+                LOGGER.log(Level.WARNING, "Could not delete webhook journal segment {0}", segmentFile(segment));
+            }
+        }
+    }
+
+    private void write(Entry entry) throws IOException {
+        byte[] body = entry.getBody().getBytes(Charsets.UTF_8);
+        DataOutputStream out = stream();
+        int before = out.size();
+        out.writeByte(EVENT);
+        out.writeLong(entry.getId());
+        out.writeUTF(entry.getType().name());
+        out.writeUTF(entry.getInstanceType().name());
+        out.writeBoolean(entry.getOrigin() != null);
+        if (entry.getOrigin() != null) {
+            out.writeUTF(entry.getOrigin());
+        }
+        out.writeInt(body.length);
+        out.write(body);
+        out.flush();
+        currentSize += out.size() - before;
+        pending.put(entry.getId(), currentSegment);
+        segments.put(currentSegment, segments.get(currentSegment) + 1);
+    }
+
+    /**
+     * Returns the stream of the current segment, rolling over to a new segment if the current one is full.
+     */
+    private DataOutputStream stream() throws IOException {
+        if (out != null && currentSize >= maxSegmentBytes) {
+            out.close();
+            out = null;
+            currentSegment++;
+            segments.put(currentSegment, 0);
+            deleteProcessedSegments();
+        }
+        if (out == null) {
+            File file = segmentFile(currentSegment);
+            currentSize = file.length();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        }
+        return out;
+    }
+
+    /**
+     * Deletes the oldest segments as long as all their webhooks have been settled.
+     */
+    private void deleteProcessedSegments() {
+        while (segments.size() > 1) {
+            Map.Entry<Long, Integer> oldest = segments.firstEntry();
+            if (oldest.getKey() == currentSegment || oldest.getValue() > 0) {
+                return;
+            }
+            segments.remove(oldest.getKey());
+            File file = segmentFile(oldest.getKey());
+            if (file.exists() && !file.delete()) {
+                LOGGER.log(Level.WARNING, "Could not delete webhook journal segment {0}", file);
+            }
+        }
+    }
+
+    private static void read(File file, Map<Long, Entry> unprocessed) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                byte kind;
+                try {
+                    kind = in.readByte();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (kind == EVENT) {
+                    long id = in.readLong();
+                    String type = in.readUTF();
+                    String instanceType = in.readUTF();
+                    String origin = in.readBoolean() ? in.readUTF() : null;
+                    byte[] body = new byte[in.readInt()];
+                    in.readFully(body);
+                    try {
+                        unprocessed.put(id, new Entry(id, HookEventType.valueOf(type),
+                                new String(body, Charsets.UTF_8), BitbucketType.valueOf(instanceType), origin));
+                    } catch (IllegalArgumentException e) {
+                        LOGGER.log(Level.WARNING, "Dropping journaled webhook {0} of unknown type {1}/{2}",
+                                new Object[]{id, type, instanceType});
+                    }
+                } else if (kind == PROCESSED) {
+                    unprocessed.remove(in.readLong());
+                } else {
+                    LOGGER.log(Level.WARNING, "Webhook journal segment {0} is corrupted, ignoring the rest of it",
+                            file);
+                    return;
+                }
+            }
+        } catch (EOFException e) {
+            LOGGER.log(Level.WARNING, "Webhook journal segment {0} ends with a partial record, ignoring it", file);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not read webhook journal segment " + file, e);
+        }
+    }
+
+    private List<Long> listSegments() {
+        List<Long> result = new ArrayList<>();
+        String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        result.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        // not ours
+                    }
+                }
+            }
+        }
+        Long[] sorted = result.toArray(new Long[result.size()]);
+        Arrays.sort(sorted);
+        return Arrays.asList(sorted);
+    }
+
+    private File segmentFile(long segment) {
+        return new File(directory, String.format("%020d%s", segment, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * A journaled webhook.
+     */
+    static final class Entry {
+        private final long id;
+        private final HookEventType type;
+        private final String body;
+        private final BitbucketType instanceType;
+        private final String origin;
+
+        Entry(long id, HookEventType type, String body, BitbucketType instanceType, String origin) {
+            this.id = id;
+            this.type = type;
+            this.body = body;
+            this.instanceType = instanceType;
+            this.origin = origin;
+        }
+
+        long getId() {
+            return id;
+        }
+
+        HookEventType getType() {
+            return type;
+        }
+
+        String getBody() {
+            return body;
+        }
+
+        BitbucketType getInstanceType() {
+            return instanceType;
+        }
+
+        String getOrigin() {
+            return origin;
+        }
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.hooks;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.beans.ConstructorProperties;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Counters and latency histograms of the webhook processing, per {@link HookEventType} and {@link BitbucketType},
+ * published as platform MXBeans named
+ * {@code com.cloudbees.jenkins.plugins.bitbucket:type=WebhookMetrics,event=<event key>,instance=<cloud|server>},
+ * along with the metrics of the {@link WebhookProcessingQueue}.
+ *
+ * @since 2.2.13
+ */
+@Restricted(NoExternalUse.class)
+public final class WebhookMetrics {
+
+    private static final Logger LOGGER = Logger.getLogger(WebhookMetrics.class.getName());
+
+    private static final String DOMAIN = "com.cloudbees.jenkins.plugins.bitbucket";
+
+    private static final WebhookMetrics INSTANCE = new WebhookMetrics(ManagementFactory.getPlatformMBeanServer());
+
+    @CheckForNull
+    private final MBeanServer server;
+
+    private final ConcurrentMap<String, Stats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param server the server to register the MXBeans with or {@code null} to not publish them.
+     */
+    WebhookMetrics(@CheckForNull MBeanServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Returns the metrics of the webhook receiver and processors.
+     *
+     * @return the metrics of the webhook receiver and processors.
+     */
+    @NonNull
+    public static WebhookMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records a received webhook.
+     *
+     * @param type         the type of hook.
+     * @param instanceType the Bitbucket type that sent the hook.
+     * @param bytes        the size of the payload.
+     */
+    public void received(@NonNull HookEventType type, @NonNull BitbucketType instanceType, long bytes) {
+        Stats s = stats(type, instanceType);
+        s.count.incrementAndGet();
+        s.payloadBytesTotal.addAndGet(bytes);
+        long max;
+        do {
+            max = s.payloadBytesMax.get();
+        } while (bytes > max && !s.payloadBytesMax.compareAndSet(max, bytes));
+    }
+
+    /**
+     * Records the time taken to parse a payload.
+     *
+     * @param type         the type of hook.
+     * @param instanceType the Bitbucket type that sent the hook.
+     * @param nanos        the time taken.
+     */
+    public void parsed(@NonNull HookEventType type, @NonNull BitbucketType instanceType, long nanos) {
+        stats(type, instanceType).parse.record(nanos);
+    }
+
+    /**
+     * Records the time taken to match an event against a source.
+     *
+     * @param type         the type of hook.
+     * @param instanceType the Bitbucket type that sent the hook.
+     * @param nanos        the time taken.
+     */
+    public void matched(@NonNull HookEventType type, @NonNull BitbucketType instanceType, long nanos) {
+        stats(type, instanceType).match.record(nanos);
+    }
+
+    /**
+     * Records the time taken by {@link jenkins.scm.api.SCMHeadEvent#fireNow} to queue an event, which the SCM API
+     * then delivers to the sources from its own threads.
+     *
+     * @param type         the type of hook.
+     * @param instanceType the Bitbucket type that sent the hook.
+     * @param nanos        the time taken.
+     */
+    public void enqueued(@NonNull HookEventType type, @NonNull BitbucketType instanceType, long nanos) {
+        stats(type, instanceType).enqueue.record(nanos);
+    }
+
+    /**
+     * Returns the metrics of a type of hook.
+     *
+     * @param type         the type of hook.
+     * @param instanceType the Bitbucket type that sent the hook.
+     * @return the metrics.
+     */
+    @NonNull
+    public StatsMXBean getStats(@NonNull HookEventType type, @NonNull BitbucketType instanceType) {
+        return stats(type, instanceType);
+    }
+
+    private Stats stats(HookEventType type, BitbucketType instanceType) {
+        String key = type.getKey() + "/" + instanceType.getKey();
+        Stats s = stats.get(key);
+        if (s == null) {
+            Stats created = new Stats(type, instanceType);
+            s = stats.putIfAbsent(key, created);
+            if (s == null) {
+                s = created;
+                register(created);
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Publishes the depth, lag and counters of a webhook queue as the platform MXBean named
+     * {@code com.cloudbees.jenkins.plugins.bitbucket:type=WebhookQueue}.
+     *
+     * @param queue the queue.
+     */
+    public void publish(@NonNull QueueMXBean queue) {
+        register(queue, DOMAIN + ":type=WebhookQueue");
+    }
+
+    private void register(Stats s) {
+        register(s, DOMAIN + ":type=WebhookMetrics,event=" + ObjectName.quote(s.type.getKey()) + ",instance="
+                + s.instanceType.getKey());
+    }
+
+    private void register(Object mxBean, String name) {
+        if (server == null) {
+            return;
+        }
+        try {
+            server.registerMBean(mxBean, new ObjectName(name));
+        } catch (JMException e) {
+            LOGGER.log(Level.FINE, "Could not publish webhook metrics", e);
+        }
+    }
+
+    /**
+     * The metrics of the queue of webhooks waiting to be processed.
+     */
+    public interface QueueMXBean {
+
+        /**
+         * @return the number of webhooks waiting to be processed.
+         */
+        int getQueueDepth();
+
+        /**
+         * @return the maximum number of webhooks that can wait to be processed.
+         */
+        int getCapacity();
+
+        /**
+         * @return the age in milliseconds of the oldest waiting webhook or {@code 0} if none is waiting.
+         */
+        long getOldestPendingAgeMillis();
+
+        /**
+         * @return how long in milliseconds the last webhook to start processing had waited in the queue.
+         */
+        long getLastLagMillis();
+
+        /**
+         * @return the number of webhooks processed since startup.
+         */
+        long getProcessedCount();
+
+        /**
+         * @return the number of webhooks whose processing failed since startup.
+         */
+        long getFailedCount();
+
+        /**
+         * @return the number of webhooks rejected because the queue was full since startup.
+         */
+        long getRejectedCount();
+    }
+
+    /**
+     * The metrics of a type of hook.
+     */
+    public interface StatsMXBean {
+
+        /**
+         * @return the key of the type of hook.
+         */
+        String getEventType();
+
+        /**
+         * @return the Bitbucket type that sent the hooks.
+         */
+        String getInstanceType();
+
+        /**
+         * @return the number of hooks received.
+         */
+        long getCount();
+
+        /**
+         * @return the total size of the payloads received.
+         */
+        long getPayloadBytesTotal();
+
+        /**
+         * @return the size of the largest payload received.
+         */
+        long getPayloadBytesMax();
+
+        /**
+         * @return the time taken to parse payloads.
+         */
+        LatencySnapshot getParse();
+
+        /**
+         * @return the time taken to match events against each source.
+         */
+        LatencySnapshot getMatch();
+
+        /**
+         * @return the time taken to queue events for delivery to the sources.
+         */
+        LatencySnapshot getEnqueue();
+    }
+
+    private static final class Stats implements StatsMXBean {
+        private final HookEventType type;
+        private final BitbucketType instanceType;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong payloadBytesTotal = new AtomicLong();
+        private final AtomicLong payloadBytesMax = new AtomicLong();
+        private final Histogram parse = new Histogram();
+        private final Histogram match = new Histogram();
+        private final Histogram enqueue = new Histogram();
+
+        Stats(HookEventType type, BitbucketType instanceType) {
+            this.type = type;
+            this.instanceType = instanceType;
+        }
+
+        @Override
+        public String getEventType() {
+            return type.getKey();
+        }
+
+        @Override
+        public String getInstanceType() {
+            return instanceType.getKey();
+        }
+
+        @Override
+        public long getCount() {
+            return count.get();
+        }
+
+        @Override
+        public long getPayloadBytesTotal() {
+            return payloadBytesTotal.get();
+        }
+
+        @Override
+        public long getPayloadBytesMax() {
+            return payloadBytesMax.get();
+        }
+
+        @Override
+        public LatencySnapshot getParse() {
+            return parse.snapshot();
+        }
+
+        @Override
+        public LatencySnapshot getMatch() {
+            return match.snapshot();
+        }
+
+        @Override
+        public LatencySnapshot getEnqueue() {
+            return enqueue.snapshot();
+        }
+    }
+
+    /**
+     * A latency histogram with buckets following a 1-2-5 series from 100 microseconds to 10 seconds.
+     */
+    static final class Histogram {
+
+        /**
+         * Upper bounds of the buckets in microseconds, the last bucket is unbounded.
+         */
+        private static final long[] BOUNDS_MICROS = {
+                100, 200, 500,
+                1000, 2000, 5000,
+                10000, 20000, 50000,
+                100000, 200000, 500000,
+                1000000, 2000000, 5000000,
+                10000000
+        };
+
+        private final long[] buckets = new long[BOUNDS_MICROS.length + 1];
+
+        private long count;
+
+        private long totalNanos;
+
+        private long maxNanos;
+
+        synchronized void record(long nanos) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+            int bucket = 0;
+            while (bucket < BOUNDS_MICROS.length && micros > BOUNDS_MICROS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket]++;
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        synchronized LatencySnapshot snapshot() {
+            return new LatencySnapshot(
+                    count,
+                    count == 0 ? 0.0 : totalNanos / 1e6 / count,
+                    maxNanos / 1e6,
+                    percentile(0.50),
+                    percentile(0.95),
+                    percentile(0.99)
+            );
+        }
+
+        /**
+         * Returns the upper bound of the bucket holding a percentile, or the maximum for the unbounded bucket.
+         */
+        private double percentile(double quantile) {
+            if (count == 0) {
+                return 0.0;
+            }
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < BOUNDS_MICROS.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(BOUNDS_MICROS[i] / 1e3, maxNanos / 1e6);
+                }
+            }
+            return maxNanos / 1e6;
+        }
+    }
+
+    /**
+     * A point in time view of a latency histogram, in milliseconds.
+     */
+    public static final class LatencySnapshot {
+        private final long count;
+        private final double meanMillis;
+        private final double maxMillis;
+        private final double p50Millis;
+        private final double p95Millis;
+        private final double p99Millis;
+
+        @ConstructorProperties({"count", "meanMillis", "maxMillis", "p50Millis", "p95Millis", "p99Millis"})
+        public LatencySnapshot(long count, double meanMillis, double maxMillis, double p50Millis, double p95Millis,
+                               double p99Millis) {
+            this.count = count;
+            this.meanMillis = meanMillis;
+            this.maxMillis = maxMillis;
+            this.p50Millis = p50Millis;
+            this.p95Millis = p95Millis;
+            this.p99Millis = p99Millis;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanMillis() {
+            return meanMillis;
+        }
+
+        public double getMaxMillis() {
+            return maxMillis;
+        }
+
+        public double getP50Millis() {
+            return p50Millis;
+        }
+
+        public double getP95Millis() {
+            return p95Millis;
+        }
+
+        public double getP99Millis() {
+            return p99Millis;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.hooks;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.IOException;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+/**
+ * The repository a webhook payload is about, read with a streaming parser that skips everything but the top level
+ * {@code repository} object so that payloads for unknown repositories can be dropped without binding them.
+ *
+ * Understands the Bitbucket Cloud ({@code full_name}) and the Bitbucket Server ({@code project.key} and
+ * {@code slug}) repository representations.
+ */
+final class WebhookPayloadIdentity {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    @NonNull
+    private final String owner;
+
+    @NonNull
+    private final String repository;
+
+    private WebhookPayloadIdentity(@NonNull String owner, @NonNull String repository) {
+        this.owner = owner;
+        this.repository = repository;
+    }
+
+    /**
+     * Reads the repository identity of a payload.
+     *
+     * @param payload the webhook payload.
+     * @return the identity or {@code null} if the payload does not have a recognizable repository.
+     */
+    @CheckForNull
+    static WebhookPayloadIdentity of(@NonNull String payload) {
+        try (JsonParser parser = FACTORY.createJsonParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("repository".equals(name) && value == JsonToken.START_OBJECT) {
+                    return readRepository(parser);
+                }
+                parser.skipChildren();
+            }
+            return null;
+        } catch (IOException e) {
+            // leave it to the full parse to report
+            return null;
+        }
+    }
+
+    @CheckForNull
+    private static WebhookPayloadIdentity readRepository(JsonParser parser) throws IOException {
+        String fullName = null;
+        String slug = null;
+        String projectKey = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("full_name".equals(name) && value == JsonToken.VALUE_STRING) {
+                fullName = parser.getText();
+            } else if ("slug".equals(name) && value == JsonToken.VALUE_STRING) {
+                slug = parser.getText();
+            } else if ("project".equals(name) && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String projectField = parser.getCurrentName();
+                    if (parser.nextToken() == JsonToken.VALUE_STRING && "key".equals(projectField)) {
+                        projectKey = parser.getText();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (fullName != null && fullName.indexOf('/') > 0 && fullName.indexOf('/') < fullName.length() - 1) {
+            int index = fullName.indexOf('/');
+            return new WebhookPayloadIdentity(fullName.substring(0, index), fullName.substring(index + 1));
+        }
+        if (projectKey != null && slug != null) {
+            return new WebhookPayloadIdentity(projectKey, slug);
+        }
+        return null;
+    }
+
+    @NonNull
+    String getOwner() {
+        return owner;
+    }
+
+    @NonNull
+    String getRepository() {
+        return repository;
+    }
+}
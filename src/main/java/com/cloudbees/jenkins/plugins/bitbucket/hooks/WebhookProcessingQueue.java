@@ -0,0 +1,206 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.hooks;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * A bounded queue of received webhooks with a small pool of workers behind it, so that
+ * {@link BitbucketSCMSourcePushHookReceiver} can acknowledge deliveries without waiting for them to be processed.
+ *
+ * @since 2.2.13
+ */
+@Restricted(NoExternalUse.class)
+public final class WebhookProcessingQueue implements WebhookMetrics.QueueMXBean {
+
+    private static final Logger LOGGER = Logger.getLogger(WebhookProcessingQueue.class.getName());
+
+    /**
+     * The maximum number of webhooks waiting to be processed.
+     */
+    private static final int CAPACITY = Integer.getInteger(WebhookProcessingQueue.class.getName() + ".capacity", 1000);
+
+    /**
+     * The number of threads processing webhooks.
+     */
+    private static final int THREADS = Integer.getInteger(WebhookProcessingQueue.class.getName() + ".threads", 2);
+
+    private static final WebhookProcessingQueue INSTANCE = new WebhookProcessingQueue(THREADS, CAPACITY);
+
+    static {
+        WebhookMetrics.get().publish(INSTANCE);
+    }
+
+    private final ThreadPoolExecutor executor;
+
+    private final int capacity;
+
+    private final AtomicLong processed = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private volatile long lastLagMillis;
+
+    WebhookProcessingQueue(int threads, int capacity) {
+        this.capacity = capacity;
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(capacity),
+                new NamingThreadFactory(new DaemonThreadFactory(), WebhookProcessingQueue.class.getName()),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the queue used by the webhook receiver.
+     *
+     * @return the queue used by the webhook receiver.
+     */
+    @NonNull
+    public static WebhookProcessingQueue get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Queues some webhook processing.
+     *
+     * @param work the processing of a webhook.
+     * @return {@code true} if the work was queued, {@code false} if the queue is full.
+     */
+    public boolean submit(@NonNull Runnable work) {
+        try {
+            executor.execute(new Task(work));
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            LOGGER.log(Level.WARNING, "Webhook queue is full ({0} pending), rejecting webhook", getQueueDepth());
+            return false;
+        }
+    }
+
+    /**
+     * Returns the number of webhooks waiting to be processed.
+     *
+     * @return the number of webhooks waiting to be processed.
+     */
+    @Override
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Returns the maximum number of webhooks that can wait to be processed.
+     *
+     * @return the maximum number of webhooks that can wait to be processed.
+     */
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns how long the oldest webhook still waiting has been in the queue.
+     *
+     * @return the age in milliseconds of the oldest waiting webhook or {@code 0} if none is waiting.
+     */
+    @Override
+    public long getOldestPendingAgeMillis() {
+        Runnable head = executor.getQueue().peek();
+        return head instanceof Task ? System.currentTimeMillis() - ((Task) head).received : 0L;
+    }
+
+    /**
+     * Returns how long the last webhook to start processing had waited in the queue.
+     *
+     * @return the wait in milliseconds.
+     */
+    @Override
+    public long getLastLagMillis() {
+        return lastLagMillis;
+    }
+
+    /**
+     * Returns the number of webhooks processed since startup.
+     *
+     * @return the number of webhooks processed since startup.
+     */
+    @Override
+    public long getProcessedCount() {
+        return processed.get();
+    }
+
+    /**
+     * Returns the number of webhooks whose processing failed since startup.
+     *
+     * @return the number of webhooks whose processing failed since startup.
+     */
+    @Override
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Returns the number of webhooks rejected because the queue was full since startup.
+     *
+     * @return the number of webhooks rejected because the queue was full since startup.
+     */
+    @Override
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    private class Task implements Runnable {
+        private final Runnable work;
+        private final long received = System.currentTimeMillis();
+
+        Task(Runnable work) {
+            this.work = work;
+        }
+
+        @Override
+        public void run() {
+            lastLagMillis = System.currentTimeMillis() - received;
+            try {
+                work.run();
+            } catch (RuntimeException e) {
+                failed.incrementAndGet();
+                LOGGER.log(Level.WARNING, "Could not process webhook", e);
+            } finally {
+                processed.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.hooks;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Progress of a pass that reconciles the webhooks of every repository used by a {@link
+ * com.cloudbees.jenkins.plugins.bitbucket.BitbucketSCMSource}, as started by {@link WebhookAutoRegisterListener}
+ * once all items are loaded.
+ *
+ * @since 2.2.13
+ */
+@Restricted(NoExternalUse.class)
+public final class WebhookReconciliation {
+
+    private static final Logger LOGGER = Logger.getLogger(WebhookReconciliation.class.getName());
+
+    /**
+     * What reconciling a repository did to its webhooks.
+     */
+    enum Outcome {
+        UNCHANGED, CREATED, UPDATED, DELETED_DUPLICATES, UPDATED_AND_DELETED_DUPLICATES, SKIPPED, FAILED
+    }
+
+    @CheckForNull
+    private static volatile WebhookReconciliation current;
+
+    private final int total;
+
+    private final long started = System.currentTimeMillis();
+
+    private final Set<String> pending;
+
+    private int created;
+
+    private int updated;
+
+    private int deleted;
+
+    private int failed;
+
+    private WebhookReconciliation(Collection<String> repositories) {
+        this.total = repositories.size();
+        this.pending = new HashSet<>(repositories);
+    }
+
+    /**
+     * Starts tracking a new pass.
+     *
+     * @param repositories the keys of the repositories to reconcile.
+     * @return the pass.
+     */
+    @NonNull
+    static WebhookReconciliation start(@NonNull Collection<String> repositories) {
+        WebhookReconciliation pass = new WebhookReconciliation(repositories);
+        current = pass;
+        LOGGER.log(Level.INFO, "Reconciling the webhooks of {0} Bitbucket repositories", pass.total);
+        return pass;
+    }
+
+    /**
+     * Returns the latest pass.
+     *
+     * @return the latest pass or {@code null} if none was started.
+     */
+    @CheckForNull
+    public static WebhookReconciliation getCurrent() {
+        return current;
+    }
+
+    /**
+     * Records the reconciliation of a repository against the latest pass, if the pass is waiting for it.
+     *
+     * @param repository the key of the repository.
+     * @param outcome    what was done.
+     */
+    static void record(@NonNull String repository, @NonNull Outcome outcome) {
+        WebhookReconciliation pass = current;
+        if (pass != null) {
+            pass.completed(repository, outcome);
+        }
+    }
+
+    private void completed(String repository, Outcome outcome) {
+        int done;
+        synchronized (this) {
+            if (!pending.remove(repository)) {
+                return;
+            }
+            switch (outcome) {
+                case CREATED:
+                    created++;
+                    break;
+                case UPDATED:
+                    updated++;
+                    break;
+                case DELETED_DUPLICATES:
+                    deleted++;
+                    break;
+                case UPDATED_AND_DELETED_DUPLICATES:
+                    updated++;
+                    deleted++;
+                    break;
+                case FAILED:
+                    failed++;
+                    break;
+                default:
+                    break;
+            }
+            done = total - pending.size();
+        }
+        if (done == total) {
+            LOGGER.log(Level.INFO, "Reconciled the webhooks of {0} Bitbucket repositories in {1} ms: {2} created, "
+                    + "{3} updated, {4} with duplicates removed, {5} failed",
+                    new Object[]{total, System.currentTimeMillis() - started, created, updated, deleted, failed});
+        } else if (done % Math.max(1, total / 10) == 0) {
+            LOGGER.log(Level.INFO, "Reconciled the webhooks of {0}/{1} Bitbucket repositories",
+                    new Object[]{done, total});
+        }
+    }
+
+    /**
+     * Returns the number of repositories to reconcile.
+     *
+     * @return the number of repositories to reconcile.
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns the number of repositories reconciled so far.
+     *
+     * @return the number of repositories reconciled so far.
+     */
+    public synchronized int getCompleted() {
+        return total - pending.size();
+    }
+
+    /**
+     * Returns whether every repository has been reconciled.
+     *
+     * @return whether every repository has been reconciled.
+     */
+    public synchronized boolean isDone() {
+        return pending.isEmpty();
+    }
+
+    /**
+     * Returns the number of webhooks created so far.
+     *
+     * @return the number of webhooks created so far.
+     */
+    public synchronized int getCreated() {
+        return created;
+    }
+
+    /**
+     * Returns the number of webhooks updated so far.
+     *
+     * @return the number of webhooks updated so far.
+     */
+    public synchronized int getUpdated() {
+        return updated;
+    }
+
+    /**
+     * Returns the number of repositories whose duplicate webhooks were removed so far.
+     *
+     * @return the number of repositories whose duplicate webhooks were removed so far.
+     */
+    public synchronized int getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * Returns the number of repositories that could not be reconciled so far.
+     *
+     * @return the number of repositories that could not be reconciled so far.
+     */
+    public synchronized int getFailed() {
+        return failed;
+    }
+}
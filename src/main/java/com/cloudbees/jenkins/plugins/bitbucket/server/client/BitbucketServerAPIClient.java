@@ -34,11 +34,13 @@ import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketRepositoryType;
 import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketRequestException;
 import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketTeam;
 import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketWebHook;
+import com.cloudbees.jenkins.plugins.bitbucket.client.Cache;
 import com.cloudbees.jenkins.plugins.bitbucket.client.repository.UserRoleInRepository;
 import com.cloudbees.jenkins.plugins.bitbucket.endpoints.AbstractBitbucketEndpoint;
 import com.cloudbees.jenkins.plugins.bitbucket.endpoints.BitbucketEndpointConfiguration;
 import com.cloudbees.jenkins.plugins.bitbucket.endpoints.BitbucketServerEndpoint;
 import com.cloudbees.jenkins.plugins.bitbucket.filesystem.BitbucketSCMFile;
+import com.cloudbees.jenkins.plugins.bitbucket.filesystem.BitbucketSCMFileTree;
 import com.cloudbees.jenkins.plugins.bitbucket.server.client.branch.BitbucketServerBranch;
 import com.cloudbees.jenkins.plugins.bitbucket.server.client.branch.BitbucketServerBranches;
 import com.cloudbees.jenkins.plugins.bitbucket.server.client.branch.BitbucketServerCommit;
@@ -56,9 +58,12 @@ import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.ProxyConfiguration;
 import hudson.Util;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import hudson.util.Secret;
 import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetSocketAddress;
@@ -70,9 +75,18 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import jenkins.model.Jenkins;
@@ -105,9 +119,12 @@ import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.util.EntityUtils;
 import org.codehaus.jackson.type.TypeReference;
 
+import static java.util.concurrent.TimeUnit.DAYS;
+
 /**
  * Bitbucket API client.
  * Developed and test with Bitbucket 4.3.2
@@ -119,13 +136,20 @@ public class BitbucketServerAPIClient implements BitbucketApi {
     private static final String API_REPOSITORIES_PATH = API_BASE_PATH + "/projects/{owner}/repos{?start}";
     private static final String API_REPOSITORY_PATH = API_BASE_PATH + "/projects/{owner}/repos/{repo}";
     private static final String API_DEFAULT_BRANCH_PATH = API_REPOSITORY_PATH + "/branches/default";
-    private static final String API_BRANCHES_PATH = API_REPOSITORY_PATH + "/branches{?start,limit}";
+    private static final String API_BRANCHES_PATH = API_REPOSITORY_PATH + "/branches{?details,start,limit}";
+    private static final String API_BRANCHES_FILTERED_PATH = API_REPOSITORY_PATH + "/branches{?details,filterText,start,limit}";
     private static final String API_TAGS_PATH = API_REPOSITORY_PATH + "/tags{?start,limit}";
+    private static final String API_TAGS_FILTERED_PATH = API_REPOSITORY_PATH + "/tags{?filterText,start,limit}";
     private static final String API_PULL_REQUESTS_PATH = API_REPOSITORY_PATH + "/pull-requests{?start,limit}";
     private static final String API_PULL_REQUEST_PATH = API_REPOSITORY_PATH + "/pull-requests/{id}";
     private static final String API_PULL_REQUEST_MERGE_PATH = API_REPOSITORY_PATH + "/pull-requests/{id}/merge";
     private static final String API_BROWSE_PATH = API_REPOSITORY_PATH + "/browse{/path*}{?at}";
+    private static final String API_RAW_PATH = API_REPOSITORY_PATH + "/raw{/path*}{?at}";
+    private static final String API_FILES_PATH = API_REPOSITORY_PATH + "/files{/path*}{?at,start,limit}";
+    private static final String API_ARCHIVE_PATH = API_REPOSITORY_PATH + "/archive{?at,format,path,prefix}";
     private static final String API_COMMITS_PATH = API_REPOSITORY_PATH + "/commits{/hash}";
+    private static final String API_COMMITS_HISTORY_PATH = API_REPOSITORY_PATH + "/commits{?path,until,limit}";
+    private static final String API_LAST_MODIFIED_PATH = API_REPOSITORY_PATH + "/last-modified{/path*}{?at}";
     private static final String API_PROJECT_PATH = API_BASE_PATH + "/projects/{owner}";
     private static final String API_COMMIT_COMMENT_PATH = API_REPOSITORY_PATH + "/commits{/hash}/comments";
 
@@ -134,7 +158,45 @@ public class BitbucketServerAPIClient implements BitbucketApi {
     private static final String WEBHOOK_REPOSITORY_CONFIG_PATH = WEBHOOK_REPOSITORY_PATH + "/{id}";
 
     private static final String API_COMMIT_STATUS_PATH = "/rest/build-status/1.0/commits{/hash}";
+
+    /**
+     * The base URLs of the servers that do not have the raw file content endpoint.
+     */
+    private static final Set<String> RAW_UNSUPPORTED =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /**
+     * The base URLs of the servers that do not have the archive endpoint, which was added in Bitbucket Server 5.1.
+     */
+    private static final Set<String> ARCHIVE_UNSUPPORTED =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /**
+     * The base URLs of the servers that do not have the endpoint listing the last commit of each file of a directory.
+     */
+    private static final Set<String> LAST_MODIFIED_UNSUPPORTED =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /**
+     * The base URLs of the servers known to have the endpoint listing the last commit of each file of a directory.
+     */
+    private static final Set<String> LAST_MODIFIED_SUPPORTED =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
     private static final Integer DEFAULT_PAGE_LIMIT = 200;
+    /**
+     * The number of paths per page when listing a directory tree, the paths being much smaller than other resources.
+     */
+    private static final int FILES_PAGE_LIMIT = 1000;
+
+    /**
+     * The maximum number of concurrent requests when the same call has to be made for many pull requests.
+     */
+    private static final int MAX_CONCURRENT_REQUESTS =
+            Integer.getInteger(BitbucketServerAPIClient.class.getName() + ".maxConcurrentRequests", 4);
+    /**
+     * The "can merge" result of the pull requests we already asked about, keyed by pull request and by the source
+     * and target commits at that time. The call only exists to get Bitbucket Server to refresh the
+     * {@code refs/pull-requests/*} references so once done for a given pair of commits it need not be repeated.
+     */
+    private static final Cache<String, Boolean> cachedCanMerge = new Cache<>(1, DAYS, 10000);
+    private static ExecutorService requestExecutor;
 
     /**
      * Repository owner.
@@ -299,18 +361,92 @@ public class BitbucketServerAPIClient implements BitbucketApi {
             if (endpointConfig instanceof BitbucketServerEndpoint && ((BitbucketServerEndpoint)endpointConfig).isCallCanMerge()) {
                 // This is required for Bitbucket Server to update the refs/pull-requests/* references
                 // See https://community.atlassian.com/t5/Bitbucket-questions/Change-pull-request-refs-after-Commit-instead-of-after-Approval/qaq-p/194702#M6829
-                for (BitbucketServerPullRequest pullRequest : pullRequests) {
-                    pullRequest.setCanMerge(getPullRequestCanMergeById(Integer.parseInt(pullRequest.getId())));
-                }
+                refreshCanMerge(pullRequests);
             }
-            
+
             return pullRequests;
         } catch (IOException e) {
             throw new IOException("I/O error when accessing URL: " + url, e);
         }
     }
 
-    private boolean getPullRequestCanMergeById(@NonNull Integer id) throws IOException {
+    /**
+     * Calls "can merge" on the pull requests whose source or target commit changed since the last time we called it
+     * and reuses the previous answer for the others. The calls are run with bounded concurrency.
+     *
+     * @param pullRequests the pull requests.
+     * @throws IOException if there was a network communications error.
+     * @throws InterruptedException if interrupted while waiting on remote communications.
+     */
+    void refreshCanMerge(@NonNull List<BitbucketServerPullRequest> pullRequests)
+            throws IOException, InterruptedException {
+        final Map<String, BitbucketServerPullRequest> changed = new LinkedHashMap<>();
+        for (BitbucketServerPullRequest pullRequest : pullRequests) {
+            String key = canMergeCacheKey(pullRequest);
+            Boolean canMerge = cachedCanMerge.getIfPresent(key);
+            if (canMerge != null) {
+                pullRequest.setCanMerge(canMerge);
+            } else {
+                changed.put(key, pullRequest);
+            }
+        }
+        if (changed.isEmpty()) {
+            return;
+        }
+        List<Callable<Boolean>> tasks = new ArrayList<>(changed.size());
+        for (final BitbucketServerPullRequest pullRequest : changed.values()) {
+            tasks.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return getPullRequestCanMergeById(Integer.parseInt(pullRequest.getId()));
+                }
+            });
+        }
+        List<Future<Boolean>> results = getRequestExecutor().invokeAll(tasks);
+        Iterator<Future<Boolean>> result = results.iterator();
+        for (Map.Entry<String, BitbucketServerPullRequest> entry : changed.entrySet()) {
+            Boolean canMerge;
+            try {
+                canMerge = result.next().get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException(cause);
+            }
+            entry.getValue().setCanMerge(canMerge);
+            cachedCanMerge.put(entry.getKey(), canMerge);
+        }
+    }
+
+    private String canMergeCacheKey(@NonNull BitbucketServerPullRequest pullRequest) {
+        BitbucketCommit source = pullRequest.getSource() == null ? null : pullRequest.getSource().getCommit();
+        BitbucketCommit target = pullRequest.getDestination() == null ? null : pullRequest.getDestination().getCommit();
+        return baseURL + "/" + getUserCentricOwner() + "/" + repositoryName + "#" + pullRequest.getId()
+                + "@" + (source == null ? null : source.getHash())
+                + ".." + (target == null ? null : target.getHash());
+    }
+
+    private static synchronized ExecutorService getRequestExecutor() {
+        if (requestExecutor == null) {
+            requestExecutor = Executors.newFixedThreadPool(MAX_CONCURRENT_REQUESTS,
+                    new NamingThreadFactory(new DaemonThreadFactory(), BitbucketServerAPIClient.class.getName()));
+        }
+        return requestExecutor;
+    }
+
+    /**
+     * Returns whether a pull request can be merged. Asking also has Bitbucket Server bring the
+     * {@code refs/pull-requests/<id>/merge} reference of the pull request up to date.
+     *
+     * @param id the pull request id.
+     * @return {@code true} if the pull request can be merged.
+     * @throws IOException if there was a network communications error.
+     * @since 2.2.13
+     */
+    @Restricted(NoExternalUse.class)
+    public boolean getPullRequestCanMergeById(@NonNull Integer id) throws IOException {
         String url = UriTemplate
                 .fromTemplate(API_PULL_REQUEST_MERGE_PATH)
                 .set("owner", getUserCentricOwner())
@@ -345,6 +481,21 @@ public class BitbucketServerAPIClient implements BitbucketApi {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @CheckForNull
+    public BitbucketPullRequest getOpenPullRequestById(@NonNull Integer id) throws IOException {
+        BitbucketServerPullRequest pull;
+        try {
+            pull = (BitbucketServerPullRequest) getPullRequestById(id);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        return pull.getState() == null || "OPEN".equals(pull.getState()) ? pull : null;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -400,6 +551,35 @@ public class BitbucketServerAPIClient implements BitbucketApi {
         );
     }
 
+    /**
+     * Sets the build status of several commits over a single connection. Bitbucket Server only accepts one status per
+     * request, so the statuses are still posted one by one, in order.
+     *
+     * @param statuses the statuses to post.
+     * @throws IOException if a status could not be posted, the following statuses are not posted.
+     * @since 2.2.13
+     */
+    public void postBuildStatuses(@NonNull List<BitbucketBuildStatus> statuses) throws IOException {
+        if (statuses.isEmpty()) {
+            return;
+        }
+        List<HttpPost> requests = new ArrayList<>(statuses.size());
+        for (BitbucketBuildStatus status : statuses) {
+            HttpPost request = new HttpPost(this.baseURL + UriTemplate
+                    .fromTemplate(API_COMMIT_STATUS_PATH)
+                    .set("hash", status.getHash())
+                    .expand());
+            request.setEntity(new StringEntity(JsonParser.toJson(status),
+                    ContentType.create("application/json", "UTF-8")));
+            requests.add(request);
+        }
+        try (CloseableHttpClient client = getHttpClient(getMethodHost(requests.get(0)))) {
+            for (HttpPost request : requests) {
+                doRequest(client, request);
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -454,14 +634,76 @@ public class BitbucketServerAPIClient implements BitbucketApi {
         return getServerBranches(API_BRANCHES_PATH);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @NonNull
+    public List<BitbucketServerBranch> getBranches(@NonNull String nameFilter)
+            throws IOException, InterruptedException {
+        UriTemplate template = UriTemplate
+                .fromTemplate(API_BRANCHES_FILTERED_PATH)
+                .set("owner", getUserCentricOwner())
+                .set("repo", repositoryName)
+                .set("details", true)
+                .set("filterText", nameFilter)
+                .set("start", 0)
+                .set("limit", DEFAULT_PAGE_LIMIT);
+        return getServerBranches(template);
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @CheckForNull
+    public BitbucketServerBranch getBranch(@NonNull String branchName) throws IOException, InterruptedException {
+        return getServerBranch(API_BRANCHES_FILTERED_PATH, branchName);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @CheckForNull
+    public BitbucketServerBranch getTag(@NonNull String tagName) throws IOException, InterruptedException {
+        return getServerBranch(API_TAGS_FILTERED_PATH, tagName);
+    }
+
+    @CheckForNull
+    private BitbucketServerBranch getServerBranch(String apiPath, String name)
+            throws IOException, InterruptedException {
+        // filterText is a substring match so we still need to pick the exact match from the (short) result
+        UriTemplate template = UriTemplate
+                .fromTemplate(apiPath)
+                .set("owner", getUserCentricOwner())
+                .set("repo", repositoryName)
+                .set("details", true)
+                .set("filterText", name)
+                .set("start", 0)
+                .set("limit", DEFAULT_PAGE_LIMIT);
+        for (BitbucketServerBranch branch : getServerBranches(template)) {
+            if (name.equals(branch.getName())) {
+                return branch;
+            }
+        }
+        return null;
+    }
 
     private List<BitbucketServerBranch> getServerBranches(String apiPath) throws IOException, InterruptedException {
         UriTemplate template = UriTemplate
                 .fromTemplate(apiPath)
                 .set("owner", getUserCentricOwner())
                 .set("repo", repositoryName)
+                .set("details", true)
                 .set("start", 0)
                 .set("limit", DEFAULT_PAGE_LIMIT);
+        return getServerBranches(template);
+    }
+
+    private List<BitbucketServerBranch> getServerBranches(UriTemplate template)
+            throws IOException, InterruptedException {
         String url = template.expand();
 
         try {
@@ -482,24 +724,41 @@ public class BitbucketServerAPIClient implements BitbucketApi {
                 page = JsonParser.toJava(response, BitbucketServerBranches.class);
                 branches.addAll(page.getValues());
             }
-            for (final BitbucketServerBranch branch: branches) {
-                branch.setTimestampClosure(new Callable<Long>() {
-                    @Override
-                    public Long call() throws Exception {
-                        BitbucketCommit commit = resolveCommit(branch.getRawNode());
-                        if (commit != null) {
-                            return commit.getDateMillis();
-                        }
-                        return 0L;
-                    }
-                });
-            }
+            setTimestampClosures(branches);
             return branches;
         } catch (IOException e) {
             throw new IOException("I/O error when accessing URL: " + url, e);
         }
     }
 
+    /**
+     * Lets the refs whose listing did not include the tip commit timestamp (tags, or servers that do not return
+     * branch metadata) resolve it when it is first asked for, resolving each distinct commit of the listing once.
+     *
+     * @param branches the refs.
+     */
+    private void setTimestampClosures(@NonNull List<BitbucketServerBranch> branches) {
+        final Map<String, Long> resolved = new ConcurrentHashMap<>();
+        for (final BitbucketServerBranch branch : branches) {
+            if (branch.isTimestampKnown() || branch.getRawNode() == null) {
+                continue;
+            }
+            branch.setTimestampClosure(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    String hash = branch.getRawNode();
+                    Long timestamp = resolved.get(hash);
+                    if (timestamp == null) {
+                        BitbucketCommit commit = resolveCommit(hash);
+                        timestamp = commit == null ? 0L : commit.getDateMillis();
+                        resolved.put(hash, timestamp);
+                    }
+                    return timestamp;
+                }
+            });
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
     public BitbucketCommit resolveCommit(@NonNull String hash) throws IOException {
@@ -604,6 +863,25 @@ public class BitbucketServerAPIClient implements BitbucketApi {
                 .fromTemplate(API_REPOSITORIES_PATH)
                 .set("owner", getUserCentricOwner())
                 .set("start", 0);
+        return getRepositories(template);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Bitbucket Server only searches repositories by their display name, which may not contain the text even though
+     * the slug does, so all the repositories are listed.
+     */
+    @NonNull
+    @Override
+    public List<BitbucketServerRepository> getRepositories(@CheckForNull UserRoleInRepository role,
+                                                           @NonNull String nameFilter)
+            throws IOException, InterruptedException {
+        return getRepositories(role);
+    }
+
+    private List<BitbucketServerRepository> getRepositories(UriTemplate template)
+            throws IOException, InterruptedException {
         String url = template.expand();
 
         try {
@@ -652,7 +930,7 @@ public class BitbucketServerAPIClient implements BitbucketApi {
         HttpGet httpget = new HttpGet(this.baseURL + path);
 
         try(CloseableHttpClient client = getHttpClient(getMethodHost(httpget));
-                CloseableHttpResponse response = client.execute(httpget, context)) {
+                CloseableHttpResponse response = client.execute(httpget, newRequestContext())) {
             String content;
             long len = response.getEntity().getContentLength();
             if (len == 0) {
@@ -688,6 +966,71 @@ public class BitbucketServerAPIClient implements BitbucketApi {
         }
     }
 
+    /**
+     * Caller's responsible to close the InputStream.
+     */
+    private InputStream getRequestAsInputStream(String path) throws IOException {
+        HttpGet httpget = new HttpGet(this.baseURL + path);
+        CloseableHttpClient client = getHttpClient(getMethodHost(httpget));
+        CloseableHttpResponse response = null;
+        try {
+            response = client.execute(httpget, newRequestContext());
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode == HttpStatus.SC_NOT_FOUND) {
+                throw new FileNotFoundException("URL: " + path);
+            }
+            if (statusCode != HttpStatus.SC_OK) {
+                throw new BitbucketRequestException(statusCode,
+                        "HTTP request error. Status: " + statusCode
+                                + ": " + response.getStatusLine().getReasonPhrase() + ".\n" + response);
+            }
+            InputStream content = new ResponseInputStream(response, client);
+            response = null;
+            client = null;
+            return content;
+        } catch (BitbucketRequestException | FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new IOException("Communication error for url: " + path, e);
+        } finally {
+            IOUtils.closeQuietly(response);
+            IOUtils.closeQuietly(client);
+        }
+    }
+
+    /**
+     * The content of a response, closing the response and its client once closed. Closing the response before the
+     * content is fully read drops the connection rather than reading the rest of the content.
+     */
+    static class ResponseInputStream extends FilterInputStream {
+        private final CloseableHttpResponse response;
+        private final CloseableHttpClient client;
+
+        ResponseInputStream(CloseableHttpResponse response, CloseableHttpClient client) throws IOException {
+            super(response.getEntity().getContent());
+            this.response = response;
+            this.client = client;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                response.close();
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    /**
+     * GET requests may run concurrently, so each one gets its own context layered over the shared credentials.
+     */
+    @CheckForNull
+    private HttpClientContext newRequestContext() {
+        HttpClientContext context = this.context;
+        return context == null ? null : HttpClientContext.adapt(new BasicHttpContext(context));
+    }
+
     /**
      * Create HttpClient from given host/port
      * @param host must be of format: scheme://host:port. e.g. http://localhost:7990
@@ -789,14 +1132,19 @@ public class BitbucketServerAPIClient implements BitbucketApi {
     }
 
     private String doRequest(HttpRequestBase request) throws IOException {
+        try (CloseableHttpClient client = getHttpClient(getMethodHost(request))) {
+            return doRequest(client, request);
+        }
+    }
+
+    private String doRequest(CloseableHttpClient client, HttpRequestBase request) throws IOException {
         RequestConfig.Builder requestConfig = RequestConfig.custom();
         requestConfig.setConnectTimeout(10 * 1000);
         requestConfig.setConnectionRequestTimeout(60 * 1000);
         requestConfig.setSocketTimeout(60 * 1000);
         request.setConfig(requestConfig.build());
 
-        try(CloseableHttpClient client = getHttpClient(getMethodHost(request));
-                CloseableHttpResponse response = client.execute(request, context)) {
+        try (CloseableHttpResponse response = client.execute(request, context)) {
             if (response.getStatusLine().getStatusCode() == HttpStatus.SC_NO_CONTENT) {
                 EntityUtils.consume(response.getEntity());
                 // 204, no content
@@ -862,7 +1210,7 @@ public class BitbucketServerAPIClient implements BitbucketApi {
                 .set("owner", getUserCentricOwner())
                 .set("repo", repositoryName)
                 .set("path", directory.getPath().split(Operator.PATH.getSeparator()))
-                .set("at", directory.getRef())
+                .set("at", revisionOf(directory))
                 .set("start", start)
                 .set("limit", 500);
         String url = template.expand();
@@ -872,17 +1220,175 @@ public class BitbucketServerAPIClient implements BitbucketApi {
         List<Map> values = (List<Map>) page.get("values");
         collectFileAndDirectories(directory, values, files);
         while (!(boolean)page.get("isLastPage")){
-            start += (int) content.get("size");
+            // the size is that of the page of children, not of the directory itself
+            start += (int) page.get("size");
             url = template
                     .set("start", start)
                     .expand();
             response = getRequest(url);
             content = JsonParser.mapper.readValue(response, new TypeReference<Map<String,Object>>(){});
             page = (Map) content.get("children");
+            values = (List<Map>) page.get("values");
+            collectFileAndDirectories(directory, values, files);
         }
         return files;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The files are listed by path, from which the directories are implied.
+     */
+    @NonNull
+    @Override
+    public Iterable<SCMFile> getDirectoryTree(@NonNull BitbucketSCMFile directory)
+            throws IOException, InterruptedException {
+        UriTemplate template = UriTemplate
+                .fromTemplate(API_FILES_PATH)
+                .set("owner", getUserCentricOwner())
+                .set("repo", repositoryName)
+                .set("path", directory.getPath().split(Operator.PATH.getSeparator()))
+                .set("at", revisionOf(directory))
+                .set("start", 0)
+                .set("limit", FILES_PAGE_LIMIT);
+        BitbucketSCMFileTree tree = new BitbucketSCMFileTree(directory);
+        Map<String, Object> page;
+        do {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            page = JsonParser.mapper.readValue(getRequest(template.expand()),
+                    new TypeReference<Map<String, Object>>(){});
+            for (String path : (List<String>) page.get("values")) {
+                // the paths are relative to the listed directory
+                tree.add(path, SCMFile.Type.REGULAR_FILE, directory.getHash());
+            }
+            template.set("start", page.get("nextPageStart"));
+        } while (!(boolean) page.get("isLastPage"));
+        return tree.getFiles();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @NonNull
+    @Override
+    public InputStream getDirectoryArchive(@NonNull BitbucketSCMFile directory)
+            throws IOException, InterruptedException {
+        if (ARCHIVE_UNSUPPORTED.contains(baseURL)) {
+            throw new FileNotFoundException(baseURL + " does not provide archives");
+        }
+        UriTemplate template = UriTemplate
+                .fromTemplate(API_ARCHIVE_PATH)
+                .set("owner", getUserCentricOwner())
+                .set("repo", repositoryName)
+                .set("at", revisionOf(directory))
+                .set("format", "zip")
+                .set("prefix", "archive");
+        if (!directory.getPath().isEmpty()) {
+            template.set("path", directory.getPath());
+        }
+        try {
+            return getRequestAsInputStream(template.expand());
+        } catch (FileNotFoundException e) {
+            LOGGER.log(Level.FINE, "{0} does not provide archives", baseURL);
+            ARCHIVE_UNSUPPORTED.add(baseURL);
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The last commits of all the files of the directory of a file are listed at once, falling back to the history of
+     * the file on servers without the last modified endpoint.
+     */
+    @NonNull
+    @Override
+    public Map<String, BitbucketServerCommit> getLastCommits(@NonNull BitbucketSCMFile file)
+            throws IOException, InterruptedException {
+        String path = file.getPath();
+        if (path.isEmpty() || LAST_MODIFIED_UNSUPPORTED.contains(baseURL)) {
+            return getFileLastCommit(file);
+        }
+        int slash = path.lastIndexOf('/');
+        String parent = slash < 0 ? "" : path.substring(0, slash + 1);
+        String url = UriTemplate
+                .fromTemplate(API_LAST_MODIFIED_PATH)
+                .set("owner", getUserCentricOwner())
+                .set("repo", repositoryName)
+                .set("path", parent.split(Operator.PATH.getSeparator()))
+                .set("at", revisionOf(file))
+                .expand();
+        Map<String, Object> content;
+        try {
+            content = JsonParser.mapper.readValue(getRequest(url), new TypeReference<Map<String, Object>>(){});
+        } catch (FileNotFoundException e) {
+            // either the directory or the commit does not exist or the server does not have the last modified endpoint
+            Map<String, BitbucketServerCommit> commits = getFileLastCommit(file);
+            if (!isLastModifiedSupported()) {
+                LOGGER.log(Level.FINE, "{0} does not list last modified files, listing the history of files instead",
+                        baseURL);
+                LAST_MODIFIED_UNSUPPORTED.add(baseURL);
+            }
+            return commits;
+        }
+        Map<String, BitbucketServerCommit> commits = new HashMap<>();
+        Map<String, Object> files = (Map<String, Object>) content.get("files");
+        if (files != null) {
+            for (Map.Entry<String, Object> entry : files.entrySet()) {
+                commits.put(parent + entry.getKey(),
+                        JsonParser.mapper.convertValue(entry.getValue(), BitbucketServerCommit.class));
+            }
+        }
+        if (!commits.containsKey(path)) {
+            // such as directories, if the server only lists files
+            commits.putAll(getFileLastCommit(file));
+        }
+        return commits;
+    }
+
+    /**
+     * Tells whether the server has the last modified endpoint, by listing the root of the default branch once.
+     */
+    private boolean isLastModifiedSupported() throws IOException {
+        if (LAST_MODIFIED_SUPPORTED.contains(baseURL)) {
+            return true;
+        }
+        String url = UriTemplate
+                .fromTemplate(API_LAST_MODIFIED_PATH)
+                .set("owner", getUserCentricOwner())
+                .set("repo", repositoryName)
+                .expand();
+        try {
+            getRequest(url);
+        } catch (FileNotFoundException e) {
+            return false;
+        }
+        LAST_MODIFIED_SUPPORTED.add(baseURL);
+        return true;
+    }
+
+    private Map<String, BitbucketServerCommit> getFileLastCommit(BitbucketSCMFile file) throws IOException {
+        UriTemplate template = UriTemplate
+                .fromTemplate(API_COMMITS_HISTORY_PATH)
+                .set("owner", getUserCentricOwner())
+                .set("repo", repositoryName)
+                .set("until", revisionOf(file))
+                .set("limit", 1);
+        if (!file.getPath().isEmpty()) {
+            template.set("path", file.getPath());
+        }
+        Map<String, Object> page = JsonParser.mapper.readValue(getRequest(template.expand()),
+                new TypeReference<Map<String, Object>>(){});
+        List<Object> values = (List<Object>) page.get("values");
+        if (values == null || values.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return Collections.singletonMap(file.getPath(),
+                JsonParser.mapper.convertValue(values.get(0), BitbucketServerCommit.class));
+    }
+
     private void collectFileAndDirectories(BitbucketSCMFile parent, List<Map> values, List<SCMFile> files) {
         for(Map file:values) {
             String type = (String) file.get("type");
@@ -894,15 +1400,50 @@ public class BitbucketServerAPIClient implements BitbucketApi {
                 fileType = SCMFile.Type.DIRECTORY;
             }
             if(components.size() > 0 && fileType != null){
-                // revision is set to null as fetched values from server API do not give us revision hash
-                // Later on hash is not needed anyways when file content is fetched from server API
-                files.add(new BitbucketSCMFile(parent, components.get(0), fileType, null));
+                // the files are listed at the revision of their parent
+                files.add(new BitbucketSCMFile(parent, components.get(0), fileType, parent.getHash()));
             }
         }
     }
 
+    /**
+     * Returns the commit to browse a file at: its hash when known, so that the content matches the revision, or else
+     * its branch or tag.
+     */
+    private static String revisionOf(BitbucketSCMFile file) {
+        return file.getHash() != null ? file.getHash() : file.getRef();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The content is streamed from the raw endpoint, falling back to paging through the lines of the file on servers
+     * without that endpoint.
+     */
     @Override
     public InputStream getFileContent(BitbucketSCMFile file) throws IOException, InterruptedException {
+        if (RAW_UNSUPPORTED.contains(baseURL)) {
+            return getBrowsedFileContent(file);
+        }
+        String url = UriTemplate
+                .fromTemplate(API_RAW_PATH)
+                .set("owner", getUserCentricOwner())
+                .set("repo", repositoryName)
+                .set("path", file.getPath().split(Operator.PATH.getSeparator()))
+                .set("at", revisionOf(file))
+                .expand();
+        try {
+            return getRequestAsInputStream(url);
+        } catch (FileNotFoundException e) {
+            // either the file does not exist or the server does not have the raw endpoint
+            InputStream content = getBrowsedFileContent(file);
+            LOGGER.log(Level.FINE, "{0} does not serve raw file content, browsing files instead", baseURL);
+            RAW_UNSUPPORTED.add(baseURL);
+            return content;
+        }
+    }
+
+    private InputStream getBrowsedFileContent(BitbucketSCMFile file) throws IOException {
         List<String> lines = new ArrayList<>();
         int start=0;
         UriTemplate template = UriTemplate
@@ -910,7 +1451,7 @@ public class BitbucketServerAPIClient implements BitbucketApi {
                 .set("owner", getUserCentricOwner())
                 .set("repo", repositoryName)
                 .set("path", file.getPath().split(Operator.PATH.getSeparator()))
-                .set("at", file.getRef())
+                .set("at", revisionOf(file))
                 .set("start", start)
                 .set("limit", 500);
         String url = template.expand();
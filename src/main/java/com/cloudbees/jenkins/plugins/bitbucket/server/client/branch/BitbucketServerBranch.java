@@ -24,14 +24,23 @@
 package com.cloudbees.jenkins.plugins.bitbucket.server.client.branch;
 
 import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketBranch;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.codehaus.jackson.annotate.JsonIgnore;
+import org.codehaus.jackson.annotate.JsonProperty;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 public class BitbucketServerBranch implements BitbucketBranch {
-    private static Logger LOGGER = Logger.getLogger(BitbucketServerBranch.class.getName());
+    private static final Logger LOGGER = Logger.getLogger(BitbucketServerBranch.class.getName());
+
+    /**
+     * The key of the branch listing metadata that holds the tip commit when requested with {@code details=true}.
+     */
+    private static final String LATEST_COMMIT_METADATA =
+            "com.atlassian.bitbucket.server.bitbucket-branch:latest-commit-metadata";
 
     private String displayId;
 
@@ -64,7 +73,18 @@ public class BitbucketServerBranch implements BitbucketBranch {
 
     @Override
     public long getDateMillis() {
-        return timestamp();
+        return getTimestamp();
+    }
+
+    /**
+     * Returns {@code true} if the timestamp of the tip commit is known.
+     *
+     * @return {@code true} if the timestamp of the tip commit is known.
+     */
+    @JsonIgnore
+    @Restricted(NoExternalUse.class)
+    public boolean isTimestampKnown() {
+        return timestamp != null;
     }
 
     public void setDisplayId(String displayId) {
@@ -95,17 +115,33 @@ public class BitbucketServerBranch implements BitbucketBranch {
     private long timestamp() {
         if (timestamp == null) {
             if (timestampClosure == null) {
+                return 0L;
+            }
+            try {
+                timestamp = timestampClosure.call();
+            } catch (Exception e) {
+                LOGGER.log(Level.FINER, "Could not determine timestamp", e);
                 timestamp = 0L;
-            } else {
-                try {
-                    timestamp = timestampClosure.call();
-                } catch (Exception e) {
-                    LOGGER.log(Level.FINER, "Could not determine timestamp", e);
-                    timestamp = 0L;
-                }
             }
         }
         return timestamp;
     }
 
+    /**
+     * Picks the tip commit timestamp out of the metadata that Bitbucket Server adds to branch listings.
+     *
+     * @param metadata the branch metadata.
+     */
+    @JsonProperty("metadata")
+    @Restricted(NoExternalUse.class)
+    public void setMetadata(Map<String, Object> metadata) {
+        Object commit = metadata == null ? null : metadata.get(LATEST_COMMIT_METADATA);
+        if (commit instanceof Map) {
+            Object authorTimestamp = ((Map) commit).get("authorTimestamp");
+            if (authorTimestamp instanceof Number) {
+                timestamp = ((Number) authorTimestamp).longValue();
+            }
+        }
+    }
+
 }
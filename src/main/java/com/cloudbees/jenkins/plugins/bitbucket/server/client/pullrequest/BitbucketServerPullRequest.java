@@ -47,6 +47,8 @@ public class BitbucketServerPullRequest implements BitbucketPullRequest {
 
     private String title;
 
+    private String state;
+
     private String link;
 
     private String authorLogin;
@@ -89,6 +91,14 @@ public class BitbucketServerPullRequest implements BitbucketPullRequest {
         return this.title;
     }
 
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+
     // TODO: unmapped, need proper JsonProperty in the field
     @Override
     public String getLink() {
@@ -0,0 +1,223 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket;
+
+import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketBuildStatus;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class BitbucketBuildStatusOutboxTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void statusesArePostedInTheBackground() throws Exception {
+        final List<String> posted = new CopyOnWriteArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        BitbucketBuildStatusOutbox outbox = new BitbucketBuildStatusOutbox(null,
+                new BitbucketBuildStatusOutbox.Poster() {
+                    @Override
+                    public void post(String job, String repoOwner, String repository, BitbucketBuildStatus status) {
+                        posted.add(job + " " + repoOwner + "/" + repository + " " + status.getHash() + " "
+                                + status.getState());
+                        done.countDown();
+                    }
+                }, 1, 10L, 100, 0L);
+        outbox.submit("folder/job", "owner", "repo", status("abc", "SUCCESSFUL"));
+        assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+        awaitEmpty(outbox);
+        assertThat(posted, contains("folder/job owner/repo abc SUCCESSFUL"));
+    }
+
+    @Test
+    public void failedPostsAreRetried() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1);
+        BitbucketBuildStatusOutbox outbox = new BitbucketBuildStatusOutbox(null,
+                new BitbucketBuildStatusOutbox.Poster() {
+                    @Override
+                    public void post(String job, String repoOwner, String repository, BitbucketBuildStatus status)
+                            throws IOException {
+                        if (attempts.incrementAndGet() < 3) {
+                            throw new IOException("Bitbucket is down");
+                        }
+                        done.countDown();
+                    }
+                }, 1, 10L, 100, 0L);
+        outbox.submit("job", "owner", "repo", status("abc", "INPROGRESS"));
+        assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+        awaitEmpty(outbox);
+        assertThat(attempts.get(), is(3));
+    }
+
+    @Test
+    public void waitingStatusesSurviveARestart() throws Exception {
+        File file = new File(tmp.getRoot(), "outbox.xml");
+        BitbucketBuildStatusOutbox outbox = new BitbucketBuildStatusOutbox(file,
+                new BitbucketBuildStatusOutbox.Poster() {
+                    @Override
+                    public void post(String job, String repoOwner, String repository, BitbucketBuildStatus status)
+                            throws IOException {
+                        throw new IOException("Bitbucket is down");
+                    }
+                }, 1, TimeUnit.HOURS.toMillis(1), 100, 0L);
+        outbox.submit("job", "owner", "repo", status("abc", "FAILED"));
+        // as when Jenkins stops, the save is otherwise delayed
+        outbox.flush();
+
+        final List<String> posted = new CopyOnWriteArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        BitbucketBuildStatusOutbox restarted = new BitbucketBuildStatusOutbox(file,
+                new BitbucketBuildStatusOutbox.Poster() {
+                    @Override
+                    public void post(String job, String repoOwner, String repository, BitbucketBuildStatus status) {
+                        posted.add(status.getHash() + " " + status.getState() + " " + status.getKey());
+                        done.countDown();
+                    }
+                }, 1, 10L, 100, 0L);
+        restarted.load();
+        assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+        awaitEmpty(restarted);
+        // the key is not hashed a second time
+        assertThat(posted, contains("abc FAILED " + status("abc", "FAILED").getKey()));
+    }
+
+    @Test
+    public void waitingStatusesAreSavedInTheBackground() throws Exception {
+        File file = new File(tmp.getRoot(), "outbox.xml");
+        BitbucketBuildStatusOutbox outbox = new BitbucketBuildStatusOutbox(file,
+                new BitbucketBuildStatusOutbox.Poster() {
+                    @Override
+                    public void post(String job, String repoOwner, String repository, BitbucketBuildStatus status)
+                            throws IOException {
+                        throw new IOException("Bitbucket is down");
+                    }
+                }, 1, TimeUnit.HOURS.toMillis(1), 100, 0L);
+        for (int i = 0; i < 100; i++) {
+            outbox.submit("job", "owner", "repo", status("commit" + i, "INPROGRESS"));
+        }
+
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (!file.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertThat(file.exists(), is(true));
+    }
+
+    @Test
+    public void identicalStatusesArePostedOnce() throws Exception {
+        final List<String> posted = new CopyOnWriteArrayList<>();
+        BitbucketBuildStatusOutbox outbox = new BitbucketBuildStatusOutbox(null,
+                new BitbucketBuildStatusOutbox.Poster() {
+                    @Override
+                    public void post(String job, String repoOwner, String repository, BitbucketBuildStatus status) {
+                        posted.add(status.getHash() + " " + status.getState());
+                    }
+                }, 1, 10L, 100, 0L);
+        outbox.submit("job", "owner", "repo", status("abc", "INPROGRESS"));
+        awaitEmpty(outbox);
+        outbox.submit("job", "owner", "repo", status("abc", "INPROGRESS"));
+        outbox.submit("job", "owner", "repo", status("def", "INPROGRESS"));
+        awaitEmpty(outbox);
+        assertThat(posted, contains("abc INPROGRESS", "def INPROGRESS"));
+    }
+
+    @Test
+    public void newerStatusesSupersedeWaitingOnes() throws Exception {
+        final List<String> posted = new CopyOnWriteArrayList<>();
+        final CountDownLatch posting = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        BitbucketBuildStatusOutbox outbox = new BitbucketBuildStatusOutbox(null,
+                new BitbucketBuildStatusOutbox.Poster() {
+                    @Override
+                    public void post(String job, String repoOwner, String repository, BitbucketBuildStatus status)
+                            throws InterruptedException {
+                        posting.countDown();
+                        release.await();
+                        posted.add(status.getHash() + " " + status.getState());
+                    }
+                }, 1, 10L, 100, 0L);
+        outbox.submit("job", "owner", "repo", status("abc", "INPROGRESS"));
+        assertThat(posting.await(10, TimeUnit.SECONDS), is(true));
+        // queued while the first status is being posted
+        outbox.submit("job", "owner", "repo", status("abc", "SUCCESSFUL"));
+        outbox.submit("job", "owner", "repo", status("abc", "FAILED"));
+        release.countDown();
+        awaitEmpty(outbox);
+        assertThat(posted, contains("abc INPROGRESS", "abc FAILED"));
+    }
+
+    @Test
+    public void statusesOfARepositoryArePostedTogether() throws Exception {
+        final List<String> batches = new CopyOnWriteArrayList<>();
+        BitbucketBuildStatusOutbox outbox = new BitbucketBuildStatusOutbox(null,
+                new BitbucketBuildStatusOutbox.Poster() {
+                    @Override
+                    public void post(String job, String repoOwner, String repository, BitbucketBuildStatus status) {
+                        throw new AssertionError("should be posted in a batch");
+                    }
+
+                    @Override
+                    public void postAll(String repoOwner, String repository,
+                                        List<BitbucketBuildStatusOutbox.Post> posts) {
+                        StringBuilder batch = new StringBuilder(repoOwner + "/" + repository + ":");
+                        for (BitbucketBuildStatusOutbox.Post post : posts) {
+                            batch.append(' ').append(post.getStatus().getHash());
+                        }
+                        batches.add(batch.toString());
+                    }
+                }, 1, 10L, 100, 200L);
+        outbox.submit("job", "owner", "repo", status("abc", "SUCCESSFUL"));
+        outbox.submit("job", "owner", "repo", status("def", "SUCCESSFUL"));
+        outbox.submit("job", "owner", "other", status("ghi", "SUCCESSFUL"));
+        outbox.submit("job", "owner", "repo", status("jkl", "SUCCESSFUL"));
+        awaitEmpty(outbox);
+        assertThat(batches, contains("owner/repo: abc def jkl", "owner/other: ghi"));
+    }
+
+    private static BitbucketBuildStatus status(String hash, String state) {
+        return new BitbucketBuildStatus(hash, "description", state, "http://jenkins/job/1/", "job", "job #1");
+    }
+
+    private static void awaitEmpty(BitbucketBuildStatusOutbox outbox) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (outbox.getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertThat(outbox.getPendingCount(), is(0));
+    }
+}
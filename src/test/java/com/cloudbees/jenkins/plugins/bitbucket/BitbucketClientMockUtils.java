@@ -36,6 +36,7 @@ import com.cloudbees.jenkins.plugins.bitbucket.client.pullrequest.BitbucketPullR
 import com.cloudbees.jenkins.plugins.bitbucket.client.repository.BitbucketCloudRepository;
 import com.cloudbees.jenkins.plugins.bitbucket.client.repository.BitbucketCloudTeam;
 import com.cloudbees.jenkins.plugins.bitbucket.client.repository.BitbucketRepositoryHook;
+import com.cloudbees.jenkins.plugins.bitbucket.client.repository.UserRoleInRepository;
 import com.cloudbees.jenkins.plugins.bitbucket.hooks.BitbucketSCMSourcePushHookReceiver;
 import hudson.model.TaskListener;
 import jenkins.model.Jenkins;
@@ -46,6 +47,8 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
@@ -64,6 +67,9 @@ public class BitbucketClientMockUtils {
         branches.add(getBranch("branch2", "707c59ce8292c927dddb6807fcf9c3c5e7c9b00f"));
         // add branches
         when(bitbucket.getBranches()).thenReturn(branches);
+        for (BitbucketCloudBranch branch : branches) {
+            when(bitbucket.getBranch(branch.getName())).thenReturn(branch);
+        }
         if (BitbucketRepositoryType.MERCURIAL == type) {
             withMockMercurialRepos(bitbucket);
         } else {
@@ -72,6 +78,7 @@ public class BitbucketClientMockUtils {
 
         if (includePullRequests) {
             when(bitbucket.getPullRequests()).thenReturn(Arrays.asList(getPullRequest()));
+            when(bitbucket.getOpenPullRequestById(23)).thenReturn(getPullRequest());
             when(bitbucket.checkPathExists("e851558f77c098d21af6bb8cc54a423f7cf12147", "markerfile.txt"))
                     .thenReturn(true);
             when(bitbucket.resolveSourceFullHash(any(BitbucketPullRequestValue.class)))
@@ -85,6 +92,8 @@ public class BitbucketClientMockUtils {
         // Team discovering mocks
         when(bitbucket.getTeam()).thenReturn(getTeam());
         when(bitbucket.getRepositories()).thenReturn(getRepositories(type));
+        when(bitbucket.getRepositories(any(UserRoleInRepository.class), anyString()))
+                .thenAnswer(new RepositoriesNameFilterAnswer(getRepositories(type)));
 
         // Auto-registering hooks
         if (includeWebHooks) {
@@ -108,6 +117,26 @@ public class BitbucketClientMockUtils {
         return Arrays.asList(hook);
     }
 
+    private static class RepositoriesNameFilterAnswer implements Answer<List<BitbucketCloudRepository>> {
+        private final List<BitbucketCloudRepository> repositories;
+
+        RepositoriesNameFilterAnswer(List<BitbucketCloudRepository> repositories) {
+            this.repositories = repositories;
+        }
+
+        @Override
+        public List<BitbucketCloudRepository> answer(InvocationOnMock invocation) throws Throwable {
+            String nameFilter = (String) invocation.getArguments()[1];
+            List<BitbucketCloudRepository> result = new ArrayList<>();
+            for (BitbucketCloudRepository repository : repositories) {
+                if (repository.getRepositoryName().contains(nameFilter)) {
+                    result.add(repository);
+                }
+            }
+            return result;
+        }
+    }
+
     private static List<BitbucketCloudRepository> getRepositories(
             BitbucketRepositoryType type) {
         BitbucketCloudRepository r1 = new BitbucketCloudRepository();
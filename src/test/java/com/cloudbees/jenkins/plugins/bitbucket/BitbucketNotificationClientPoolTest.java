@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket;
+
+import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketApi;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class BitbucketNotificationClientPoolTest {
+
+    @Test
+    public void returnedClientsAreReused() {
+        BitbucketNotificationClientPool pool = new BitbucketNotificationClientPool(10, 60000L);
+        CountingFactory factory = new CountingFactory();
+        BitbucketNotificationClientPool.Lease first = pool.borrow("a", factory);
+        pool.release(first);
+        BitbucketNotificationClientPool.Lease second = pool.borrow("a", factory);
+        assertThat(second.getClient(), sameInstance(first.getClient()));
+        assertThat(factory.created.get(), is(1));
+    }
+
+    @Test
+    public void clientsAreLentToOneCallerAtATime() {
+        BitbucketNotificationClientPool pool = new BitbucketNotificationClientPool(10, 60000L);
+        CountingFactory factory = new CountingFactory();
+        BitbucketNotificationClientPool.Lease first = pool.borrow("a", factory);
+        BitbucketNotificationClientPool.Lease second = pool.borrow("a", factory);
+        assertThat(second.getClient(), not(sameInstance(first.getClient())));
+        pool.release(first);
+        pool.release(second);
+        assertThat(pool.getIdleCount(), is(2));
+    }
+
+    @Test
+    public void clientsAreKeyed() {
+        BitbucketNotificationClientPool pool = new BitbucketNotificationClientPool(10, 60000L);
+        CountingFactory factory = new CountingFactory();
+        pool.release(pool.borrow("a", factory));
+        pool.borrow("b", factory);
+        assertThat(factory.created.get(), is(2));
+    }
+
+    @Test
+    public void expiredClientsAreNotReused() throws Exception {
+        BitbucketNotificationClientPool pool = new BitbucketNotificationClientPool(10, 50L);
+        CountingFactory factory = new CountingFactory();
+        BitbucketNotificationClientPool.Lease first = pool.borrow("a", factory);
+        pool.release(first);
+        Thread.sleep(100L);
+        assertThat(pool.borrow("a", factory).getClient(), not(sameInstance(first.getClient())));
+        assertThat(pool.getIdleCount(), is(0));
+    }
+
+    @Test
+    public void leastRecentlyUsedClientsAreDropped() {
+        BitbucketNotificationClientPool pool = new BitbucketNotificationClientPool(2, 60000L);
+        CountingFactory factory = new CountingFactory();
+        BitbucketNotificationClientPool.Lease a = pool.borrow("a", factory);
+        BitbucketNotificationClientPool.Lease b = pool.borrow("b", factory);
+        BitbucketNotificationClientPool.Lease c = pool.borrow("c", factory);
+        pool.release(a);
+        pool.release(b);
+        pool.release(c);
+        assertThat(pool.getIdleCount(), is(2));
+        assertThat(pool.borrow("c", factory).getClient(), sameInstance(c.getClient()));
+        assertThat(pool.borrow("b", factory).getClient(), sameInstance(b.getClient()));
+        assertThat(pool.borrow("a", factory).getClient(), not(sameInstance(a.getClient())));
+    }
+
+    private static class CountingFactory implements BitbucketNotificationClientPool.Factory {
+        private final AtomicInteger created = new AtomicInteger();
+
+        @Override
+        public BitbucketApi create() {
+            created.incrementAndGet();
+            return mock(BitbucketApi.class);
+        }
+    }
+}
@@ -34,8 +34,10 @@ import hudson.scm.SCM;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 import jenkins.plugins.git.AbstractGitSCMSource.SCMRevisionImpl;
 import jenkins.scm.api.SCMHead;
 import jenkins.scm.api.SCMHeadObserver;
@@ -56,6 +58,8 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class BranchScanningTest {
@@ -136,6 +140,20 @@ public class BranchScanningTest {
         assertEquals("PR-23", observer.getBranches().get(1));
     }
 
+    @Test
+    public void scanTestScopedToHead() throws Exception {
+        BitbucketCloudApiClient mock = BitbucketClientMockUtils.getAPIClientMock(BitbucketRepositoryType.GIT, false);
+        BitbucketSCMSource source = getBitbucketSCMSourceMock(mock);
+        SCMHeadObserverImpl observer = new SCMHeadObserverImpl();
+        observer.setIncludes(Collections.<SCMHead>singleton(new BranchSCMHead(branchName, BitbucketRepositoryType.GIT)));
+        source.fetch(observer, BitbucketClientMockUtils.getTaskListenerMock());
+
+        // branch1 must be observed without listing every branch of the repository
+        assertEquals(Collections.singletonList("branch1"), observer.getBranches());
+        verify(mock).getBranch("branch1");
+        verify(mock, never()).getBranches();
+    }
+
     @Test
     public void gitSCMTest() throws Exception {
         BitbucketMockApiFactory.add(BitbucketCloudEndpoint.SERVER_URL,
@@ -159,8 +177,10 @@ public class BranchScanningTest {
 
     private BitbucketSCMSource getBitbucketSCMSourceMock(BitbucketRepositoryType type, boolean includePullRequests)
             throws IOException, InterruptedException {
-        BitbucketCloudApiClient mock = BitbucketClientMockUtils.getAPIClientMock(type, includePullRequests);
+        return getBitbucketSCMSourceMock(BitbucketClientMockUtils.getAPIClientMock(type, includePullRequests));
+    }
 
+    private BitbucketSCMSource getBitbucketSCMSourceMock(BitbucketCloudApiClient mock) {
         BitbucketMockApiFactory.add(BitbucketCloudEndpoint.SERVER_URL, mock);
 
         BitbucketSCMSource source = new BitbucketSCMSource("amuniz", "test-repos");
@@ -206,6 +226,8 @@ public class BranchScanningTest {
 
         public List<String> branches = new ArrayList<String>();
 
+        private Set<SCMHead> includes;
+
         public void observe(@NonNull SCMHead head, @NonNull SCMRevision revision) {
             branches.add(head.getName());
         }
@@ -213,5 +235,14 @@ public class BranchScanningTest {
         public List<String> getBranches() {
             return branches;
         }
+
+        public void setIncludes(Set<SCMHead> includes) {
+            this.includes = includes;
+        }
+
+        @Override
+        public Set<SCMHead> getIncludes() {
+            return includes;
+        }
     }
 }
@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket;
+
+import java.util.Arrays;
+import java.util.Collections;
+import jenkins.scm.api.trait.SCMTrait;
+import jenkins.scm.impl.trait.RegexSCMHeadFilterTrait;
+import jenkins.scm.impl.trait.RegexSCMSourceFilterTrait;
+import jenkins.scm.impl.trait.WildcardSCMHeadFilterTrait;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class NameFilterHintTest {
+
+    @Test
+    public void wildcards() {
+        assertThat(NameFilterHint.fromWildcards("*"), nullValue());
+        assertThat(NameFilterHint.fromWildcards(""), nullValue());
+        assertThat(NameFilterHint.fromWildcards("release/*"), is("release/"));
+        assertThat(NameFilterHint.fromWildcards("*feature*-x"), is("feature"));
+        assertThat(NameFilterHint.fromWildcards("master release/*"), nullValue());
+    }
+
+    @Test
+    public void regex() {
+        assertThat(NameFilterHint.fromRegex(".*"), nullValue());
+        assertThat(NameFilterHint.fromRegex("test-repos"), is("test-repos"));
+        assertThat(NameFilterHint.fromRegex("release/.*"), is("release/"));
+        assertThat(NameFilterHint.fromRegex("^feature-\\d+$"), is("feature-"));
+        assertThat(NameFilterHint.fromRegex("foo\\.bar.*"), is("foo.bar"));
+        assertThat(NameFilterHint.fromRegex("hotfixes?-.*"), is("hotfixe"));
+        assertThat(NameFilterHint.fromRegex("[a-z]+-service"), is("-service"));
+        assertThat(NameFilterHint.fromRegex("master|develop"), nullValue());
+        assertThat(NameFilterHint.fromRegex("(?i)master"), nullValue());
+    }
+
+    @Test
+    public void pullRequests() {
+        assertThat(NameFilterHint.mayMatchPullRequests("PR-"), is(true));
+        assertThat(NameFilterHint.mayMatchPullRequests("R-12"), is(true));
+        assertThat(NameFilterHint.mayMatchPullRequests("-merge"), is(true));
+        assertThat(NameFilterHint.mayMatchPullRequests("e"), is(true));
+        assertThat(NameFilterHint.mayMatchPullRequests("release/"), is(false));
+        assertThat(NameFilterHint.mayMatchPullRequests("feature"), is(false));
+    }
+
+    @Test
+    public void traits() {
+        assertThat(NameFilterHint.forHeads(Arrays.<SCMTrait<?>>asList(
+                new WildcardSCMHeadFilterTrait("*", ""),
+                new RegexSCMHeadFilterTrait("release/.*")
+        )), is("release/"));
+        assertThat(NameFilterHint.forHeads(Collections.<SCMTrait<?>>singletonList(
+                new BranchDiscoveryTrait(true, false)
+        )), nullValue());
+        assertThat(NameFilterHint.forSources(Collections.<SCMTrait<?>>singletonList(
+                new RegexSCMSourceFilterTrait("test-.*")
+        )), is("test-"));
+    }
+}
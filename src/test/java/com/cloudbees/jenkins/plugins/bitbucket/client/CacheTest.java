@@ -24,6 +24,7 @@
 package com.cloudbees.jenkins.plugins.bitbucket.client;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -78,4 +79,27 @@ public class CacheTest {
         cache.get("another key", callable);
         assertEquals(10, cache.size());
     }
+
+    @Test
+    public void ensure_put_and_get_if_present() throws Exception {
+        final Cache<String, Long> cache = new Cache<>(5, TimeUnit.HOURS);
+        final Callable<Long> callable = mock(Callable.class);
+
+        assertNull(cache.getIfPresent("a key"));
+        cache.put("a key", 1L);
+        assertEquals(Long.valueOf(1L), cache.getIfPresent("a key"));
+        assertEquals(Long.valueOf(1L), cache.get("a key", callable));
+
+        verifyNoMoreInteractions(callable);
+    }
+
+    @Test
+    public void ensure_get_if_present_expires() throws Exception {
+        final Cache<String, Long> cache = new Cache<>(1, TimeUnit.NANOSECONDS);
+
+        cache.put("a key", 1L);
+        Thread.sleep(200);
+        assertNull(cache.getIfPresent("a key"));
+        assertEquals(0, cache.size());
+    }
 }
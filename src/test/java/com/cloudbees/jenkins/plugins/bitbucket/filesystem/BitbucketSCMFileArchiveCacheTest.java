@@ -0,0 +1,176 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.filesystem;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+import jenkins.scm.api.SCMFile;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class BitbucketSCMFileArchiveCacheTest {
+
+    private static final String HASH = "0123456789abcdef0123456789abcdef01234567";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void servesDirectoryFromArchive() throws Exception {
+        BitbucketSCMFileArchiveCache cache = new BitbucketSCMFileArchiveCache(tmp.newFolder(), 10, 1024 * 1024);
+        byte[] zip = zip("owner-repo-0123456/", "Jenkinsfile", "vars/build.groovy", "vars/deploy.groovy",
+                "src/org/example/Build.groovy");
+
+        BitbucketSCMFileArchive archive = cache.fetch("rev", "vars", loader(zip));
+        assertThat(archive, notNullValue());
+        assertThat(cache.find("rev", "vars"), is(archive));
+        assertThat(cache.find("rev", "vars/build.groovy"), is(archive));
+        assertThat(cache.find("rev", "Jenkinsfile"), nullValue());
+        assertThat(cache.find("other", "vars/build.groovy"), nullValue());
+
+        BitbucketSCMFile root = new BitbucketSCMFile(null, null, "master", HASH);
+        BitbucketSCMFileTree tree = new BitbucketSCMFileTree(
+                new BitbucketSCMFile(root, "vars", SCMFile.Type.DIRECTORY, HASH));
+        archive.list(tree, HASH);
+        List<String> paths = new ArrayList<>();
+        for (SCMFile file : tree.getFiles()) {
+            paths.add(file.getPath());
+        }
+        assertThat(paths, contains("vars/build.groovy", "vars/deploy.groovy"));
+
+        try (InputStream in = archive.open("vars/build.groovy")) {
+            assertThat(IOUtils.toString(in, "UTF-8"), is("content of vars/build.groovy"));
+        }
+        try {
+            archive.open("Jenkinsfile").close();
+            throw new AssertionError("outside of the archived directory");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void skipsLargeArchives() throws Exception {
+        File dir = tmp.newFolder();
+        BitbucketSCMFileArchiveCache cache = new BitbucketSCMFileArchiveCache(dir, 10, 16);
+
+        assertThat(cache.fetch("rev", "", loader(zip("top/", "Jenkinsfile"))), nullValue());
+        assertThat(cache.find("rev", "Jenkinsfile"), nullValue());
+        assertThat(dir.list().length, is(0));
+    }
+
+    @Test
+    public void remembersLargeArchives() throws Exception {
+        BitbucketSCMFileArchiveCache cache = new BitbucketSCMFileArchiveCache(tmp.newFolder(), 10, 16);
+        AtomicInteger loads = new AtomicInteger();
+
+        assertThat(cache.fetch("rev", "", loader(zip("top/", "Jenkinsfile"), loads)), nullValue());
+        assertThat(cache.fetch("rev", "", loader(zip("top/", "Jenkinsfile"), loads)), nullValue());
+        assertThat(loads.get(), is(1));
+        assertThat(cache.fetch("other", "", loader(zip("top/", "Jenkinsfile"), loads)), nullValue());
+        assertThat(loads.get(), is(2));
+    }
+
+    @Test
+    public void remembersUnreadableArchives() throws Exception {
+        File dir = tmp.newFolder();
+        BitbucketSCMFileArchiveCache cache = new BitbucketSCMFileArchiveCache(dir, 10, 1024 * 1024);
+        AtomicInteger loads = new AtomicInteger();
+        byte[] page = "<html>Log in</html>".getBytes(StandardCharsets.UTF_8);
+
+        try {
+            cache.fetch("rev", "", loader(page, loads));
+            throw new AssertionError("not an archive");
+        } catch (ZipException e) {
+            // expected
+        }
+        assertThat(dir.list().length, is(0));
+        assertThat(cache.fetch("rev", "", loader(page, loads)), nullValue());
+        assertThat(loads.get(), is(1));
+    }
+
+    @Test
+    public void discardsLeastRecentlyUsedArchives() throws Exception {
+        File dir = tmp.newFolder();
+        BitbucketSCMFileArchiveCache cache = new BitbucketSCMFileArchiveCache(dir, 2, 1024 * 1024);
+        byte[] zip = zip("top/", "a/file", "b/file", "c/file");
+
+        cache.fetch("rev", "a", loader(zip));
+        cache.fetch("rev", "b", loader(zip));
+        cache.find("rev", "a");
+        cache.fetch("rev", "c", loader(zip));
+
+        assertThat(cache.find("rev", "a/file"), notNullValue());
+        assertThat(cache.find("rev", "b/file"), nullValue());
+        assertThat(cache.find("rev", "c/file"), notNullValue());
+        assertThat(dir.list().length, is(2));
+    }
+
+    private static byte[] zip(String top, String... paths) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(buf)) {
+            out.putNextEntry(new ZipEntry(top));
+            out.closeEntry();
+            for (String path : paths) {
+                out.putNextEntry(new ZipEntry(top + path));
+                out.write(("content of " + path).getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+        return buf.toByteArray();
+    }
+
+    private static BitbucketSCMFileCache.Loader loader(final byte[] content) {
+        return loader(content, new AtomicInteger());
+    }
+
+    private static BitbucketSCMFileCache.Loader loader(final byte[] content, final AtomicInteger loads) {
+        return new BitbucketSCMFileCache.Loader() {
+            @Override
+            public InputStream load() {
+                loads.incrementAndGet();
+                return new ByteArrayInputStream(content);
+            }
+        };
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.filesystem;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.Matchers.arrayWithSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class BitbucketSCMFileCacheTest {
+
+    private static final String SERVER = "https://bitbucket.example.com";
+
+    private static final String HASH = "0123456789abcdef0123456789abcdef01234567";
+
+    private static final String OTHER_HASH = "fedcba9876543210fedcba9876543210fedcba98";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void loadsOncePerCommitAndPath() throws Exception {
+        BitbucketSCMFileCache cache = new BitbucketSCMFileCache(tmp.getRoot(), 1024, 1024);
+        CountingLoader loader = new CountingLoader("pipeline {}");
+
+        assertThat(read(cache, HASH, "Jenkinsfile", loader), is("pipeline {}"));
+        assertThat(read(cache, HASH, "Jenkinsfile", loader), is("pipeline {}"));
+        assertThat(loader.loads.get(), is(1));
+
+        read(cache, OTHER_HASH, "Jenkinsfile", loader);
+        read(cache, HASH, "vars/build.groovy", loader);
+        assertThat(loader.loads.get(), is(3));
+        assertThat(cache.getTotalBytes(), is(33L));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        BitbucketSCMFileCache cache = new BitbucketSCMFileCache(tmp.getRoot(), 20, 20);
+        CountingLoader loader = new CountingLoader("0123456789");
+
+        read(cache, HASH, "a", loader);
+        read(cache, HASH, "b", loader);
+        read(cache, HASH, "a", loader);
+        read(cache, HASH, "c", loader);
+        assertThat(loader.loads.get(), is(3));
+        assertThat(cache.getTotalBytes(), is(20L));
+        assertThat(tmp.getRoot().listFiles(), arrayWithSize(2));
+
+        read(cache, HASH, "a", loader);
+        assertThat(loader.loads.get(), is(3));
+        read(cache, HASH, "b", loader);
+        assertThat(loader.loads.get(), is(4));
+    }
+
+    @Test
+    public void doesNotKeepLargeFiles() throws Exception {
+        BitbucketSCMFileCache cache = new BitbucketSCMFileCache(tmp.getRoot(), 1024, 5);
+        CountingLoader loader = new CountingLoader("0123456789");
+
+        assertThat(read(cache, HASH, "large", loader), is("0123456789"));
+        assertThat(read(cache, HASH, "large", loader), is("0123456789"));
+        assertThat(loader.loads.get(), is(2));
+        assertThat(cache.getTotalBytes(), is(0L));
+        assertThat(tmp.getRoot().listFiles(), arrayWithSize(0));
+    }
+
+    @Test
+    public void survivesRestart() throws Exception {
+        CountingLoader loader = new CountingLoader("pipeline {}");
+        read(new BitbucketSCMFileCache(tmp.getRoot(), 1024, 1024), HASH, "Jenkinsfile", loader);
+        assertThat(new File(tmp.getRoot(), "interrupted.tmp").createNewFile(), is(true));
+
+        BitbucketSCMFileCache restarted = new BitbucketSCMFileCache(tmp.getRoot(), 1024, 1024);
+        assertThat(read(restarted, HASH, "Jenkinsfile", loader), is("pipeline {}"));
+        assertThat(loader.loads.get(), is(1));
+        assertThat(restarted.getTotalBytes(), is(11L));
+        assertThat(tmp.getRoot().listFiles(), arrayWithSize(1));
+    }
+
+    private static String read(BitbucketSCMFileCache cache, String hash, String path, CountingLoader loader)
+            throws IOException, InterruptedException {
+        try (InputStream in = cache.open(SERVER + "\nowner/repo\n" + hash, path, loader)) {
+            return IOUtils.toString(in, "UTF-8");
+        }
+    }
+
+    private static class CountingLoader implements BitbucketSCMFileCache.Loader {
+        private final String content;
+        private final AtomicInteger loads = new AtomicInteger();
+
+        CountingLoader(String content) {
+            this.content = content;
+        }
+
+        @Override
+        public InputStream load() {
+            loads.incrementAndGet();
+            return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.filesystem;
+
+import com.cloudbees.jenkins.plugins.bitbucket.server.client.branch.BitbucketServerCommit;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class BitbucketSCMFileLastModifiedCacheTest {
+
+    @Test
+    public void recordsAllListedFiles() {
+        Map<String, BitbucketServerCommit> commits = new HashMap<>();
+        commits.put("vars/build.groovy", commit(1000L));
+        commits.put("vars/deploy.groovy", commit(2000L));
+
+        BitbucketSCMFileLastModifiedCache cache = new BitbucketSCMFileLastModifiedCache(10);
+        assertThat(cache.lastModified("rev", "vars/build.groovy"), nullValue());
+        assertThat(cache.put("rev", "vars/build.groovy", commits), is(1000L));
+
+        assertThat(cache.lastModified("rev", "vars/build.groovy"), is(1000L));
+        assertThat(cache.lastModified("rev", "vars/deploy.groovy"), is(2000L));
+        assertThat(cache.lastModified("rev", "vars/test.groovy"), nullValue());
+        assertThat(cache.lastModified("other", "vars/build.groovy"), nullValue());
+    }
+
+    @Test
+    public void recordsFileWithoutCommit() {
+        BitbucketSCMFileLastModifiedCache cache = new BitbucketSCMFileLastModifiedCache(10);
+        assertThat(cache.put("rev", "missing", Collections.<String, BitbucketServerCommit>emptyMap()), is(0L));
+
+        assertThat(cache.lastModified("rev", "missing"), is(0L));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedRevision() {
+        BitbucketSCMFileLastModifiedCache cache = new BitbucketSCMFileLastModifiedCache(2);
+        cache.put("a", "Jenkinsfile", Collections.singletonMap("Jenkinsfile", commit(1L)));
+        cache.put("b", "Jenkinsfile", Collections.singletonMap("Jenkinsfile", commit(2L)));
+        cache.lastModified("a", "Jenkinsfile");
+        cache.put("c", "Jenkinsfile", Collections.singletonMap("Jenkinsfile", commit(3L)));
+
+        assertThat(cache.lastModified("a", "Jenkinsfile"), is(1L));
+        assertThat(cache.lastModified("b", "Jenkinsfile"), nullValue());
+        assertThat(cache.lastModified("c", "Jenkinsfile"), is(3L));
+    }
+
+    private static BitbucketServerCommit commit(long dateMillis) {
+        return new BitbucketServerCommit("message", null, "0123456789abcdef0123456789abcdef01234567", dateMillis);
+    }
+}
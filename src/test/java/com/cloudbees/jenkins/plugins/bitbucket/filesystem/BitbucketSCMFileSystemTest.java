@@ -0,0 +1,241 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.filesystem;
+
+import com.cloudbees.jenkins.plugins.bitbucket.BitbucketRepositoryType;
+import com.cloudbees.jenkins.plugins.bitbucket.BranchSCMHead;
+import com.cloudbees.jenkins.plugins.bitbucket.PullRequestSCMHead;
+import com.cloudbees.jenkins.plugins.bitbucket.PullRequestSCMRevision;
+import com.cloudbees.jenkins.plugins.bitbucket.client.BitbucketCloudApiClient;
+import com.cloudbees.jenkins.plugins.bitbucket.client.branch.BitbucketCloudBranch;
+import com.cloudbees.jenkins.plugins.bitbucket.endpoints.BitbucketCloudEndpoint;
+import com.cloudbees.jenkins.plugins.bitbucket.endpoints.BitbucketServerEndpoint;
+import com.cloudbees.jenkins.plugins.bitbucket.server.client.BitbucketServerAPIClient;
+import com.cloudbees.jenkins.plugins.bitbucket.server.client.pullrequest.BitbucketServerPullRequest;
+import com.cloudbees.jenkins.plugins.bitbucket.server.client.pullrequest.BitbucketServerPullRequestDestination;
+import com.cloudbees.jenkins.plugins.bitbucket.server.client.pullrequest.BitbucketServerPullRequestSource;
+import jenkins.plugins.git.AbstractGitSCMSource;
+import jenkins.scm.api.SCMFileSystem;
+import jenkins.scm.api.SCMHead;
+import jenkins.scm.api.SCMHeadOrigin;
+import jenkins.scm.api.mixin.ChangeRequestCheckoutStrategy;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.arrayContaining;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BitbucketSCMFileSystemTest {
+
+    private static final String SOURCE_HASH = "cafebabedeadbeefcafebabedeadbeefcafebabe";
+
+    private static final String TARGET_HASH = "deadbeefcafebabedeadbeefcafebabedeadbeef";
+
+    private static final String OTHER_HASH = "0123456789abcdef0123456789abcdef01234567";
+
+    private BitbucketServerAPIClient client;
+
+    private PullRequestSCMHead head;
+
+    private PullRequestSCMRevision<AbstractGitSCMSource.SCMRevisionImpl> revision;
+
+    @Before
+    public void setUp() {
+        client = mock(BitbucketServerAPIClient.class);
+        head = new PullRequestSCMHead("PR-1", "tester", "test-repo", "feature", "1",
+                new BranchSCMHead("master", BitbucketRepositoryType.GIT), SCMHeadOrigin.DEFAULT,
+                ChangeRequestCheckoutStrategy.MERGE);
+        revision = new PullRequestSCMRevision<>(head,
+                new AbstractGitSCMSource.SCMRevisionImpl(head.getTarget(), TARGET_HASH),
+                new AbstractGitSCMSource.SCMRevisionImpl(head, SOURCE_HASH));
+    }
+
+    @Test
+    public void refOfBranchSpecifiers() {
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.refOf("master", null), is("master"));
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.refOf("*/master", null), nullValue());
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.refOf("origin/feature/x", null), is("feature/x"));
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.refOf("upstream/master", "upstream"), is("master"));
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.refOf("refs/heads/feature/x", null), is("feature/x"));
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.refOf("refs/tags/v1.0", null), is("tags/v1.0"));
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.refOf("refs/pull-requests/1/from", null), nullValue());
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.refOf("**", null), nullValue());
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.refOf("origin/release-*", null), nullValue());
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.refOf(":^origin/master$", null), nullValue());
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.refOf("${BRANCH}", null), nullValue());
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.refOf(null, null), nullValue());
+    }
+
+    @Test
+    public void repositoryOfCloudUrl() {
+        BitbucketCloudEndpoint endpoint = new BitbucketCloudEndpoint(false, null);
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.repositoryOf(endpoint, "https://bitbucket.org/tester/test-repo"),
+                arrayContaining("tester", "test-repo"));
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.repositoryOf(endpoint, "https://bitbucket.org/tester"),
+                nullValue());
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.repositoryOf(endpoint,
+                "https://bitbucket.example.com/tester/test-repo"), nullValue());
+    }
+
+    @Test
+    public void repositoryOfServerUrl() {
+        BitbucketServerEndpoint endpoint =
+                new BitbucketServerEndpoint("Dummy", "https://bitbucket.example.com", false, null);
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.repositoryOf(endpoint,
+                "https://bitbucket.example.com/projects/TST/repos/test-repo"), arrayContaining("TST", "test-repo"));
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.repositoryOf(endpoint,
+                "https://bitbucket.example.com/users/tester/repos/test-repo"), arrayContaining("~tester", "test-repo"));
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.repositoryOf(endpoint,
+                "https://bitbucket.example.com/projects/TST/browse/test-repo"), nullValue());
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.repositoryOf(endpoint,
+                "https://bitbucket.example.com/TST/test-repo"), nullValue());
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.repositoryOf(endpoint,
+                "https://bitbucket.org/projects/TST/repos/test-repo"), nullValue());
+    }
+
+    @Test
+    public void remoteOfRepository() {
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.isRemoteOf(
+                "https://bitbucket.example.com/scm/tst/test-repo.git", "test-repo"), is(true));
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.isRemoteOf(
+                "ssh://git@bitbucket.example.com:7999/tst/Test-Repo.git", "test-repo"), is(true));
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.isRemoteOf(
+                "https://bitbucket.example.com/scm/tst/other-repo.git", "test-repo"), is(false));
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.isRemoteOf(
+                "https://bitbucket.example.com/scm/tst/my-test-repo.git", "test-repo"), is(false));
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.isRemoteOf(null, "test-repo"), is(false));
+    }
+
+    @Test
+    public void cloudBranchIsReadAtItsCurrentCommit() throws Exception {
+        BitbucketCloudApiClient cloud = mock(BitbucketCloudApiClient.class);
+        when(cloud.getBranch("feature/x")).thenReturn(new BitbucketCloudBranch("feature/x", SOURCE_HASH, 0));
+
+        SCMFileSystem fs = BitbucketSCMFileSystem.BuilderImpl.buildRef(cloud, new SCMHead("feature/x"), "feature/x",
+                null, null);
+
+        assertThat(fs, notNullValue());
+        assertThat(((BitbucketSCMFile) fs.getRoot()).getRef(), is("feature/x"));
+        assertThat(((BitbucketSCMFile) fs.getRoot()).getHash(), is(SOURCE_HASH));
+    }
+
+    @Test
+    public void cloudTagIsReadAtItsCommit() throws Exception {
+        BitbucketCloudApiClient cloud = mock(BitbucketCloudApiClient.class);
+        when(cloud.getTag("v1.0")).thenReturn(new BitbucketCloudBranch("v1.0", TARGET_HASH, 0));
+
+        SCMFileSystem fs = BitbucketSCMFileSystem.BuilderImpl.buildRef(cloud, new SCMHead("tags/v1.0"), "tags/v1.0",
+                null, null);
+
+        assertThat(fs, notNullValue());
+        assertThat(((BitbucketSCMFile) fs.getRoot()).getHash(), is(TARGET_HASH));
+    }
+
+    @Test
+    public void cloudMissingBranchIsNotRead() throws Exception {
+        BitbucketCloudApiClient cloud = mock(BitbucketCloudApiClient.class);
+
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.buildRef(cloud, new SCMHead("gone"), "gone", null, null),
+                nullValue());
+    }
+
+    @Test
+    public void cloudRevisionIsNotResolvedAgain() throws Exception {
+        BitbucketCloudApiClient cloud = mock(BitbucketCloudApiClient.class);
+        SCMHead branch = new SCMHead("master");
+
+        SCMFileSystem fs = BitbucketSCMFileSystem.BuilderImpl.buildRef(cloud, branch, "master",
+                new AbstractGitSCMSource.SCMRevisionImpl(branch, OTHER_HASH), null);
+
+        assertThat(((BitbucketSCMFile) fs.getRoot()).getHash(), is(OTHER_HASH));
+        verify(cloud, never()).getBranch("master");
+    }
+
+    @Test
+    public void serverBranchIsReadAtItsHead() throws Exception {
+        SCMFileSystem fs = BitbucketSCMFileSystem.BuilderImpl.buildRef(client, new SCMHead("master"), "master", null,
+                null);
+
+        assertThat(fs, notNullValue());
+        assertThat(((BitbucketSCMFile) fs.getRoot()).getHash(), nullValue());
+        verify(client, never()).getBranch("master");
+    }
+
+    @Test
+    public void mergeOfUnchangedPullRequest() throws Exception {
+        when(client.getPullRequestById(1)).thenReturn(pullRequest(SOURCE_HASH, TARGET_HASH));
+        when(client.getPullRequestCanMergeById(1)).thenReturn(true);
+
+        SCMFileSystem fs = BitbucketSCMFileSystem.BuilderImpl.buildMerge(client, head, revision, null);
+
+        assertThat(fs, notNullValue());
+        assertThat(((BitbucketSCMFile) fs.getRoot()).getRef(), is("refs/pull-requests/1/merge"));
+        assertThat(((BitbucketSCMFile) fs.getRoot()).getHash(), nullValue());
+    }
+
+    @Test
+    public void mergeOfStaleSource() throws Exception {
+        when(client.getPullRequestById(1)).thenReturn(pullRequest(OTHER_HASH, TARGET_HASH));
+        when(client.getPullRequestCanMergeById(1)).thenReturn(true);
+
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.buildMerge(client, head, revision, null), nullValue());
+        verify(client, never()).getPullRequestCanMergeById(1);
+    }
+
+    @Test
+    public void mergeOfStaleTarget() throws Exception {
+        when(client.getPullRequestById(1)).thenReturn(pullRequest(SOURCE_HASH, OTHER_HASH));
+        when(client.getPullRequestCanMergeById(1)).thenReturn(true);
+
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.buildMerge(client, head, revision, null), nullValue());
+        verify(client, never()).getPullRequestCanMergeById(1);
+    }
+
+    @Test
+    public void mergeOfConflictingPullRequest() throws Exception {
+        when(client.getPullRequestById(1)).thenReturn(pullRequest(SOURCE_HASH, TARGET_HASH));
+        when(client.getPullRequestCanMergeById(1)).thenReturn(false);
+
+        assertThat(BitbucketSCMFileSystem.BuilderImpl.buildMerge(client, head, revision, null), nullValue());
+    }
+
+    private static BitbucketServerPullRequest pullRequest(String sourceHash, String targetHash) {
+        BitbucketServerPullRequestSource source = new BitbucketServerPullRequestSource();
+        source.setLatestCommit(sourceHash);
+        BitbucketServerPullRequestDestination destination = new BitbucketServerPullRequestDestination();
+        destination.setLatestCommit(targetHash);
+        BitbucketServerPullRequest pull = new BitbucketServerPullRequest();
+        pull.setId("1");
+        pull.setSource(source);
+        pull.setDestination(destination);
+        return pull;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.filesystem;
+
+import java.util.ArrayList;
+import java.util.List;
+import jenkins.scm.api.SCMFile;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class BitbucketSCMFileTreeCacheTest {
+
+    private static final String HASH = "0123456789abcdef0123456789abcdef01234567";
+
+    @Test
+    public void treeImpliesDirectoriesOfFiles() {
+        BitbucketSCMFile root = new BitbucketSCMFile(null, null, "master", HASH);
+        BitbucketSCMFileTree tree = new BitbucketSCMFileTree(root);
+        tree.add("src/org/example/Build.groovy", SCMFile.Type.REGULAR_FILE, HASH);
+        tree.add("vars/build.groovy", SCMFile.Type.REGULAR_FILE, HASH);
+        tree.add("vars", SCMFile.Type.DIRECTORY, HASH);
+
+        assertThat(paths(tree.getFiles()), contains("src", "src/org", "src/org/example",
+                "src/org/example/Build.groovy", "vars", "vars/build.groovy"));
+        SCMFile file = tree.getFiles().get(3);
+        assertThat(file.getName(), is("Build.groovy"));
+        assertThat(file.getType(), is(SCMFile.Type.REGULAR_FILE));
+        assertThat(((BitbucketSCMFile) file).getHash(), is(HASH));
+    }
+
+    @Test
+    public void relativizesToListedDirectory() {
+        BitbucketSCMFile root = new BitbucketSCMFile(null, null, "master", HASH);
+        BitbucketSCMFile vars = new BitbucketSCMFile(root, "vars", SCMFile.Type.DIRECTORY, HASH);
+
+        assertThat(new BitbucketSCMFileTree(root).relativize("vars/build.groovy"), is("vars/build.groovy"));
+        assertThat(new BitbucketSCMFileTree(vars).relativize("vars/build.groovy"), is("build.groovy"));
+        assertThat(new BitbucketSCMFileTree(vars).relativize("variables/build.groovy"), nullValue());
+    }
+
+    @Test
+    public void knowsDirectoriesListedWithContent() {
+        BitbucketSCMFile root = new BitbucketSCMFile(null, null, "master", HASH);
+        BitbucketSCMFileTree tree = new BitbucketSCMFileTree(root);
+        tree.add("Jenkinsfile", SCMFile.Type.REGULAR_FILE, HASH);
+        tree.add("vars", SCMFile.Type.DIRECTORY, HASH);
+        tree.add("vars/build.groovy", SCMFile.Type.REGULAR_FILE, HASH);
+        // past the listed depth
+        tree.add("src", SCMFile.Type.DIRECTORY, HASH);
+
+        BitbucketSCMFileTreeCache cache = new BitbucketSCMFileTreeCache(10);
+        cache.put("rev", tree.getFiles());
+
+        List<BitbucketSCMFileTreeCache.Entry> children = cache.children("rev", "");
+        assertThat(children, notNullValue());
+        assertThat(names(children), contains("Jenkinsfile", "vars", "src"));
+        assertThat(children.get(1).getType(), is(SCMFile.Type.DIRECTORY));
+        assertThat(names(cache.children("rev", "vars")), contains("build.groovy"));
+        assertThat(cache.children("rev", "src"), nullValue());
+        assertThat(cache.children("other", ""), nullValue());
+    }
+
+    @Test
+    public void dropsLeastRecentlyUsedRevisions() {
+        BitbucketSCMFile root = new BitbucketSCMFile(null, null, "master", HASH);
+        BitbucketSCMFileTree tree = new BitbucketSCMFileTree(root);
+        tree.add("Jenkinsfile", SCMFile.Type.REGULAR_FILE, HASH);
+
+        BitbucketSCMFileTreeCache cache = new BitbucketSCMFileTreeCache(2);
+        cache.put("a", tree.getFiles());
+        cache.put("b", tree.getFiles());
+        cache.children("a", "");
+        cache.put("c", tree.getFiles());
+
+        assertThat(cache.children("a", ""), notNullValue());
+        assertThat(cache.children("b", ""), nullValue());
+        assertThat(cache.children("c", ""), notNullValue());
+    }
+
+    @Test
+    public void listingLargerThanCacheIsNotKept() {
+        BitbucketSCMFile root = new BitbucketSCMFile(null, null, "master", HASH);
+        BitbucketSCMFile vars = new BitbucketSCMFile(root, "vars", SCMFile.Type.DIRECTORY, HASH);
+        BitbucketSCMFileTree tree = new BitbucketSCMFileTree(vars);
+        tree.add("build.groovy", SCMFile.Type.REGULAR_FILE, HASH);
+        tree.add("deploy.groovy", SCMFile.Type.REGULAR_FILE, HASH);
+        tree.add("test.groovy", SCMFile.Type.REGULAR_FILE, HASH);
+
+        BitbucketSCMFileTreeCache cache = new BitbucketSCMFileTreeCache(2);
+        assertThat(names(cache.put("rev", tree.getFiles()).get("vars")),
+                contains("build.groovy", "deploy.groovy", "test.groovy"));
+        assertThat(cache.children("rev", "vars"), nullValue());
+    }
+
+    private static List<String> paths(List<SCMFile> files) {
+        List<String> paths = new ArrayList<>();
+        for (SCMFile file : files) {
+            paths.add(file.getPath());
+        }
+        return paths;
+    }
+
+    private static List<String> names(List<BitbucketSCMFileTreeCache.Entry> entries) {
+        List<String> names = new ArrayList<>();
+        for (BitbucketSCMFileTreeCache.Entry entry : entries) {
+            names.add(entry.getName());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.hooks;
+
+import com.cloudbees.jenkins.plugins.bitbucket.BitbucketSCMNavigator;
+import com.cloudbees.jenkins.plugins.bitbucket.BitbucketSCMSource;
+import hudson.model.Item;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import jenkins.scm.api.SCMNavigator;
+import jenkins.scm.api.SCMNavigatorOwner;
+import jenkins.scm.api.SCMSource;
+import jenkins.scm.api.SCMSourceOwner;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BitbucketSCMSourceIndexTest {
+
+    @Test
+    public void ownersAreFoundByRepositoryIgnoringCase() {
+        SCMSourceOwner first = owner(new BitbucketSCMSource("amuniz", "test-repos"));
+        SCMSourceOwner second = owner(new BitbucketSCMSource("AMuniz", "Test-Repos"));
+        SCMSourceOwner other = owner(new BitbucketSCMSource("amuniz", "other"));
+        BitbucketSCMSourceIndex index = new BitbucketSCMSourceIndex();
+        index.rebuild(Arrays.asList(first, second, other));
+
+        assertThat(index.findOwners(null, "amuniz", "test-repos"), containsInAnyOrder(first, second));
+        assertThat(index.findOwners(null, "amuniz", "other"), contains(other));
+        assertThat(index.findOwners(null, "amuniz", "missing"), empty());
+    }
+
+    @Test
+    public void ownersAreFilteredByServerUrl() {
+        BitbucketSCMSource server = new BitbucketSCMSource("amuniz", "test-repos");
+        server.setServerUrl("https://bitbucket.example.com:443/");
+        SCMSourceOwner cloudOwner = owner(new BitbucketSCMSource("amuniz", "test-repos"));
+        SCMSourceOwner serverOwner = owner(server);
+        BitbucketSCMSourceIndex index = new BitbucketSCMSourceIndex();
+        index.rebuild(Arrays.asList(cloudOwner, serverOwner));
+
+        assertThat(index.findOwners("https://bitbucket.org", "amuniz", "test-repos"), contains(cloudOwner));
+        assertThat(index.findOwners("https://BITBUCKET.example.com/", "amuniz", "test-repos"), contains(serverOwner));
+    }
+
+    @Test
+    public void updatesAndRemovalsAreReflected() {
+        List<SCMSource> sources = new ArrayList<SCMSource>();
+        sources.add(new BitbucketSCMSource("amuniz", "test-repos"));
+        SCMSourceOwner owner = mock(SCMSourceOwner.class);
+        when(owner.getSCMSources()).thenReturn(sources);
+        BitbucketSCMSourceIndex index = new BitbucketSCMSourceIndex();
+        index.rebuild(Collections.singletonList(owner));
+
+        sources.set(0, new BitbucketSCMSource("amuniz", "renamed"));
+        index.update(owner);
+        assertThat(index.findOwners(null, "amuniz", "test-repos"), empty());
+        assertThat(index.findOwners(null, "amuniz", "renamed"), contains(owner));
+
+        index.remove(owner);
+        assertThat(index.findOwners(null, "amuniz", "renamed"), empty());
+    }
+
+    @Test
+    public void repositoriesOfNavigatedOwnersAreRelevant() {
+        SCMSourceOwner source = owner(new BitbucketSCMSource("amuniz", "test-repos"));
+        SCMNavigatorOwner navigator = mock(SCMNavigatorOwner.class);
+        when(navigator.getSCMNavigators()).thenReturn(Collections.<SCMNavigator>singletonList(
+                new BitbucketSCMNavigator("CloudBeers")));
+        BitbucketSCMSourceIndex index = new BitbucketSCMSourceIndex();
+        index.rebuild(Arrays.<Item>asList(source, navigator));
+
+        assertThat(index.isRelevant("AMUNIZ", "test-repos"), is(true));
+        assertThat(index.isRelevant("amuniz", "other"), is(false));
+        assertThat(index.isRelevant("cloudbeers", "anything"), is(true));
+
+        index.remove(navigator);
+        assertThat(index.isRelevant("cloudbeers", "anything"), is(false));
+    }
+
+    private static SCMSourceOwner owner(SCMSource... sources) {
+        SCMSourceOwner owner = mock(SCMSourceOwner.class);
+        when(owner.getSCMSources()).thenReturn(Arrays.asList(sources));
+        return owner;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.hooks;
+
+import com.cloudbees.jenkins.plugins.bitbucket.client.events.BitbucketCloudPushEvent;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class BranchSnapshotsTest {
+
+    @Test
+    public void changesSincePreviousSnapshot() {
+        BranchSnapshots snapshots = new BranchSnapshots(10);
+        assertThat(snapshots.replace("repo", heads("master", "aaa", "feature", "bbb", "gone", "ccc")), nullValue());
+
+        List<BranchSnapshots.BranchChange> changes =
+                snapshots.replace("repo", heads("master", "aaa", "feature", "ddd", "new", "eee"));
+        assertThat(changes, notNullValue());
+        assertThat(changes, hasSize(3));
+        // sorted by branch name
+        assertChange(changes.get(0), "feature", "bbb", "ddd");
+        assertChange(changes.get(1), "gone", "ccc", null);
+        assertChange(changes.get(2), "new", null, "eee");
+
+        assertThat(snapshots.replace("repo", heads("master", "aaa", "feature", "ddd", "new", "eee")), empty());
+    }
+
+    @Test
+    public void pushesWithChangesAreApplied() {
+        BranchSnapshots snapshots = new BranchSnapshots(10);
+        snapshots.replace("repo", heads("master", "aaa", "feature", "bbb"));
+
+        BitbucketCloudPushEvent.ChangeImpl update = new BitbucketCloudPushEvent.ChangeImpl();
+        update.setNew(reference("master", "fff"));
+        BitbucketCloudPushEvent.ChangeImpl delete = new BitbucketCloudPushEvent.ChangeImpl();
+        delete.setOld(reference("feature", "bbb"));
+        delete.setClosed(true);
+        snapshots.apply("repo", Arrays.asList(update, delete));
+
+        assertThat(snapshots.replace("repo", heads("master", "fff")), empty());
+    }
+
+    @Test
+    public void tagsAreNotApplied() {
+        BranchSnapshots snapshots = new BranchSnapshots(10);
+        snapshots.replace("repo", heads("master", "aaa", "v1.0", "bbb"));
+
+        BitbucketCloudPushEvent.ChangeImpl create = new BitbucketCloudPushEvent.ChangeImpl();
+        create.setNew(reference("tag", "v2.0", "ccc"));
+        create.setCreated(true);
+        BitbucketCloudPushEvent.ChangeImpl delete = new BitbucketCloudPushEvent.ChangeImpl();
+        delete.setOld(reference("tag", "v1.0", "bbb"));
+        delete.setClosed(true);
+        snapshots.apply("repo", Arrays.asList(create, delete));
+
+        // the branch named like the deleted tag is still known
+        assertThat(snapshots.replace("repo", heads("master", "aaa", "v1.0", "bbb")), empty());
+    }
+
+    @Test
+    public void leastRecentlyUsedRepositoriesAreForgotten() {
+        BranchSnapshots snapshots = new BranchSnapshots(2);
+        snapshots.replace("first", heads("master", "aaa"));
+        snapshots.replace("second", heads("master", "aaa"));
+        snapshots.replace("first", heads("master", "aaa"));
+        snapshots.replace("third", heads("master", "aaa"));
+
+        assertThat(snapshots.replace("second", heads("master", "aaa")), nullValue());
+        assertThat(snapshots.replace("third", heads("master", "aaa")), empty());
+    }
+
+    private static void assertChange(BranchSnapshots.BranchChange change, String name, String oldHash,
+                                     String newHash) {
+        assertThat(change.getName(), is(name));
+        assertThat(change.getOldHash(), is(oldHash));
+        assertThat(change.getNewHash(), is(newHash));
+    }
+
+    private static BitbucketCloudPushEvent.ReferenceImpl reference(String name, String hash) {
+        return reference("branch", name, hash);
+    }
+
+    private static BitbucketCloudPushEvent.ReferenceImpl reference(String type, String name, String hash) {
+        BitbucketCloudPushEvent.TargetImpl target = new BitbucketCloudPushEvent.TargetImpl();
+        target.setHash(hash);
+        BitbucketCloudPushEvent.ReferenceImpl reference = new BitbucketCloudPushEvent.ReferenceImpl();
+        reference.setType(type);
+        reference.setName(name);
+        reference.setTarget(target);
+        return reference;
+    }
+
+    private static Map<String, String> heads(String... nameAndHash) {
+        Map<String, String> heads = new HashMap<>();
+        for (int i = 0; i < nameAndHash.length; i += 2) {
+            heads.put(nameAndHash[i], nameAndHash[i + 1]);
+        }
+        return Collections.unmodifiableMap(heads);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.hooks;
+
+import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketHref;
+import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketRepository;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class EventHostMatcherTest {
+
+    @Test
+    public void serverUrlMatchesAnySelfLinkHostIgnoringCase() {
+        EventHostMatcher matcher = EventHostMatcher.of(repository(Collections.singletonMap("self", Arrays.asList(
+                new BitbucketHref("https://git.example.com/projects/AMUNIZ/repos/test-repos/browse"),
+                new BitbucketHref("https://BITBUCKET.example.com/projects/AMUNIZ/repos/test-repos/browse")))));
+
+        assertThat(matcher.matches("https://bitbucket.example.com"), is(true));
+        assertThat(matcher.matches("http://git.example.com:7990/bitbucket"), is(true));
+        assertThat(matcher.matches("https://other.example.com"), is(false));
+        assertThat(matcher.matches("not a url"), is(false));
+    }
+
+    @Test
+    public void everythingMatchesWithoutSelfLinks() {
+        EventHostMatcher matcher = EventHostMatcher.of(repository(null));
+
+        assertThat(matcher.matches("https://bitbucket.example.com"), is(true));
+    }
+
+    @Test
+    public void nothingMatchesWhenSelfLinksAreUnparseable() {
+        EventHostMatcher matcher = EventHostMatcher.of(repository(Collections.singletonMap("self",
+                Collections.singletonList(new BitbucketHref("::")))));
+
+        assertThat(matcher.matches("https://bitbucket.example.com"), is(false));
+    }
+
+    private static BitbucketRepository repository(Map<String, List<BitbucketHref>> links) {
+        BitbucketRepository repository = mock(BitbucketRepository.class);
+        when(repository.getLinks()).thenReturn(links);
+        return repository;
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.hooks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HookEventCoalescerTest {
+
+    private ScheduledExecutorService executor;
+
+    private List<String> fired;
+
+    private List<Boolean> completions;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadScheduledExecutor();
+        fired = Collections.synchronizedList(new ArrayList<String>());
+        completions = Collections.synchronizedList(new ArrayList<Boolean>());
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void latestEventPerKeyIsFiredOnce() throws Exception {
+        HookEventCoalescer coalescer = new HookEventCoalescer(200, executor);
+        CountDownLatch done = new CountDownLatch(2);
+
+        coalescer.submit("repo:PR-1", new Fire("PR-1@a", done));
+        coalescer.submit("repo:PR-1", new Fire("PR-1@b", done));
+        coalescer.submit("repo:PR-2", new Fire("PR-2@a", done));
+        coalescer.submit("repo:PR-1", new Fire("PR-1@c", done));
+        assertThat(coalescer.getPendingCount(), is(2));
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertThat(fired, containsInAnyOrder("PR-1@c", "PR-2@a"));
+        assertThat(coalescer.getCoalescedCount(), is(2L));
+        assertThat(coalescer.getPendingCount(), is(0));
+    }
+
+    @Test
+    public void latestChangeOfHeadWinsWhateverItsType() throws Exception {
+        HookEventCoalescer coalescer = new HookEventCoalescer(200, executor);
+        CountDownLatch done = new CountDownLatch(1);
+
+        coalescer.submit("repo:ref:branch/X", new Fire("X created", done));
+        coalescer.submit("repo:ref:branch/X", new Fire("X removed", done));
+        coalescer.submit("repo:ref:branch/X", new Fire("X created again", done));
+        assertThat(coalescer.getPendingCount(), is(1));
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertThat(fired, contains("X created again"));
+        assertThat(coalescer.getCoalescedCount(), is(2L));
+    }
+
+    @Test
+    public void disabledWindowFiresImmediately() {
+        HookEventCoalescer coalescer = new HookEventCoalescer(0, executor);
+
+        coalescer.submit("repo:PR-1", new Fire("PR-1@a", new CountDownLatch(1)));
+        coalescer.submit("repo:PR-1", new Fire("PR-1@b", new CountDownLatch(1)));
+
+        assertThat(fired, containsInAnyOrder("PR-1@a", "PR-1@b"));
+    }
+
+    @Test
+    public void processingCompletesOnceItsEventsFire() throws Exception {
+        final HookEventCoalescer coalescer = new HookEventCoalescer(200, executor);
+        final CountDownLatch done = new CountDownLatch(2);
+        Completion complete = new Completion();
+
+        coalescer.process(new Runnable() {
+            @Override
+            public void run() {
+                coalescer.submit("repo:PR-1", new Fire("PR-1@a", done));
+                coalescer.submit("repo:PR-2", new Fire("PR-2@a", done));
+            }
+        }, complete);
+        coalescer.process(new Runnable() {
+            @Override
+            public void run() {
+                coalescer.submit("repo:PR-1", new Fire("PR-1@b", done));
+            }
+        }, complete);
+        assertThat(completions, empty());
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertThat(fired, containsInAnyOrder("PR-1@b", "PR-2@a"));
+        assertThat(completions, contains(true, true));
+    }
+
+    @Test
+    public void processingWithoutEventsCompletesImmediately() {
+        HookEventCoalescer coalescer = new HookEventCoalescer(200, executor);
+
+        coalescer.process(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, new Completion());
+
+        assertThat(completions, contains(true));
+    }
+
+    @Test
+    public void failedEventCompletesAsFailed() throws Exception {
+        final HookEventCoalescer coalescer = new HookEventCoalescer(200, executor);
+
+        coalescer.process(new Runnable() {
+            @Override
+            public void run() {
+                coalescer.submit("repo:PR-1", new Runnable() {
+                    @Override
+                    public void run() {
+                        throw new IllegalStateException("expected");
+                    }
+                });
+            }
+        }, new Completion());
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertThat(coalescer.getPendingCount(), is(0));
+        assertThat(completions, contains(false));
+    }
+
+    @Test
+    public void failedProcessingCompletesAsFailed() throws Exception {
+        final HookEventCoalescer coalescer = new HookEventCoalescer(200, executor);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        try {
+            coalescer.process(new Runnable() {
+                @Override
+                public void run() {
+                    coalescer.submit("repo:PR-1", new Fire("PR-1@a", done));
+                    throw new IllegalStateException("expected");
+                }
+            }, new Completion());
+            fail("processing failure should propagate");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertThat(completions, contains(false));
+    }
+
+    private class Completion implements HookEventCoalescer.Completion {
+        @Override
+        public void completed(boolean success) {
+            completions.add(success);
+        }
+    }
+
+    private class Fire implements Runnable {
+        private final String name;
+        private final CountDownLatch done;
+
+        Fire(String name, CountDownLatch done) {
+            this.name = name;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            fired.add(name);
+            done.countDown();
+        }
+    }
+}
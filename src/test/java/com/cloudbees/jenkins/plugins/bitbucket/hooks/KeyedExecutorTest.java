@@ -0,0 +1,132 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.hooks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class KeyedExecutorTest {
+
+    private ExecutorService threads;
+
+    private List<String> ran;
+
+    @Before
+    public void setUp() {
+        threads = Executors.newFixedThreadPool(2);
+        ran = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    @After
+    public void tearDown() {
+        threads.shutdownNow();
+    }
+
+    @Test
+    public void tasksOfTheSameKeyRunInOrder() throws Exception {
+        KeyedExecutor executor = new KeyedExecutor(threads);
+        CountDownLatch done = new CountDownLatch(5);
+        for (int i = 0; i < 5; i++) {
+            executor.submit("repo", "op" + i, record("op" + i, done));
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertThat(ran, contains("op0", "op1", "op2", "op3", "op4"));
+    }
+
+    @Test
+    public void differentKeysRunInParallel() throws Exception {
+        KeyedExecutor executor = new KeyedExecutor(threads);
+        final CountDownLatch bothStarted = new CountDownLatch(2);
+        final CountDownLatch done = new CountDownLatch(2);
+        for (String key : new String[]{"first", "second"}) {
+            executor.submit(key, key, new Runnable() {
+                @Override
+                public void run() {
+                    bothStarted.countDown();
+                    try {
+                        // only returns if the other key is running at the same time
+                        if (bothStarted.await(10, TimeUnit.SECONDS)) {
+                            done.countDown();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void waitingDuplicateOperationsCollapse() throws Exception {
+        KeyedExecutor executor = new KeyedExecutor(threads);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(3);
+        executor.submit("repo", "blocker", new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                ran.add("blocker");
+                done.countDown();
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        executor.submit("repo", "register", record("register-1", done));
+        executor.submit("repo", "remove", record("remove", done));
+        executor.submit("repo", "register", record("register-2", done));
+        assertThat(executor.getWaitingCount(), is(2));
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertThat(ran, contains("blocker", "register-2", "remove"));
+    }
+
+    private Runnable record(final String name, final CountDownLatch done) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ran.add(name);
+                done.countDown();
+            }
+        };
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.hooks;
+
+import com.cloudbees.jenkins.plugins.bitbucket.server.client.repository.BitbucketServerWebhook;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class WebhookConfigurationTest {
+
+    @Test
+    public void mergeKeepsASingleConfiguration() {
+        WebhookConfiguration configuration = new WebhookConfiguration("bob, alice");
+
+        assertThat(committersToIgnore(WebhookConfiguration.merge(Collections.singletonList(configuration))),
+                is("bob, alice"));
+    }
+
+    @Test
+    public void mergeOnlyIgnoresCommittersIgnoredByAll() {
+        WebhookConfiguration merged = WebhookConfiguration.merge(Arrays.asList(
+                new WebhookConfiguration("bob, alice,carol"),
+                new WebhookConfiguration("carol,bob"),
+                new WebhookConfiguration("alice, bob , carol")));
+
+        assertThat(committersToIgnore(merged), is("bob,carol"));
+    }
+
+    @Test
+    public void mergeIgnoresNobodyWhenOneSourceIgnoresNobody() {
+        WebhookConfiguration merged = WebhookConfiguration.merge(Arrays.asList(
+                new WebhookConfiguration("bob"),
+                new WebhookConfiguration()));
+
+        assertThat(committersToIgnore(merged), nullValue());
+    }
+
+    private static String committersToIgnore(WebhookConfiguration configuration) {
+        BitbucketServerWebhook hook = new BitbucketServerWebhook();
+        hook.setCommittersToIgnore("someone");
+        return ((BitbucketServerWebhook) configuration.mergeConfiguration(hook)).getCommittersToIgnore();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.hooks;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.Matchers.arrayWithSize;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class WebhookJournalTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void unprocessedWebhooksAreRecovered() throws Exception {
+        File dir = tmp.newFolder();
+        WebhookJournal journal = new WebhookJournal(dir, 1024 * 1024);
+        long first = journal.append(HookEventType.PUSH, "{\"first\":\"é\"}", BitbucketType.CLOUD, null);
+        long second = journal.append(HookEventType.PULL_REQUEST_CREATED, "{\"second\":1}", BitbucketType.SERVER,
+                "127.0.0.1");
+        long third = journal.append(HookEventType.PUSH, "{\"third\":1}", BitbucketType.CLOUD, null);
+        journal.markProcessed(second);
+        assertThat(journal.getPendingCount(), is(2));
+
+        List<WebhookJournal.Entry> recovered = new WebhookJournal(dir, 1024 * 1024).takeRecovered();
+        assertThat(bodies(recovered), contains("{\"first\":\"é\"}", "{\"third\":1}"));
+        assertThat(recovered.get(0).getId(), is(first));
+        assertThat(recovered.get(0).getType(), is(HookEventType.PUSH));
+        assertThat(recovered.get(0).getInstanceType(), is(BitbucketType.CLOUD));
+        assertThat(recovered.get(0).getOrigin(), nullValue());
+        assertThat(recovered.get(1).getId(), is(third));
+    }
+
+    @Test
+    public void recoveredWebhooksAreOnlyReturnedOnce() throws Exception {
+        File dir = tmp.newFolder();
+        new WebhookJournal(dir, 1024 * 1024).append(HookEventType.PUSH, "{}", BitbucketType.CLOUD, null);
+
+        WebhookJournal journal = new WebhookJournal(dir, 1024 * 1024);
+        assertThat(journal.takeRecovered().size(), is(1));
+        assertThat(journal.takeRecovered().size(), is(0));
+        assertThat(journal.getPendingCount(), is(1));
+    }
+
+    @Test
+    public void processedSegmentsAreDeleted() throws Exception {
+        File dir = tmp.newFolder();
+        WebhookJournal journal = new WebhookJournal(dir, 64);
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            ids.add(journal.append(HookEventType.PUSH, "{\"change\":" + i + ",\"padding\":\"xxxxxxxxxxxxxxxx\"}",
+                    BitbucketType.CLOUD, null));
+        }
+        assertThat(dir.list().length > 1, is(true));
+        for (Long id : ids) {
+            journal.markProcessed(id);
+        }
+        assertThat(dir.list(), arrayWithSize(1));
+        assertThat(new WebhookJournal(dir, 64).takeRecovered().size(), is(0));
+    }
+
+    @Test
+    public void failedWebhooksAreSettled() throws Exception {
+        File dir = tmp.newFolder();
+        WebhookJournal journal = new WebhookJournal(dir, 64);
+        long failed = journal.append(HookEventType.PUSH, "{\"malformed\":", BitbucketType.CLOUD, null);
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            ids.add(journal.append(HookEventType.PUSH, "{\"change\":" + i + ",\"padding\":\"xxxxxxxxxxxxxxxx\"}",
+                    BitbucketType.CLOUD, null));
+        }
+        journal.markFailed(failed);
+        for (Long id : ids) {
+            journal.markProcessed(id);
+        }
+        assertThat(journal.getPendingCount(), is(0));
+        assertThat(dir.list(), arrayWithSize(1));
+        assertThat(new WebhookJournal(dir, 64).takeRecovered().size(), is(0));
+    }
+
+    @Test
+    public void partialRecordIsIgnored() throws Exception {
+        File dir = tmp.newFolder();
+        WebhookJournal journal = new WebhookJournal(dir, 1024 * 1024);
+        journal.append(HookEventType.PUSH, "{\"complete\":1}", BitbucketType.CLOUD, null);
+        journal.append(HookEventType.PUSH, "{\"partial\":1}", BitbucketType.CLOUD, null);
+        File segment = dir.listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        assertThat(bodies(new WebhookJournal(dir, 1024 * 1024).takeRecovered()), contains("{\"complete\":1}"));
+    }
+
+    private static List<String> bodies(List<WebhookJournal.Entry> entries) {
+        List<String> result = new ArrayList<>();
+        for (WebhookJournal.Entry entry : entries) {
+            result.add(entry.getBody());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.hooks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class WebhookMetricsTest {
+
+    @Test
+    public void payloadsAreCountedPerEventAndInstanceType() {
+        WebhookMetrics metrics = new WebhookMetrics(null);
+        metrics.received(HookEventType.PUSH, BitbucketType.CLOUD, 100);
+        metrics.received(HookEventType.PUSH, BitbucketType.CLOUD, 300);
+        metrics.received(HookEventType.PUSH, BitbucketType.SERVER, 50);
+
+        WebhookMetrics.StatsMXBean cloud = metrics.getStats(HookEventType.PUSH, BitbucketType.CLOUD);
+        assertThat(cloud.getCount(), is(2L));
+        assertThat(cloud.getPayloadBytesTotal(), is(400L));
+        assertThat(cloud.getPayloadBytesMax(), is(300L));
+        assertThat(metrics.getStats(HookEventType.PUSH, BitbucketType.SERVER).getCount(), is(1L));
+        assertThat(metrics.getStats(HookEventType.PULL_REQUEST_CREATED, BitbucketType.CLOUD).getCount(), is(0L));
+    }
+
+    @Test
+    public void latencyPercentilesUseBucketBounds() {
+        WebhookMetrics metrics = new WebhookMetrics(null);
+        for (int i = 1; i <= 100; i++) {
+            metrics.parsed(HookEventType.PUSH, BitbucketType.CLOUD, TimeUnit.MICROSECONDS.toNanos(100 * i));
+        }
+        WebhookMetrics.LatencySnapshot parse = metrics.getStats(HookEventType.PUSH, BitbucketType.CLOUD).getParse();
+        assertThat(parse.getCount(), is(100L));
+        assertThat(parse.getMeanMillis(), closeTo(5.05, 0.001));
+        assertThat(parse.getMaxMillis(), closeTo(10.0, 0.001));
+        assertThat(parse.getP50Millis(), closeTo(5.0, 0.001));
+        assertThat(parse.getP99Millis(), closeTo(10.0, 0.001));
+        assertThat(metrics.getStats(HookEventType.PUSH, BitbucketType.CLOUD).getEnqueue().getCount(), is(0L));
+    }
+
+    @Test
+    public void slowestBucketReportsTheMaximum() {
+        WebhookMetrics metrics = new WebhookMetrics(null);
+        metrics.enqueued(HookEventType.PUSH, BitbucketType.SERVER, TimeUnit.SECONDS.toNanos(30));
+        assertThat(metrics.getStats(HookEventType.PUSH, BitbucketType.SERVER).getEnqueue().getP50Millis(),
+                closeTo(30000.0, 0.001));
+    }
+
+    @Test
+    public void statsArePublishedAsMXBeans() throws Exception {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        WebhookMetrics metrics = new WebhookMetrics(server);
+        metrics.received(HookEventType.PUSH, BitbucketType.SERVER, 42);
+        metrics.matched(HookEventType.PUSH, BitbucketType.SERVER, TimeUnit.MILLISECONDS.toNanos(3));
+
+        ObjectName name = new ObjectName("com.cloudbees.jenkins.plugins.bitbucket:type=WebhookMetrics,event="
+                + ObjectName.quote(HookEventType.PUSH.getKey()) + ",instance=" + BitbucketType.SERVER.getKey());
+        assertThat((Long) server.getAttribute(name, "Count"), is(1L));
+        CompositeData match = (CompositeData) server.getAttribute(name, "Match");
+        assertThat((Long) match.get("count"), is(1L));
+        assertThat((Double) match.get("maxMillis"), closeTo(3.0, 0.001));
+    }
+
+    @Test
+    public void queueIsPublishedAsMXBean() throws Exception {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        WebhookMetrics metrics = new WebhookMetrics(server);
+        WebhookProcessingQueue queue = new WebhookProcessingQueue(1, 5);
+        metrics.publish(queue);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        queue.submit(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        queue.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+
+        ObjectName name = new ObjectName("com.cloudbees.jenkins.plugins.bitbucket:type=WebhookQueue");
+        try {
+            assertThat((Integer) server.getAttribute(name, "QueueDepth"), is(1));
+            assertThat((Integer) server.getAttribute(name, "Capacity"), is(5));
+            assertThat((Long) server.getAttribute(name, "OldestPendingAgeMillis") >= 0L, is(true));
+            assertThat((Long) server.getAttribute(name, "LastLagMillis") >= 0L, is(true));
+            assertThat((Long) server.getAttribute(name, "ProcessedCount"), is(0L));
+            assertThat((Long) server.getAttribute(name, "FailedCount"), is(0L));
+            assertThat((Long) server.getAttribute(name, "RejectedCount"), is(0L));
+        } finally {
+            release.countDown();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.hooks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class WebhookPayloadIdentityTest {
+
+    @Test
+    public void cloudPayload() throws Exception {
+        WebhookPayloadIdentity identity = WebhookPayloadIdentity.of(load("cloudPayload"));
+        assertThat(identity, notNullValue());
+        assertThat(identity.getOwner(), is("cloudbeers"));
+        assertThat(identity.getRepository(), is("temp"));
+    }
+
+    @Test
+    public void serverPayload() throws Exception {
+        WebhookPayloadIdentity identity = WebhookPayloadIdentity.of(load("serverPayload"));
+        assertThat(identity, notNullValue());
+        assertThat(identity.getOwner(), is("PROJECT_1"));
+        assertThat(identity.getRepository(), is("rep_1"));
+    }
+
+    @Test
+    public void repositoryAfterOtherFields() {
+        WebhookPayloadIdentity identity = WebhookPayloadIdentity.of(
+                "{\"push\":{\"changes\":[{\"repository\":{\"full_name\":\"nested/ignored\"}}]},"
+                        + "\"repository\":{\"links\":{\"self\":[]},\"full_name\":\"amuniz/test-repos\"}}");
+        assertThat(identity, notNullValue());
+        assertThat(identity.getOwner(), is("amuniz"));
+        assertThat(identity.getRepository(), is("test-repos"));
+    }
+
+    @Test
+    public void unrecognizedPayloads() {
+        assertThat(WebhookPayloadIdentity.of(""), nullValue());
+        assertThat(WebhookPayloadIdentity.of("not json"), nullValue());
+        assertThat(WebhookPayloadIdentity.of("[]"), nullValue());
+        assertThat(WebhookPayloadIdentity.of("{\"actor\":{}}"), nullValue());
+        assertThat(WebhookPayloadIdentity.of("{\"repository\":{\"full_name\":\"no-slash\"}}"), nullValue());
+        assertThat(WebhookPayloadIdentity.of("{\"repository\":{\"slug\":\"rep_1\"}}"), nullValue());
+    }
+
+    private String load(String name) throws IOException {
+        try (InputStream is = getClass().getResourceAsStream(getClass().getSimpleName() + "/" + name + ".json")) {
+            return IOUtils.toString(is, "UTF-8");
+        }
+    }
+}
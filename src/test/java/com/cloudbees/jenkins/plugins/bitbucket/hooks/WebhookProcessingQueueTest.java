@@ -0,0 +1,94 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.hooks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class WebhookProcessingQueueTest {
+
+    @Test
+    public void rejectsWhenFull() throws Exception {
+        WebhookProcessingQueue queue = new WebhookProcessingQueue(1, 1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        Runnable blocking = new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }
+        };
+        Runnable quick = new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        };
+
+        assertThat(queue.submit(blocking), is(true));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertThat(queue.submit(quick), is(true));
+        assertThat(queue.getQueueDepth(), is(1));
+        assertThat(queue.submit(quick), is(false));
+        assertThat(queue.getRejectedCount(), is(1L));
+
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertThat(queue.getQueueDepth(), is(0));
+        assertThat(queue.getOldestPendingAgeMillis(), is(0L));
+    }
+
+    @Test
+    public void countsFailures() throws Exception {
+        WebhookProcessingQueue queue = new WebhookProcessingQueue(1, 10);
+        final CountDownLatch done = new CountDownLatch(1);
+        queue.submit(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("expected");
+            }
+        });
+        queue.submit(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertThat(queue.getFailedCount(), is(1L));
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.hooks;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class WebhookReconciliationTest {
+
+    @Test
+    public void progressCountsEachRepositoryOfThePassOnce() {
+        WebhookReconciliation pass = WebhookReconciliation.start(Arrays.asList("repo-a", "repo-b", "repo-c"));
+        assertThat(WebhookReconciliation.getCurrent(), sameInstance(pass));
+        assertThat(pass.getTotal(), is(3));
+
+        WebhookReconciliation.record("repo-a", WebhookReconciliation.Outcome.CREATED);
+        WebhookReconciliation.record("repo-a", WebhookReconciliation.Outcome.UPDATED);
+        WebhookReconciliation.record("not-in-pass", WebhookReconciliation.Outcome.UPDATED);
+        assertThat(pass.getCompleted(), is(1));
+        assertThat(pass.isDone(), is(false));
+
+        WebhookReconciliation.record("repo-b", WebhookReconciliation.Outcome.DELETED_DUPLICATES);
+        WebhookReconciliation.record("repo-c", WebhookReconciliation.Outcome.FAILED);
+        assertThat(pass.isDone(), is(true));
+        assertThat(pass.getCreated(), is(1));
+        assertThat(pass.getUpdated(), is(0));
+        assertThat(pass.getDeleted(), is(1));
+        assertThat(pass.getFailed(), is(1));
+    }
+
+    @Test
+    public void updateWithDuplicatesRemovedCountsBoth() {
+        WebhookReconciliation pass = WebhookReconciliation.start(Arrays.asList("repo-a"));
+
+        WebhookReconciliation.record("repo-a", WebhookReconciliation.Outcome.UPDATED_AND_DELETED_DUPLICATES);
+        assertThat(pass.isDone(), is(true));
+        assertThat(pass.getUpdated(), is(1));
+        assertThat(pass.getDeleted(), is(1));
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.server.client;
+
+import com.cloudbees.jenkins.plugins.bitbucket.api.BitbucketCommit;
+import com.cloudbees.jenkins.plugins.bitbucket.filesystem.BitbucketSCMFile;
+import com.cloudbees.jenkins.plugins.bitbucket.server.client.pullrequest.BitbucketServerPullRequest;
+import com.cloudbees.jenkins.plugins.bitbucket.server.client.pullrequest.BitbucketServerPullRequestDestination;
+import com.cloudbees.jenkins.plugins.bitbucket.server.client.pullrequest.BitbucketServerPullRequestSource;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import jenkins.scm.api.SCMFile;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BitbucketServerAPIClientTest {
+
+    private static final String HASH_A = "0123456789abcdef0123456789abcdef01234567";
+
+    private static final String HASH_B = "cafebabedeadbeefcafebabedeadbeefcafebabe";
+
+    private static final String HASH_C = "deadbeefcafebabedeadbeefcafebabedeadbeef";
+
+    private static final String REPOSITORY_PATH = "/rest/api/1.0/projects/TST/repos/repo";
+
+    @Rule
+    public final TestName testName = new TestName();
+
+    private BitbucketServerAPIClient client;
+
+    @CheckForNull
+    private HttpServer server;
+
+    /**
+     * The body served for each path, the other paths are not found.
+     */
+    private final Map<String, String> responses = new ConcurrentHashMap<>();
+
+    private final List<String> requested = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() {
+        // the answers are cached per repository, so each test uses its own
+        client = spy(new BitbucketServerAPIClient("https://bitbucket.example.com", "TST", testName.getMethodName(),
+                null, false));
+    }
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void lastModifiedStillUsedAfterMissingDirectory() throws Exception {
+        BitbucketServerAPIClient bitbucket = serve();
+        responses.put(REPOSITORY_PATH + "/last-modified", "{\"files\":{}}");
+        responses.put(REPOSITORY_PATH + "/commits", "{\"values\":[{\"authorTimestamp\":1000}]}");
+        BitbucketSCMFile file = file(bitbucket, "dir/Jenkinsfile");
+
+        BitbucketCommit commit = bitbucket.getLastCommits(file).get("dir/Jenkinsfile");
+        assertThat(commit.getDateMillis(), is(1000L));
+        bitbucket.getLastCommits(file);
+
+        assertThat(Collections.frequency(requested, REPOSITORY_PATH + "/last-modified/dir"), is(2));
+        // probed once
+        assertThat(Collections.frequency(requested, REPOSITORY_PATH + "/last-modified"), is(1));
+    }
+
+    @Test
+    public void lastModifiedUnsupportedWhenRootNotFound() throws Exception {
+        BitbucketServerAPIClient bitbucket = serve();
+        responses.put(REPOSITORY_PATH + "/commits", "{\"values\":[{\"authorTimestamp\":1000}]}");
+        BitbucketSCMFile file = file(bitbucket, "dir/Jenkinsfile");
+
+        assertThat(bitbucket.getLastCommits(file).get("dir/Jenkinsfile").getDateMillis(), is(1000L));
+        assertThat(bitbucket.getLastCommits(file).get("dir/Jenkinsfile").getDateMillis(), is(1000L));
+
+        assertThat(Collections.frequency(requested, REPOSITORY_PATH + "/last-modified/dir"), is(1));
+        assertThat(Collections.frequency(requested, REPOSITORY_PATH + "/commits"), is(2));
+    }
+
+    @Test
+    public void fileContentStreamedFromRaw() throws Exception {
+        BitbucketServerAPIClient bitbucket = serve();
+        responses.put(REPOSITORY_PATH + "/raw/dir/Jenkinsfile", "node {\n}\n");
+
+        try (InputStream content = bitbucket.getFileContent(file(bitbucket, "dir/Jenkinsfile"))) {
+            assertThat(IOUtils.toString(content, "UTF-8"), is("node {\n}\n"));
+        }
+        assertThat(requested, not(hasItem(REPOSITORY_PATH + "/browse/dir/Jenkinsfile")));
+    }
+
+    @Test
+    public void fileContentBrowsedWithoutRaw() throws Exception {
+        BitbucketServerAPIClient bitbucket = serve();
+        responses.put(REPOSITORY_PATH + "/browse/dir/Jenkinsfile",
+                "{\"lines\":[{\"text\":\"node {\"},{\"text\":\"}\"}],\"size\":2,\"isLastPage\":true}");
+        BitbucketSCMFile file = file(bitbucket, "dir/Jenkinsfile");
+
+        try (InputStream content = bitbucket.getFileContent(file)) {
+            assertThat(IOUtils.toString(content, "UTF-8"), is("node {\n}"));
+        }
+        try (InputStream content = bitbucket.getFileContent(file)) {
+            assertThat(IOUtils.toString(content, "UTF-8"), is("node {\n}"));
+        }
+
+        // remembered as unsupported once browsing worked
+        assertThat(Collections.frequency(requested, REPOSITORY_PATH + "/raw/dir/Jenkinsfile"), is(1));
+        assertThat(Collections.frequency(requested, REPOSITORY_PATH + "/browse/dir/Jenkinsfile"), is(2));
+    }
+
+    @Test
+    public void rawStillUsedAfterMissingFile() throws Exception {
+        BitbucketServerAPIClient bitbucket = serve();
+        BitbucketSCMFile file = file(bitbucket, "dir/Jenkinsfile");
+
+        try {
+            bitbucket.getFileContent(file).close();
+            throw new AssertionError("the file does not exist");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+        responses.put(REPOSITORY_PATH + "/raw/dir/Jenkinsfile", "node {\n}\n");
+        try (InputStream content = bitbucket.getFileContent(file)) {
+            assertThat(IOUtils.toString(content, "UTF-8"), is("node {\n}\n"));
+        }
+
+        assertThat(Collections.frequency(requested, REPOSITORY_PATH + "/raw/dir/Jenkinsfile"), is(2));
+    }
+
+    @Test
+    public void responseStreamClosesResponseAndClient() throws Exception {
+        CloseableHttpResponse response = response("content");
+        CloseableHttpClient httpClient = mock(CloseableHttpClient.class);
+
+        InputStream content = new BitbucketServerAPIClient.ResponseInputStream(response, httpClient);
+        assertThat(IOUtils.toString(content, "UTF-8"), is("content"));
+        content.close();
+
+        verify(response).close();
+        verify(httpClient).close();
+    }
+
+    @Test
+    public void responseStreamClosesClientWhenResponseFailsToClose() throws Exception {
+        CloseableHttpResponse response = response("content");
+        doThrow(new IOException("expected")).when(response).close();
+        CloseableHttpClient httpClient = mock(CloseableHttpClient.class);
+
+        try {
+            new BitbucketServerAPIClient.ResponseInputStream(response, httpClient).close();
+            throw new AssertionError("the response failed to close");
+        } catch (IOException e) {
+            // expected
+        }
+        verify(httpClient).close();
+    }
+
+    @Test
+    public void canMergeReusedForUnchangedCommits() throws Exception {
+        doReturn(true).when(client).getPullRequestCanMergeById(1);
+
+        BitbucketServerPullRequest first = pullRequest("1", HASH_A, HASH_B);
+        client.refreshCanMerge(Collections.singletonList(first));
+        BitbucketServerPullRequest second = pullRequest("1", HASH_A, HASH_B);
+        client.refreshCanMerge(Collections.singletonList(second));
+
+        assertThat(first.isCanMerge(), is(true));
+        assertThat(second.isCanMerge(), is(true));
+        verify(client, times(1)).getPullRequestCanMergeById(1);
+    }
+
+    @Test
+    public void canMergeRefreshedWhenSourceMoves() throws Exception {
+        doReturn(true).when(client).getPullRequestCanMergeById(1);
+        client.refreshCanMerge(Collections.singletonList(pullRequest("1", HASH_A, HASH_B)));
+
+        doReturn(false).when(client).getPullRequestCanMergeById(1);
+        BitbucketServerPullRequest moved = pullRequest("1", HASH_C, HASH_B);
+        client.refreshCanMerge(Collections.singletonList(moved));
+
+        assertThat(moved.isCanMerge(), is(false));
+        verify(client, times(2)).getPullRequestCanMergeById(1);
+    }
+
+    @Test
+    public void canMergeRefreshedWhenTargetMoves() throws Exception {
+        doReturn(true).when(client).getPullRequestCanMergeById(1);
+        client.refreshCanMerge(Collections.singletonList(pullRequest("1", HASH_A, HASH_B)));
+
+        doReturn(false).when(client).getPullRequestCanMergeById(1);
+        BitbucketServerPullRequest moved = pullRequest("1", HASH_A, HASH_C);
+        client.refreshCanMerge(Collections.singletonList(moved));
+
+        assertThat(moved.isCanMerge(), is(false));
+        verify(client, times(2)).getPullRequestCanMergeById(1);
+    }
+
+    @Test
+    public void canMergeRefreshedConcurrently() throws Exception {
+        // each call waits for the other, so both have to be in flight at once
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final Set<String> threads = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        doAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                threads.add(Thread.currentThread().getName());
+                barrier.await(10, TimeUnit.SECONDS);
+                return (Integer) invocation.getArguments()[0] == 1;
+            }
+        }).when(client).getPullRequestCanMergeById(anyInt());
+
+        BitbucketServerPullRequest first = pullRequest("1", HASH_A, HASH_B);
+        BitbucketServerPullRequest second = pullRequest("2", HASH_C, HASH_B);
+        client.refreshCanMerge(Arrays.asList(first, second));
+
+        assertThat(first.isCanMerge(), is(true));
+        assertThat(second.isCanMerge(), is(false));
+        assertThat(threads, hasSize(2));
+        assertThat(threads, not(hasItem(Thread.currentThread().getName())));
+    }
+
+    /**
+     * Starts a server for the {@link #responses}, each test getting its own server as the endpoints a server lacks
+     * are remembered by URL.
+     */
+    private BitbucketServerAPIClient serve() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                requested.add(path);
+                String body = responses.get(path);
+                byte[] bytes = (body == null ? "Not found" : body).getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(body == null ? 404 : 200, bytes.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(bytes);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        return new BitbucketServerAPIClient("http://localhost:" + server.getAddress().getPort(), "TST", "repo",
+                null, false);
+    }
+
+    private static CloseableHttpResponse response(String content) throws IOException {
+        HttpEntity entity = mock(HttpEntity.class);
+        when(entity.getContent()).thenReturn(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+        CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+        when(response.getEntity()).thenReturn(entity);
+        return response;
+    }
+
+    private static BitbucketSCMFile file(BitbucketServerAPIClient bitbucket, String path) {
+        BitbucketSCMFile file = new BitbucketSCMFile(null, bitbucket, "master", HASH_A);
+        String[] names = path.split("/");
+        for (int i = 0; i < names.length; i++) {
+            file = new BitbucketSCMFile(file, names[i],
+                    i < names.length - 1 ? SCMFile.Type.DIRECTORY : SCMFile.Type.REGULAR_FILE, HASH_A);
+        }
+        return file;
+    }
+
+    private static BitbucketServerPullRequest pullRequest(String id, String sourceHash, String targetHash) {
+        BitbucketServerPullRequestSource source = new BitbucketServerPullRequestSource();
+        source.setLatestCommit(sourceHash);
+        BitbucketServerPullRequestDestination destination = new BitbucketServerPullRequestDestination();
+        destination.setLatestCommit(targetHash);
+        BitbucketServerPullRequest pull = new BitbucketServerPullRequest();
+        pull.setId(id);
+        pull.setSource(source);
+        pull.setDestination(destination);
+        return pull;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.server.client.branch;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class BitbucketServerBranchTest {
+
+    @Test
+    public void timestampResolvedWhenFirstRead() {
+        final AtomicInteger calls = new AtomicInteger();
+        BitbucketServerBranch branch = new BitbucketServerBranch("v1.0", "8d51122def5632836d1cb1026e879069e10a1e13");
+        branch.setTimestampClosure(new Callable<Long>() {
+            @Override
+            public Long call() {
+                calls.incrementAndGet();
+                return 1526470283000L;
+            }
+        });
+        assertThat(calls.get(), is(0));
+        assertThat(branch.isTimestampKnown(), is(false));
+
+        assertThat(branch.getDateMillis(), is(1526470283000L));
+        assertThat(branch.getTimestamp(), is(1526470283000L));
+        assertThat(branch.isTimestampKnown(), is(true));
+        assertThat(calls.get(), is(1));
+    }
+
+    @Test
+    public void timestampUnknownWithoutClosure() {
+        BitbucketServerBranch branch = new BitbucketServerBranch("v1.0", "8d51122def5632836d1cb1026e879069e10a1e13");
+        assertThat(branch.getDateMillis(), is(0L));
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.bitbucket.server.client.branch;
+
+import com.cloudbees.jenkins.plugins.bitbucket.JsonParser;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class BitbucketServerBranchesTest {
+    @Rule
+    public final TestName testName = new TestName();
+
+    private String payload;
+
+    @Before
+    public void loadPayload() throws IOException {
+        try (InputStream is = getClass()
+                .getResourceAsStream(getClass().getSimpleName() + "/" + testName.getMethodName() + ".json")) {
+            payload = IOUtils.toString(is, "UTF-8");
+        }
+    }
+
+    @Test
+    public void detailsPayload() throws Exception {
+        List<BitbucketServerBranch> branches = JsonParser.toJava(payload, BitbucketServerBranches.class).getValues();
+        assertThat(branches.size(), is(2));
+
+        BitbucketServerBranch master = branches.get(0);
+        assertThat(master.getName(), is("master"));
+        assertThat(master.getRawNode(), is("8d51122def5632836d1cb1026e879069e10a1e13"));
+        assertThat(master.isTimestampKnown(), is(true));
+        assertThat(master.getDateMillis(), is(1526470283000L));
+
+        BitbucketServerBranch feature = branches.get(1);
+        assertThat(feature.getName(), is("feature"));
+        assertThat(feature.isTimestampKnown(), is(false));
+        assertThat(feature.getDateMillis(), is(0L));
+    }
+}